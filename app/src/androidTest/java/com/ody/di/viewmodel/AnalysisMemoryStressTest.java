@@ -0,0 +1,195 @@
+package com.ody.di.viewmodel;
+
+import android.app.Application;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.net.Uri;
+
+import com.ody.di.repository.AnalysisRepository;
+import com.ody.di.utils.MemoryGovernor;
+import com.ody.di.utils.Metrics;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import androidx.lifecycle.Observer;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Analyzes many large photos back to back with the bundled detector and checks that each one is
+ * analyzed, within the default memory budget and within one too small to hold them at full size,
+ * where the {@link MemoryGovernor} must degrade the decodes instead of failing them.
+ */
+@RunWith(AndroidJUnit4.class)
+public class AnalysisMemoryStressTest {
+
+    private static final long TIMEOUT_SECONDS = 60;
+    private static final int IMAGE_COUNT = 24;
+    private static final int IMAGE_WIDTH = 4000;
+    private static final int IMAGE_HEIGHT = 3000;
+    private static final long TIGHT_HEADROOM_BYTES = 16L * 1024 * 1024;
+
+    private final List<AnalysisUiState> finishedStates = Collections.synchronizedList(new ArrayList<>());
+    private final Observer<AnalysisUiState> observer = state -> {
+        if (state.status == AnalysisUiState.Status.INFERRED || state.status == AnalysisUiState.Status.ERROR) {
+            finishedStates.add(state);
+        }
+    };
+
+    private Application application;
+    private AnalysisViewModel viewModel;
+    private File photo;
+    // The photo and its copies, deleted after each test.
+    private final List<File> files = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        application = (Application) InstrumentationRegistry.getInstrumentation().getTargetContext().getApplicationContext();
+        viewModel = new AnalysisViewModel(application, new AnalysisRepository(application));
+        runOnMainSync(() -> viewModel.getUiState().observeForever(observer));
+        photo = writePhoto("stress.jpg");
+    }
+
+    @After
+    public void tearDown() {
+        runOnMainSync(() -> viewModel.getUiState().removeObserver(observer));
+        viewModel.onCleared();
+        MemoryGovernor governor = MemoryGovernor.getInstance(application);
+        governor.setHeapBudget(0);
+        governor.setBitmapBudget(0);
+        for (File file : files) {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void largeImagesAreAnalyzedBackToBackWithinTheDefaultBudget() throws Exception {
+        analyzeAll(copies(IMAGE_COUNT));
+
+        assertAllInferred();
+    }
+
+    @Test
+    public void aTightBudgetLowersTheDecodeSizeInsteadOfFailing() throws Exception {
+        // Loads the detector first, so the budget below leaves room for the images only.
+        analyzeAll(copies(1));
+        finishedStates.clear();
+        MemoryGovernor governor = MemoryGovernor.getInstance(application);
+        governor.setBitmapBudget(governor.getBitmapUsage() + TIGHT_HEADROOM_BYTES);
+        long reducedBefore = Metrics.getInstance().counter("memory.reduced").get();
+
+        analyzeAll(copies(IMAGE_COUNT));
+
+        assertAllInferred();
+        assertTrue(Metrics.getInstance().counter("memory.reduced").get() > reducedBefore);
+        for (AnalysisUiState state : finishedStates) {
+            long bytes = state.image.getAllocationByteCount();
+            assertTrue("A " + bytes + " byte image exceeds the headroom", bytes <= TIGHT_HEADROOM_BYTES);
+        }
+    }
+
+    @Test
+    public void fullSizeIntermediatesThatDontFitAreTiled() throws Exception {
+        MemoryGovernor governor = MemoryGovernor.getInstance(application);
+        governor.setBitmapBudget(governor.getBitmapUsage() + TIGHT_HEADROOM_BYTES);
+
+        // A format without subsampling decoders needs a 48 MB intermediate at any decode size.
+        try (MemoryGovernor.DecodePlan plan = governor.plan(IMAGE_WIDTH, IMAGE_HEIGHT, "image/heif", 2400, false)) {
+            assertTrue(plan.tiled);
+            assertEquals(Bitmap.Config.ARGB_8888, plan.config);
+        }
+        try (MemoryGovernor.DecodePlan plan = governor.plan(IMAGE_WIDTH, IMAGE_HEIGHT, "image/jpeg", 2400, false)) {
+            assertFalse(plan.tiled);
+        }
+    }
+
+    /**
+     * Analyzes the images one after the other, each as soon as the previous one is done.
+     */
+    private void analyzeAll(List<Uri> images) throws InterruptedException {
+        int finishedBefore = finishedStates.size();
+        for (int i = 0; i < images.size(); i++) {
+            Uri image = images.get(i);
+            runOnMainSync(() -> viewModel.analyzeImage(image));
+            awaitFinishedStates(finishedBefore + i + 1);
+        }
+    }
+
+    private void assertAllInferred() {
+        for (AnalysisUiState state : finishedStates) {
+            assertEquals(AnalysisUiState.Status.INFERRED, state.status);
+        }
+    }
+
+    /**
+     * Writes one large photo with a few shapes on it. Copies of its file are analyzed, so each is
+     * decoded anew instead of being taken from the decoded image cache.
+     */
+    private File writePhoto(String name) throws IOException {
+        Bitmap bitmap = Bitmap.createBitmap(IMAGE_WIDTH, IMAGE_HEIGHT, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        canvas.drawColor(Color.WHITE);
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setColor(Color.RED);
+        canvas.drawCircle(IMAGE_WIDTH / 3f, IMAGE_HEIGHT / 2f, IMAGE_HEIGHT / 5f, paint);
+        paint.setColor(Color.YELLOW);
+        canvas.drawCircle(IMAGE_WIDTH * 2 / 3f, IMAGE_HEIGHT / 2f, IMAGE_HEIGHT / 6f, paint);
+        File file = new File(application.getCacheDir(), name);
+        files.add(file);
+        try (OutputStream out = new FileOutputStream(file)) {
+            bitmap.compress(Bitmap.CompressFormat.JPEG, 90, out);
+        } finally {
+            bitmap.recycle();
+        }
+        return file;
+    }
+
+    private List<Uri> copies(int count) throws IOException {
+        List<Uri> images = new ArrayList<>(count);
+        byte[] buffer = new byte[64 * 1024];
+        for (int i = 0; i < count; i++) {
+            File copy = new File(application.getCacheDir(), "stress-" + System.nanoTime() + ".jpg");
+            files.add(copy);
+            try (InputStream in = new FileInputStream(photo); OutputStream out = new FileOutputStream(copy)) {
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+            }
+            images.add(Uri.fromFile(copy));
+        }
+        return images;
+    }
+
+    private void awaitFinishedStates(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        while (finishedStates.size() < count && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue("Timed out waiting for " + count + " analyses", finishedStates.size() >= count);
+    }
+
+    private static void runOnMainSync(Runnable runnable) {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(runnable);
+    }
+}
@@ -0,0 +1,168 @@
+package com.ody.di.viewmodel;
+
+import android.app.Application;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.graphics.RectF;
+import android.net.Uri;
+
+import com.ody.di.repository.AnalysisRepository;
+import com.ody.di.utils.AppExecutors;
+import com.ody.di.utils.ImageUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.tensorflow.lite.examples.detection.tflite.Detector;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import androidx.lifecycle.Observer;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the analysis screen runs inference exactly once per image, however often the image
+ * is requested, and emits a single inferred state for it.
+ */
+@RunWith(AndroidJUnit4.class)
+public class AnalysisViewModelTest {
+
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private final AtomicInteger detectorsCreated = new AtomicInteger();
+    private final AtomicInteger inferences = new AtomicInteger();
+    private final List<AnalysisUiState> inferredStates = Collections.synchronizedList(new ArrayList<>());
+    private final Observer<AnalysisUiState> observer = state -> {
+        if (state.status == AnalysisUiState.Status.INFERRED) {
+            inferredStates.add(state);
+        }
+    };
+
+    private Application application;
+    private AnalysisViewModel viewModel;
+
+    @Before
+    public void setUp() {
+        application = (Application) InstrumentationRegistry.getInstrumentation().getTargetContext().getApplicationContext();
+        viewModel = new AnalysisViewModel(application, new AnalysisRepository(application), () -> {
+            detectorsCreated.incrementAndGet();
+            return new CountingDetector();
+        });
+        runOnMainSync(() -> viewModel.getUiState().observeForever(observer));
+    }
+
+    @After
+    public void tearDown() {
+        runOnMainSync(() -> viewModel.getUiState().removeObserver(observer));
+        viewModel.onCleared();
+    }
+
+    @Test
+    public void repeatedRequestsForTheSameImageInferOnce() throws Exception {
+        Uri image = writeImage("same.png");
+
+        runOnMainSync(() -> {
+            viewModel.analyzeImage(image);
+            // A recreated activity asks again while the first request is running...
+            viewModel.analyzeImage(image);
+        });
+        awaitInferredStates(1);
+
+        // ...or after it finished.
+        runOnMainSync(() -> viewModel.analyzeImage(image));
+        drainInferencePool();
+
+        assertEquals(1, inferences.get());
+        assertEquals(1, detectorsCreated.get());
+        assertEquals(1, inferredStates.size());
+        assertEquals(1, inferredStates.get(0).recognitions.size());
+    }
+
+    @Test
+    public void eachNewImageInfersOnceWithTheSameDetector() throws Exception {
+        Uri first = writeImage("first.png");
+        Uri second = writeImage("second.png");
+
+        runOnMainSync(() -> viewModel.analyzeImage(first));
+        awaitInferredStates(1);
+        runOnMainSync(() -> viewModel.analyzeImage(second));
+        awaitInferredStates(2);
+        runOnMainSync(() -> viewModel.analyzeImage(second));
+        drainInferencePool();
+
+        assertEquals(2, inferences.get());
+        assertEquals(1, detectorsCreated.get());
+        assertEquals(2, inferredStates.size());
+    }
+
+    private Uri writeImage(String name) {
+        Bitmap bitmap = Bitmap.createBitmap(64, 48, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(Color.GRAY);
+        File file = new File(application.getCacheDir(), name);
+        ImageUtils.saveBitmapAsPNG(bitmap, file);
+        return Uri.fromFile(file);
+    }
+
+    private void awaitInferredStates(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        while (inferredStates.size() < count && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue("Timed out waiting for " + count + " inferred states", inferredStates.size() >= count);
+    }
+
+    /**
+     * Waits until the single inference thread has run everything submitted before, so any duplicate
+     * inference would have happened.
+     */
+    private void drainInferencePool() throws InterruptedException {
+        CountDownLatch drained = new CountDownLatch(1);
+        AppExecutors.getInstance().inference().execute(drained::countDown);
+        assertTrue(drained.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        InstrumentationRegistry.getInstrumentation().waitForIdleSync();
+    }
+
+    private static void runOnMainSync(Runnable runnable) {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(runnable);
+    }
+
+    private class CountingDetector implements Detector {
+        @Override
+        public List<Recognition> recognizeImage(Bitmap bitmap) {
+            inferences.incrementAndGet();
+            return Collections.singletonList(new Recognition("1", "apple", 0.9f, new RectF(4, 4, 20, 20)));
+        }
+
+        @Override
+        public void enableStatLogging(boolean debug) {
+        }
+
+        @Override
+        public String getStatString() {
+            return "";
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public void setNumThreads(int numThreads) {
+        }
+
+        @Override
+        public void setUseNNAPI(boolean isChecked) {
+        }
+    }
+}
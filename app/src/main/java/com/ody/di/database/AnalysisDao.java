@@ -1,23 +1,46 @@
 package com.ody.di.database;
 
 import com.ody.di.database.entities.Analysis;
+import com.ody.di.database.entities.AnalysisStats;
+import com.ody.di.database.entities.Detection;
+import com.ody.di.database.entities.LabelStats;
 
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
-import androidx.lifecycle.LiveData;
 import androidx.room.Dao;
 import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
 import androidx.room.Query;
+import androidx.room.Transaction;
+import io.reactivex.rxjava3.core.Flowable;
 
 /**
  * Data Access Object (DAO) for the Analysis entity. This interface provides methods for
- * performing CRUD (Create, Read, Update, Delete) operations on the Analysis table.
+ * performing CRUD (Create, Read, Update, Delete) operations on the Analysis table and typed
+ * queries over its Detection child rows.
  *
  * @author Debidutt Prasad
  */
 @Dao
 public interface AnalysisDao {
 
+    /**
+     * Number of serial numbers bound per statement by the bulk operations, well below SQLite's
+     * bound variable limit of 999.
+     */
+    int BULK_CHUNK_SIZE = 500;
+
+    /**
+     * Returns the highest serial number in use, for seeding the serial number allocator.
+     *
+     * @return The serial number, or 0 if there are no analyses.
+     */
+    @Query("SELECT IFNULL(MAX(serialNumber), 0) FROM Analysis")
+    long getMaxSerialNumber();
+
     /**
      * Inserts an analysis into the database.
      *
@@ -27,6 +50,34 @@ public interface AnalysisDao {
     @Insert
     long insertAnalysis(Analysis analysis);
 
+    /**
+     * Inserts several analyses in a single transaction.
+     *
+     * @param analyses The analysis entities to be inserted.
+     * @return The serial numbers of the inserted analyses, in the order they were given.
+     */
+    @Insert
+    List<Long> insertAll(List<Analysis> analyses);
+
+    /**
+     * Inserts several analyses in a single transaction, skipping those whose serial number is
+     * already taken. Used when importing an archive into an existing history.
+     *
+     * @param analyses The analysis entities to be inserted.
+     * @return The serial numbers of the inserted analyses, or -1 for skipped ones, in order.
+     */
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    List<Long> insertAllIfAbsent(List<Analysis> analyses);
+
+    /**
+     * Counts the analyses referencing the given image file name.
+     *
+     * @param imageReference The image file name stored with the analysis.
+     * @return The number of analyses that reference the image.
+     */
+    @Query("SELECT COUNT(*) FROM Analysis WHERE image_reference = :imageReference")
+    int countByImageReference(String imageReference);
+
     /**
      * Retrieves an Analysis entry based on a provided serial number.
      *
@@ -36,6 +87,15 @@ public interface AnalysisDao {
     @Query("SELECT * FROM Analysis WHERE serialNumber = :serialNum")
     Analysis getAnalysisBySerialNumber(long serialNum);
 
+    /**
+     * Retrieves only the image reference of an analysis, without its detections.
+     *
+     * @param serialNum The serial number (ID) of the analysis entry.
+     * @return The image file name, or null if the analysis doesn't exist.
+     */
+    @Query("SELECT image_reference FROM Analysis WHERE serialNumber = :serialNum")
+    String getImageReference(long serialNum);
+
     /**
      * Deletes an Analysis entry based on a provided serial number.
      *
@@ -46,11 +106,495 @@ public interface AnalysisDao {
     int deleteAnalysisBySerialNumber(long serialNum);
 
     /**
-     * Retrieves all Analysis entries from the database.
+     * Deletes the analyses with the given serial numbers. Their detections go with them.
+     *
+     * @param serialNums The serial numbers to delete. Callers keep this below SQLite's bound
+     *                   variable limit.
+     * @return The number of rows deleted.
+     */
+    @Query("DELETE FROM Analysis WHERE serialNumber IN (:serialNums)")
+    int deleteBySerialNumbers(List<Long> serialNums);
+
+    /**
+     * Retrieves the distinct image references of the given analyses.
+     *
+     * @param serialNums The serial numbers to look up. Callers keep this below SQLite's bound
+     *                   variable limit.
+     * @return The image file names referenced by those analyses.
+     */
+    @Query("SELECT DISTINCT image_reference FROM Analysis WHERE serialNumber IN (:serialNums)")
+    List<String> getImageReferences(List<Long> serialNums);
+
+    /**
+     * Deletes any number of analyses in one transaction, {@link #BULK_CHUNK_SIZE} rows per
+     * statement, so deleting N analyses issues O(N / chunk) statements.
+     *
+     * @param serialNums The serial numbers to delete.
+     * @return The image file names the deleted analyses referenced, to be released afterwards.
+     */
+    @Transaction
+    default List<String> deleteByIds(List<Long> serialNums) {
+        Set<String> imageReferences = new LinkedHashSet<>();
+        for (int start = 0; start < serialNums.size(); start += BULK_CHUNK_SIZE) {
+            List<Long> chunk = serialNums.subList(start, Math.min(serialNums.size(), start + BULK_CHUNK_SIZE));
+            imageReferences.addAll(getImageReferences(chunk));
+            deleteBySerialNumbers(chunk);
+        }
+        return new ArrayList<>(imageReferences);
+    }
+
+    /**
+     * Retrieves one page of the history, newest first, starting below the given serial number
+     * (keyset pagination). Rows whose image is missing are left out.
+     *
+     * @param beforeSerialNum Serial number of the last row of the previous page, or
+     *                        {@link Long#MAX_VALUE} for the first page.
+     * @param limit           Maximum number of rows to return.
+     * @return The rows of the page.
+     */
+    @Query("SELECT serialNumber, image_reference, image_missing FROM Analysis"
+            + " WHERE serialNumber < :beforeSerialNum AND image_missing = 0"
+            + " ORDER BY serialNumber DESC LIMIT :limit")
+    List<AnalysisImageRef> getHistoryPage(long beforeSerialNum, int limit);
+
+    /**
+     * Retrieves the page of the history just above the given serial number, oldest first, for
+     * paging back towards the newest rows. Rows whose image is missing are left out.
+     *
+     * @param afterSerialNum Serial number of the first row already loaded.
+     * @param limit          Maximum number of rows to return.
+     * @return The rows of the page, in ascending serial number order.
+     */
+    @Query("SELECT serialNumber, image_reference, image_missing FROM Analysis"
+            + " WHERE serialNumber > :afterSerialNum AND image_missing = 0"
+            + " ORDER BY serialNumber LIMIT :limit")
+    List<AnalysisImageRef> getHistoryPageAfter(long afterSerialNum, int limit);
+
+    /**
+     * Counts the visible analyses newer than the given serial number, i.e. the position of that
+     * serial number in the history.
+     *
+     * @param afterSerialNum The serial number.
+     * @return The number of visible analyses above it.
+     */
+    @Query("SELECT COUNT(*) FROM Analysis WHERE serialNumber > :afterSerialNum AND image_missing = 0")
+    int countVisibleAnalysesAfter(long afterSerialNum);
+
+    /**
+     * Counts the analyses shown in the history, i.e. those whose image isn't missing.
+     *
+     * @return The number of visible analyses.
+     */
+    @Query("SELECT COUNT(*) FROM Analysis WHERE image_missing = 0")
+    int countVisibleAnalyses();
+
+    /**
+     * Retrieves one page of the analyses matching a full-text query, newest first, with the same
+     * keyset pagination as {@link #getHistoryPage(long, int)}.
+     *
+     * @param matchQuery      FTS4 MATCH expression over labels and notes, see {@link SearchQuery}.
+     * @param beforeSerialNum Serial number of the last row of the previous page, or
+     *                        {@link Long#MAX_VALUE} for the first page.
+     * @param limit           Maximum number of rows to return.
+     * @return The rows of the page.
+     */
+    @Query("SELECT serialNumber, image_reference, image_missing FROM Analysis"
+            + " WHERE serialNumber IN (SELECT rowid FROM AnalysisSearch WHERE AnalysisSearch MATCH :matchQuery)"
+            + " AND serialNumber < :beforeSerialNum AND image_missing = 0"
+            + " ORDER BY serialNumber DESC LIMIT :limit")
+    List<AnalysisImageRef> getSearchPage(String matchQuery, long beforeSerialNum, int limit);
+
+    /**
+     * Retrieves the page of the matching analyses just above the given serial number, oldest first,
+     * like {@link #getHistoryPageAfter(long, int)}.
+     *
+     * @param matchQuery     FTS4 MATCH expression over labels and notes, see {@link SearchQuery}.
+     * @param afterSerialNum Serial number of the first row already loaded.
+     * @param limit          Maximum number of rows to return.
+     * @return The rows of the page, in ascending serial number order.
+     */
+    @Query("SELECT serialNumber, image_reference, image_missing FROM Analysis"
+            + " WHERE serialNumber IN (SELECT rowid FROM AnalysisSearch WHERE AnalysisSearch MATCH :matchQuery)"
+            + " AND serialNumber > :afterSerialNum AND image_missing = 0"
+            + " ORDER BY serialNumber LIMIT :limit")
+    List<AnalysisImageRef> getSearchPageAfter(String matchQuery, long afterSerialNum, int limit);
+
+    /**
+     * Counts the visible analyses matching a full-text query.
+     *
+     * @param matchQuery FTS4 MATCH expression over labels and notes, see {@link SearchQuery}.
+     * @return The number of matching analyses.
+     */
+    @Query("SELECT COUNT(*) FROM Analysis"
+            + " WHERE serialNumber IN (SELECT rowid FROM AnalysisSearch WHERE AnalysisSearch MATCH :matchQuery)"
+            + " AND image_missing = 0")
+    int countSearchResults(String matchQuery);
+
+    /**
+     * Counts the visible analyses matching a full-text query that are newer than the given serial
+     * number.
+     *
+     * @param matchQuery     FTS4 MATCH expression over labels and notes, see {@link SearchQuery}.
+     * @param afterSerialNum The serial number.
+     * @return The number of matching analyses above it.
+     */
+    @Query("SELECT COUNT(*) FROM Analysis"
+            + " WHERE serialNumber IN (SELECT rowid FROM AnalysisSearch WHERE AnalysisSearch MATCH :matchQuery)"
+            + " AND serialNumber > :afterSerialNum AND image_missing = 0")
+    int countSearchResultsAfter(String matchQuery, long afterSerialNum);
+
+    /**
+     * Finds the analyses whose labels or note match a full-text query, newest first.
+     *
+     * @param matchQuery FTS4 MATCH expression over labels and notes, see {@link SearchQuery}.
+     * @return The serial numbers of the matching analyses.
+     */
+    @Query("SELECT rowid FROM AnalysisSearch WHERE AnalysisSearch MATCH :matchQuery ORDER BY rowid DESC")
+    List<Long> searchAnalyses(String matchQuery);
+
+    /**
+     * Sets or clears the user note of an analysis. The search index follows through its triggers.
+     *
+     * @param serialNum The serial number of the analysis.
+     * @param note      The note, or null to clear it.
+     * @return The number of rows updated.
+     */
+    @Query("UPDATE Analysis SET note = :note WHERE serialNumber = :serialNum")
+    int updateNote(long serialNum, String note);
+
+    /**
+     * Returns which of the given image file names are referenced by at least one analysis.
+     *
+     * @param imageReferences Image file names to look up. Callers keep this below SQLite's bound
+     *                        variable limit.
+     * @return The subset of the given names that have a row.
+     */
+    @Query("SELECT DISTINCT image_reference FROM Analysis WHERE image_reference IN (:imageReferences)")
+    List<String> findReferencedImages(List<String> imageReferences);
+
+    /**
+     * Retrieves the image references of a chunk of analyses in serial number order, starting after
+     * the given serial number. Used to walk the table incrementally without loading the detections.
+     *
+     * @param afterSerialNum Serial number of the last row of the previous chunk, or 0 to start.
+     * @param limit          Maximum number of rows to return.
+     * @return The next chunk of image references.
+     */
+    @Query("SELECT serialNumber, image_reference, image_missing FROM Analysis WHERE serialNumber > :afterSerialNum ORDER BY serialNumber LIMIT :limit")
+    List<AnalysisImageRef> getImageRefsAfter(long afterSerialNum, int limit);
+
+    /**
+     * Retrieves a chunk of complete analyses in serial number order, starting after the given
+     * serial number. Used to stream the history out without holding it in memory.
+     *
+     * @param afterSerialNum Serial number of the last row of the previous chunk, or 0 to start.
+     * @param limit          Maximum number of rows to return.
+     * @return The next chunk of analyses.
+     */
+    @Query("SELECT * FROM Analysis WHERE serialNumber > :afterSerialNum ORDER BY serialNumber LIMIT :limit")
+    List<Analysis> getAnalysesAfter(long afterSerialNum, int limit);
+
+    /**
+     * Retrieves a chunk of the distinct image references in name order, starting after the given
+     * name. Served by the image_reference index.
+     *
+     * @param afterImageReference Last name of the previous chunk, or an empty string to start.
+     * @param limit               Maximum number of names to return.
+     * @return The next chunk of image file names.
+     */
+    @Query("SELECT DISTINCT image_reference FROM Analysis WHERE image_reference > :afterImageReference ORDER BY image_reference LIMIT :limit")
+    List<String> getImageReferencesAfter(String afterImageReference, int limit);
+
+    /**
+     * Flags or clears the missing image marker on the given analyses.
+     *
+     * @param serialNums The serial numbers of the analyses to update.
+     * @param missing    True if their image file is missing.
+     * @return The number of rows updated.
+     */
+    @Query("UPDATE Analysis SET image_missing = :missing WHERE serialNumber IN (:serialNums)")
+    int setImageMissing(List<Long> serialNums, boolean missing);
+
+    /**
+     * Inserts detection rows. Their analyses must already exist.
+     *
+     * @param detections The detections to be inserted.
+     */
+    @Insert
+    void insertDetections(List<Detection> detections);
+
+    /**
+     * Retrieves the detections of an analysis, most confident first.
+     *
+     * @param analysisId The serial number of the analysis.
+     * @return The detections of the analysis.
+     */
+    @Query("SELECT * FROM Detection WHERE analysis_id = :analysisId ORDER BY score DESC")
+    List<Detection> getDetectionsForAnalysis(long analysisId);
+
+    /**
+     * Finds the analyses containing a given class at or above a minimum score, newest first.
+     * Served by the (class_id, score) index.
+     *
+     * @param classId  The class ID of the detected label.
+     * @param minScore The minimum confidence score.
+     * @return The serial numbers of the matching analyses.
+     */
+    @Query("SELECT DISTINCT analysis_id FROM Detection WHERE class_id = :classId AND score >= :minScore ORDER BY analysis_id DESC")
+    List<Long> findAnalysesWithClass(int classId, float minScore);
+
+    /**
+     * Counts the detections of a given class at or above a minimum score.
+     *
+     * @param classId  The class ID of the detected label.
+     * @param minScore The minimum confidence score.
+     * @return The number of matching detections.
+     */
+    @Query("SELECT COUNT(*) FROM Detection WHERE class_id = :classId AND score >= :minScore")
+    int countDetectionsOfClass(int classId, float minScore);
+
+    /**
+     * Retrieves a chunk of analyses that have no detection rows yet, in serial number order.
+     * Used to backfill the Detection table from the detections blob.
+     *
+     * @param afterSerialNum Serial number of the last row of the previous chunk, or 0 to start.
+     * @param limit          Maximum number of rows to return.
+     * @return The next chunk of analyses to backfill.
+     */
+    @Query("SELECT * FROM Analysis WHERE serialNumber > :afterSerialNum"
+            + " AND NOT EXISTS (SELECT 1 FROM Detection WHERE analysis_id = serialNumber)"
+            + " ORDER BY serialNumber LIMIT :limit")
+    List<Analysis> getAnalysesWithoutDetections(long afterSerialNum, int limit);
+
+    /**
+     * Retrieves a chunk of the analyses produced by another model or with other options than the
+     * given ones, in serial number order. Analyses whose image is missing or has the detections
+     * drawn in are left out, as they can't be analyzed again.
+     *
+     * @param afterSerialNum   Serial number of the last row of the previous chunk, or 0 to start.
+     * @param modelId          ID of the current model.
+     * @param modelVersion     Version of the current model.
+     * @param detectionOptions Current detection options.
+     * @param limit            Maximum number of rows to return.
+     * @return The next chunk of outdated analyses.
+     */
+    @Query("SELECT serialNumber, image_reference, image_missing FROM Analysis WHERE serialNumber > :afterSerialNum"
+            + " AND image_missing = 0 AND image_annotated = 0"
+            + " AND (model_id IS NOT :modelId OR model_version != :modelVersion OR detection_options IS NOT :detectionOptions)"
+            + " ORDER BY serialNumber LIMIT :limit")
+    List<AnalysisImageRef> getOutdatedAnalyses(long afterSerialNum, String modelId, int modelVersion,
+                                               String detectionOptions, int limit);
+
+    /**
+     * Replaces the detections of an analysis and the model they came from, provided the analysis
+     * still refers to the same image. The note is left alone; the JSON kept by the version 6
+     * migration no longer matches the detections and is cleared.
+     *
+     * @param serialNum        The serial number of the analysis.
+     * @param imageReference   The image the detections were computed from.
+     * @param detections       The new detections, encoded by the DetectionCodec.
+     * @param labels           The distinct labels of the new detections.
+     * @param modelId          ID of the model that produced them.
+     * @param modelVersion     Version of that model.
+     * @param detectionOptions Options the detector ran with.
+     * @return The number of rows updated, 0 if the analysis is gone or changed.
+     */
+    @Query("UPDATE Analysis SET detections = :detections, labels = :labels, model_id = :modelId,"
+            + " model_version = :modelVersion, detection_options = :detectionOptions, detected_objects = NULL"
+            + " WHERE serialNumber = :serialNum AND image_reference = :imageReference")
+    int updateDetections(long serialNum, String imageReference, byte[] detections, String labels,
+                         String modelId, int modelVersion, String detectionOptions);
+
+    /**
+     * Records how long an analysis took and on what configuration.
+     *
+     * @param serialNum   The serial number of the analysis.
+     * @param decodeMs    Time spent obtaining the decoded image.
+     * @param inferenceMs Time spent in the detector.
+     * @param totalMs     Time from the start of the analysis to its detections.
+     * @param threadCount Number of threads the detector ran on.
+     * @param inputWidth  Width of the image given to the detector.
+     * @param inputHeight Height of the image given to the detector.
+     * @param device      The device, SoC and build the detector ran on.
+     * @return The number of rows updated.
+     */
+    @Query("UPDATE Analysis SET decode_ms = :decodeMs, inference_ms = :inferenceMs, total_ms = :totalMs,"
+            + " thread_count = :threadCount, input_width = :inputWidth, input_height = :inputHeight, device = :device"
+            + " WHERE serialNumber = :serialNum")
+    int updateTiming(long serialNum, Long decodeMs, Long inferenceMs, Long totalMs, int threadCount,
+                     int inputWidth, int inputHeight, String device);
+
+    /**
+     * Deletes the detection rows of an analysis.
+     *
+     * @param analysisId The serial number of the analysis.
+     * @return The number of rows deleted.
+     */
+    @Query("DELETE FROM Detection WHERE analysis_id = :analysisId")
+    int deleteDetectionsForAnalysis(long analysisId);
+
+    /**
+     * Swaps in new detections for a chunk of analyses in one transaction: the detections blob,
+     * labels, model and timing of each row, and its Detection rows. Readers see either the old or the new
+     * results of the whole chunk. Analyses deleted or changed since they were read are skipped.
+     *
+     * @param analyses The analyses, with serial number, image reference, detections, labels, model
+     *                 and timing set.
+     * @return The serial numbers of the analyses updated.
+     */
+    @Transaction
+    default List<Long> replaceDetections(List<Analysis> analyses) {
+        List<Long> updated = new ArrayList<>(analyses.size());
+        for (Analysis analysis : analyses) {
+            if (updateDetections(analysis.serialNumber, analysis.imageReference, analysis.detections, analysis.labels,
+                    analysis.modelId, analysis.modelVersion, analysis.detectionOptions) == 0) {
+                continue;
+            }
+            updateTiming(analysis.serialNumber, analysis.decodeMs, analysis.inferenceMs, analysis.totalMs,
+                    analysis.threadCount, analysis.inputWidth, analysis.inputHeight, analysis.device);
+            deleteDetectionsForAnalysis(analysis.serialNumber);
+            insertDetections(DetectionMapper.toDetections(analysis.serialNumber, DetectionCodec.decode(analysis.detections)));
+            updated.add(analysis.serialNumber);
+        }
+        return updated;
+    }
+
+    /**
+     * Counts the timed analyses of each model version. Analyses missing either timing are left out,
+     * so the count matches the rows the percentile lookups rank.
+     *
+     * @return One group per model ID and version, in that order.
+     */
+    @Query("SELECT model_id AS `key`, model_version, COUNT(*) AS count FROM Analysis"
+            + " WHERE inference_ms IS NOT NULL AND total_ms IS NOT NULL"
+            + " GROUP BY model_id, model_version ORDER BY model_id, model_version")
+    List<LatencyGroup> countTimedAnalysesPerModel();
+
+    /**
+     * Counts the timed analyses of each day, the day being the {@code yyyyMMdd} prefix of the
+     * serial number.
+     *
+     * @param days Maximum number of days to return.
+     * @return One group per day, most recent first.
+     */
+    @Query("SELECT CAST(serialNumber / 1000000 AS TEXT) AS `key`, 0 AS model_version, COUNT(*) AS count FROM Analysis"
+            + " WHERE inference_ms IS NOT NULL AND total_ms IS NOT NULL"
+            + " GROUP BY serialNumber / 1000000 ORDER BY serialNumber / 1000000 DESC LIMIT :days")
+    List<LatencyGroup> countTimedAnalysesPerDay(int days);
+
+    /**
+     * Returns the inference time at a given position among the timed analyses of a model version,
+     * sorted.
+     *
+     * @param modelId      The model ID, or null for analyses saved before models were recorded.
+     * @param modelVersion The model version.
+     * @param offset       The zero-based position.
+     * @return The inference time in milliseconds, or null if the group has no row at that position.
+     */
+    @Query("SELECT inference_ms FROM Analysis WHERE model_id IS :modelId AND model_version = :modelVersion"
+            + " AND inference_ms IS NOT NULL AND total_ms IS NOT NULL ORDER BY inference_ms LIMIT 1 OFFSET :offset")
+    Long getInferenceMsOfModelAt(String modelId, int modelVersion, int offset);
+
+    /**
+     * Returns the total time at a given position among the timed analyses of a model version, sorted.
+     *
+     * @param modelId      The model ID, or null for analyses saved before models were recorded.
+     * @param modelVersion The model version.
+     * @param offset       The zero-based position.
+     * @return The total time in milliseconds, or null if the group has no row at that position.
+     */
+    @Query("SELECT total_ms FROM Analysis WHERE model_id IS :modelId AND model_version = :modelVersion"
+            + " AND inference_ms IS NOT NULL AND total_ms IS NOT NULL ORDER BY total_ms LIMIT 1 OFFSET :offset")
+    Long getTotalMsOfModelAt(String modelId, int modelVersion, int offset);
+
+    /**
+     * Returns the inference time at a given position among the timed analyses of a day, sorted.
+     * The day's rows are a serial number range, read through the primary key.
+     *
+     * @param day    The day as {@code yyyyMMdd}.
+     * @param offset The zero-based position.
+     * @return The inference time in milliseconds, or null if the day has no row at that position.
+     */
+    @Query("SELECT inference_ms FROM Analysis WHERE serialNumber BETWEEN :day * 1000000 AND :day * 1000000 + 999999"
+            + " AND inference_ms IS NOT NULL AND total_ms IS NOT NULL ORDER BY inference_ms LIMIT 1 OFFSET :offset")
+    Long getInferenceMsOfDayAt(long day, int offset);
+
+    /**
+     * Returns the total time at a given position among the timed analyses of a day, sorted.
+     *
+     * @param day    The day as {@code yyyyMMdd}.
+     * @param offset The zero-based position.
+     * @return The total time in milliseconds, or null if the day has no row at that position.
+     */
+    @Query("SELECT total_ms FROM Analysis WHERE serialNumber BETWEEN :day * 1000000 AND :day * 1000000 + 999999"
+            + " AND inference_ms IS NOT NULL AND total_ms IS NOT NULL ORDER BY total_ms LIMIT 1 OFFSET :offset")
+    Long getTotalMsOfDayAt(long day, int offset);
+
+    /**
+     * Computes the p50, p90 and p99 latencies of each model version from the stored timings, in one
+     * read transaction. SQLite on the supported API levels has no window functions, so each
+     * percentile is read at its rank.
+     *
+     * @return The percentiles of each model version that has timed analyses.
+     */
+    @Transaction
+    default List<LatencyPercentiles> getLatencyPercentilesPerModel() {
+        List<LatencyGroup> groups = countTimedAnalysesPerModel();
+        List<LatencyPercentiles> percentiles = new ArrayList<>(groups.size());
+        for (LatencyGroup group : groups) {
+            int p50 = LatencyPercentiles.offsetOf(50, group.count);
+            int p90 = LatencyPercentiles.offsetOf(90, group.count);
+            int p99 = LatencyPercentiles.offsetOf(99, group.count);
+            String modelId = group.key;
+            int version = group.modelVersion;
+            percentiles.add(new LatencyPercentiles(modelId, version, group.count,
+                    getInferenceMsOfModelAt(modelId, version, p50), getInferenceMsOfModelAt(modelId, version, p90),
+                    getInferenceMsOfModelAt(modelId, version, p99),
+                    getTotalMsOfModelAt(modelId, version, p50), getTotalMsOfModelAt(modelId, version, p90),
+                    getTotalMsOfModelAt(modelId, version, p99)));
+        }
+        return percentiles;
+    }
+
+    /**
+     * Computes the p50, p90 and p99 latencies of each recent day from the stored timings, in one
+     * read transaction.
+     *
+     * @param days Maximum number of days, most recent first.
+     * @return The percentiles of each day that has timed analyses.
+     */
+    @Transaction
+    default List<LatencyPercentiles> getLatencyPercentilesPerDay(int days) {
+        List<LatencyGroup> groups = countTimedAnalysesPerDay(days);
+        List<LatencyPercentiles> percentiles = new ArrayList<>(groups.size());
+        for (LatencyGroup group : groups) {
+            long day = Long.parseLong(group.key);
+            int p50 = LatencyPercentiles.offsetOf(50, group.count);
+            int p90 = LatencyPercentiles.offsetOf(90, group.count);
+            int p99 = LatencyPercentiles.offsetOf(99, group.count);
+            percentiles.add(new LatencyPercentiles(group.key, 0, group.count,
+                    getInferenceMsOfDayAt(day, p50), getInferenceMsOfDayAt(day, p90), getInferenceMsOfDayAt(day, p99),
+                    getTotalMsOfDayAt(day, p50), getTotalMsOfDayAt(day, p90), getTotalMsOfDayAt(day, p99)));
+        }
+        return percentiles;
+    }
+
+    /**
+     * Observes the materialized history statistics. Reads a single row, whatever the history size.
+     * Re-emits on every change to the table, even if the row is unchanged.
+     *
+     * @return Flowable of the statistics row.
+     */
+    @Query("SELECT * FROM AnalysisStats WHERE id = 0")
+    Flowable<AnalysisStats> observeStats();
+
+    /**
+     * Observes the materialized number of detections per class, most frequent first.
+     *
+     * Re-emits on every change to the table, even if the counts are unchanged.
      *
-     * @return A LiveData list containing all Analysis entries. The list is observed for changes,
-     * allowing for automatic UI updates.
+     * @return Flowable of the per-class counts.
      */
-    @Query("SELECT * FROM analysis")
-    LiveData<List<Analysis>> getAll();
+    @Query("SELECT * FROM LabelStats WHERE detections > 0 ORDER BY detections DESC")
+    Flowable<List<LabelStats>> observeLabelStats();
 }
@@ -3,6 +3,11 @@ package com.ody.di.database;
 import android.content.Context;
 
 import com.ody.di.database.entities.Analysis;
+import com.ody.di.database.entities.AnalysisSearch;
+import com.ody.di.database.entities.AnalysisStats;
+import com.ody.di.database.entities.Detection;
+import com.ody.di.database.entities.ImportJob;
+import com.ody.di.database.entities.LabelStats;
 
 import androidx.room.Database;
 import androidx.room.Room;
@@ -22,7 +27,8 @@ import androidx.room.RoomDatabase;
  *
  * @author Debidutt Prasad
  */
-@Database(entities = {Analysis.class}, version = 1, exportSchema = false)
+@Database(entities = {Analysis.class, Detection.class, AnalysisStats.class, LabelStats.class, AnalysisSearch.class,
+        ImportJob.class}, version = 10, exportSchema = false)
 public abstract class AnalysisDatabase extends RoomDatabase {
 
     /**
@@ -32,6 +38,13 @@ public abstract class AnalysisDatabase extends RoomDatabase {
      */
     public abstract AnalysisDao analysisDao();
 
+    /**
+     * Provides access to the DAO of the gallery import queue.
+     *
+     * @return The DAO associated with the ImportJob table.
+     */
+    public abstract ImportJobDao importJobDao();
+
     /**
      * Singleton instance of the database. The "volatile" keyword ensures that changes to the INSTANCE variable
      * are immediately visible to all other threads.
@@ -52,6 +65,8 @@ public abstract class AnalysisDatabase extends RoomDatabase {
                     // which helps to avoid potential memory leaks.
                     INSTANCE = Room.databaseBuilder(context.getApplicationContext(),
                                     AnalysisDatabase.class, "analysis_database")
+                            .addMigrations(AnalysisMigrations.all(context.getApplicationContext()))
+                            .addCallback(AnalysisMigrations.CREATE_CALLBACK)
                             .build();
                 }
             }
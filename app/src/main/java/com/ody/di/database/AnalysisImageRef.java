@@ -0,0 +1,29 @@
+package com.ody.di.database;
+
+import androidx.room.ColumnInfo;
+
+/**
+ * Lightweight projection of an analysis row holding only its serial number and image reference.
+ * Used by storage maintenance, which needs to walk every row without reading the detections.
+ *
+ * @author Debidutt Prasad
+ */
+public class AnalysisImageRef {
+
+    /**
+     * Serial number of the analysis.
+     */
+    public long serialNumber;
+
+    /**
+     * File name of the image referenced by the analysis.
+     */
+    @ColumnInfo(name = "image_reference")
+    public String imageReference;
+
+    /**
+     * Whether the image was already flagged as missing.
+     */
+    @ColumnInfo(name = "image_missing")
+    public boolean imageMissing;
+}
@@ -0,0 +1,355 @@
+package com.ody.di.database;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import com.google.gson.JsonParseException;
+import com.ody.di.utils.LabelMap;
+import com.ody.di.utils.Metrics;
+
+import org.tensorflow.lite.examples.detection.tflite.Detector;
+
+import java.util.List;
+
+import androidx.annotation.NonNull;
+import androidx.room.RoomDatabase;
+import androidx.room.migration.Migration;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+
+/**
+ * Schema migrations of the {@link AnalysisDatabase}. Each migration moves the schema up by one
+ * version and must leave existing analyses intact. Also holds the parts of the schema Room doesn't
+ * generate itself, such as triggers.
+ *
+ * @author Debidutt Prasad
+ */
+public final class AnalysisMigrations {
+
+    private static final String TAG = "AnalysisMigrations";
+
+    /**
+     * Rows converted per query while migrating, so the cursor never holds the whole table.
+     */
+    private static final int MIGRATION_CHUNK_SIZE = 200;
+
+    /**
+     * Version 2 adds the image_missing flag maintained by storage reconciliation.
+     */
+    public static final Migration MIGRATION_1_2 = new Migration(1, 2) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE Analysis ADD COLUMN image_missing INTEGER NOT NULL DEFAULT 0");
+        }
+    };
+
+    /**
+     * Version 3 indexes image_reference, which serves as the reference count of content-addressed images.
+     */
+    public static final Migration MIGRATION_2_3 = new Migration(2, 3) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE INDEX IF NOT EXISTS index_Analysis_image_reference ON Analysis(image_reference)");
+        }
+    };
+
+    /**
+     * Version 4 adds the Detection child table. Existing rows are backfilled from their JSON column
+     * in the background by the DetectionBackfill, not here, so opening the database stays fast.
+     */
+    public static final Migration MIGRATION_3_4 = new Migration(3, 4) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS `Detection` ("
+                    + "`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, "
+                    + "`analysis_id` INTEGER NOT NULL, "
+                    + "`class_id` INTEGER NOT NULL, "
+                    + "`score` REAL NOT NULL, "
+                    + "`box_left` REAL NOT NULL, "
+                    + "`box_top` REAL NOT NULL, "
+                    + "`box_right` REAL NOT NULL, "
+                    + "`box_bottom` REAL NOT NULL, "
+                    + "FOREIGN KEY(`analysis_id`) REFERENCES `Analysis`(`serialNumber`) ON UPDATE NO ACTION ON DELETE CASCADE )");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_Detection_analysis_id` ON `Detection` (`analysis_id`)");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_Detection_class_id_score` ON `Detection` (`class_id`, `score`)");
+        }
+    };
+
+    /**
+     * Version 5 adds the AnalysisStats and LabelStats tables, seeds them from the existing rows once,
+     * and installs the triggers that keep them current from then on.
+     */
+    public static final Migration MIGRATION_4_5 = new Migration(4, 5) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS `AnalysisStats` ("
+                    + "`id` INTEGER NOT NULL, "
+                    + "`total_analyses` INTEGER NOT NULL, "
+                    + "`first_serial_number` INTEGER, "
+                    + "`last_serial_number` INTEGER, "
+                    + "PRIMARY KEY(`id`))");
+            db.execSQL("CREATE TABLE IF NOT EXISTS `LabelStats` ("
+                    + "`class_id` INTEGER NOT NULL, "
+                    + "`detections` INTEGER NOT NULL, "
+                    + "PRIMARY KEY(`class_id`))");
+            db.execSQL("INSERT OR REPLACE INTO AnalysisStats (id, total_analyses, first_serial_number, last_serial_number)"
+                    + " SELECT 0, COUNT(*), MIN(serialNumber), MAX(serialNumber) FROM Analysis");
+            db.execSQL("INSERT OR REPLACE INTO LabelStats (class_id, detections)"
+                    + " SELECT class_id, COUNT(*) FROM Detection GROUP BY class_id");
+            createStatsTriggers(db);
+        }
+    };
+
+    /**
+     * Version 6 moves the detections from the JSON column into the binary {@code detections} blob
+     * written by the {@link DetectionCodec}. Labels are resolved to class IDs through the
+     * {@link LabelMap}, hence the context. The JSON of a row is only cleared once it has been
+     * converted without loss; rows with a label the map doesn't know keep it, so their titles can
+     * still be shown, and rows that can't be parsed are left untouched.
+     *
+     * @param context The application context.
+     * @return The migration from version 5 to 6.
+     */
+    static Migration migration5To6(Context context) {
+        return new Migration(5, 6) {
+            @Override
+            public void migrate(@NonNull SupportSQLiteDatabase db) {
+                LabelMap labelMap = LabelMap.getInstance(context);
+                if (labelMap.getLabels().isEmpty()) {
+                    // Every label would resolve to an unknown class; fail and retry on the next start.
+                    throw new IllegalStateException("No labels in " + LabelMap.LABEL_FILE + ", detections not migrated");
+                }
+                db.execSQL("ALTER TABLE Analysis ADD COLUMN detections BLOB");
+                convertJsonDetections(db, labelMap);
+            }
+        };
+    }
+
+    /**
+     * Version 7 adds the labels and note columns and the external-content FTS4 index over them.
+     * Labels of existing rows are derived from their detections blob, the index is built once with
+     * FTS4's rebuild command, and Room's content sync triggers keep it current from then on.
+     *
+     * @param context The application context.
+     * @return The migration from version 6 to 7.
+     */
+    static Migration migration6To7(Context context) {
+        return new Migration(6, 7) {
+            @Override
+            public void migrate(@NonNull SupportSQLiteDatabase db) {
+                db.execSQL("ALTER TABLE Analysis ADD COLUMN labels TEXT");
+                db.execSQL("ALTER TABLE Analysis ADD COLUMN note TEXT");
+                fillLabels(db, LabelMap.getInstance(context));
+                db.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS `AnalysisSearch` USING FTS4("
+                        + "`labels` TEXT, `note` TEXT, tokenize=unicode61, content=`Analysis`)");
+                createSearchSyncTriggers(db);
+                db.execSQL("INSERT INTO AnalysisSearch(AnalysisSearch) VALUES ('rebuild')");
+            }
+        };
+    }
+
+    /**
+     * Version 8 adds the ImportJob table of the gallery import queue.
+     */
+    public static final Migration MIGRATION_7_8 = new Migration(7, 8) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS `ImportJob` ("
+                    + "`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, "
+                    + "`source_uri` TEXT NOT NULL, "
+                    + "`state` INTEGER NOT NULL, "
+                    + "`analysis_serial_number` INTEGER NOT NULL, "
+                    + "`error` TEXT)");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_ImportJob_state` ON `ImportJob` (`state`)");
+        }
+    };
+
+    /**
+     * Version 9 records the model each analysis was produced with, and flags the existing images,
+     * which all have their detections drawn in.
+     */
+    public static final Migration MIGRATION_8_9 = new Migration(8, 9) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE Analysis ADD COLUMN image_annotated INTEGER NOT NULL DEFAULT 0");
+            db.execSQL("ALTER TABLE Analysis ADD COLUMN model_id TEXT");
+            db.execSQL("ALTER TABLE Analysis ADD COLUMN model_version INTEGER NOT NULL DEFAULT 0");
+            db.execSQL("ALTER TABLE Analysis ADD COLUMN detection_options TEXT");
+            db.execSQL("UPDATE Analysis SET image_annotated = 1");
+        }
+    };
+
+    /**
+     * Version 10 records how long each analysis took and on what configuration.
+     */
+    public static final Migration MIGRATION_9_10 = new Migration(9, 10) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE Analysis ADD COLUMN decode_ms INTEGER");
+            db.execSQL("ALTER TABLE Analysis ADD COLUMN inference_ms INTEGER");
+            db.execSQL("ALTER TABLE Analysis ADD COLUMN total_ms INTEGER");
+            db.execSQL("ALTER TABLE Analysis ADD COLUMN thread_count INTEGER NOT NULL DEFAULT 0");
+            db.execSQL("ALTER TABLE Analysis ADD COLUMN input_width INTEGER NOT NULL DEFAULT 0");
+            db.execSQL("ALTER TABLE Analysis ADD COLUMN input_height INTEGER NOT NULL DEFAULT 0");
+            db.execSQL("ALTER TABLE Analysis ADD COLUMN device TEXT");
+        }
+    };
+
+    /**
+     * Seeds the statistics row and installs the statistics triggers on a freshly created database.
+     * Room has no notion of triggers, so they are not part of the generated schema.
+     */
+    static final RoomDatabase.Callback CREATE_CALLBACK = new RoomDatabase.Callback() {
+        @Override
+        public void onCreate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("INSERT OR IGNORE INTO AnalysisStats (id, total_analyses) VALUES (0, 0)");
+            createStatsTriggers(db);
+        }
+    };
+
+    /**
+     * Keeps AnalysisStats and LabelStats in step with every insert and delete. MIN and MAX over the
+     * primary key are index lookups, so a delete stays O(log n).
+     */
+    private static void createStatsTriggers(SupportSQLiteDatabase db) {
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS analysis_stats_after_insert AFTER INSERT ON Analysis BEGIN"
+                + " UPDATE AnalysisStats SET total_analyses = total_analyses + 1,"
+                + " first_serial_number = MIN(IFNULL(first_serial_number, NEW.serialNumber), NEW.serialNumber),"
+                + " last_serial_number = MAX(IFNULL(last_serial_number, NEW.serialNumber), NEW.serialNumber)"
+                + " WHERE id = 0;"
+                + " END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS analysis_stats_after_delete AFTER DELETE ON Analysis BEGIN"
+                + " UPDATE AnalysisStats SET total_analyses = total_analyses - 1,"
+                + " first_serial_number = (SELECT MIN(serialNumber) FROM Analysis),"
+                + " last_serial_number = (SELECT MAX(serialNumber) FROM Analysis)"
+                + " WHERE id = 0;"
+                + " END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS label_stats_after_insert AFTER INSERT ON Detection BEGIN"
+                + " INSERT OR IGNORE INTO LabelStats (class_id, detections) VALUES (NEW.class_id, 0);"
+                + " UPDATE LabelStats SET detections = detections + 1 WHERE class_id = NEW.class_id;"
+                + " END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS label_stats_after_delete AFTER DELETE ON Detection BEGIN"
+                + " UPDATE LabelStats SET detections = detections - 1 WHERE class_id = OLD.class_id;"
+                + " END");
+    }
+
+    /**
+     * Encodes the JSON detections of every row into the blob column, walking the table in chunks.
+     * Rows whose JSON can't be read are left without detections.
+     */
+    private static void convertJsonDetections(SupportSQLiteDatabase db, LabelMap labelMap) {
+        long cursorSerial = 0;
+        int converted = 0;
+        int kept = 0;
+        boolean more = true;
+        while (more) {
+            int rows = 0;
+            try (Cursor cursor = db.query("SELECT serialNumber, detected_objects FROM Analysis"
+                    + " WHERE serialNumber > ? ORDER BY serialNumber LIMIT " + MIGRATION_CHUNK_SIZE,
+                    new Object[]{cursorSerial})) {
+                while (cursor.moveToNext()) {
+                    rows++;
+                    cursorSerial = cursor.getLong(0);
+                    String json = cursor.isNull(1) ? null : cursor.getString(1);
+                    List<Detector.Recognition> recognitions;
+                    try (Metrics.Span ignored = Metrics.getInstance().span("json.parse")) {
+                        recognitions = DetectionMapper.parseLegacyJson(json);
+                    } catch (JsonParseException e) {
+                        Log.w(TAG, "Keeping unreadable detections of analysis " + cursorSerial + " as they are", e);
+                        continue;
+                    }
+                    if (recognitions == null) {
+                        continue;
+                    }
+                    DetectionArrays arrays = DetectionMapper.toArrays(recognitions, labelMap);
+                    ContentValues values = new ContentValues();
+                    values.put("detections", DetectionCodec.encode(arrays));
+                    if (arrays.hasUnknownClass()) {
+                        kept++;
+                    } else {
+                        values.putNull("detected_objects");
+                    }
+                    db.update("Analysis", SQLiteDatabase.CONFLICT_NONE, values, "serialNumber = ?", new Object[]{cursorSerial});
+                    converted++;
+                }
+            }
+            more = rows == MIGRATION_CHUNK_SIZE;
+        }
+        Log.d(TAG, "convertJsonDetections: " + converted + " rows converted, " + kept + " keep their JSON for unknown labels");
+    }
+
+    /**
+     * Derives the labels column of every row from its detections blob, walking the table in chunks.
+     */
+    private static void fillLabels(SupportSQLiteDatabase db, LabelMap labelMap) {
+        long cursorSerial = 0;
+        boolean more = true;
+        while (more) {
+            int rows = 0;
+            try (Cursor cursor = db.query("SELECT serialNumber, detections FROM Analysis"
+                    + " WHERE serialNumber > ? ORDER BY serialNumber LIMIT " + MIGRATION_CHUNK_SIZE,
+                    new Object[]{cursorSerial})) {
+                while (cursor.moveToNext()) {
+                    rows++;
+                    cursorSerial = cursor.getLong(0);
+                    String labels;
+                    try {
+                        labels = DetectionMapper.labelsOf(DetectionCodec.decode(cursor.isNull(1) ? null : cursor.getBlob(1)), labelMap);
+                    } catch (IllegalArgumentException e) {
+                        Log.w(TAG, "Skipping unreadable detections of analysis " + cursorSerial, e);
+                        continue;
+                    }
+                    if (labels != null) {
+                        ContentValues values = new ContentValues();
+                        values.put("labels", labels);
+                        db.update("Analysis", SQLiteDatabase.CONFLICT_NONE, values, "serialNumber = ?", new Object[]{cursorSerial});
+                    }
+                }
+            }
+            more = rows == MIGRATION_CHUNK_SIZE;
+        }
+    }
+
+    /**
+     * Installs the triggers Room generates for the external-content {@code AnalysisSearch} table on
+     * fresh databases, under the same names, so migrated databases keep the index in sync too.
+     */
+    private static void createSearchSyncTriggers(SupportSQLiteDatabase db) {
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_AnalysisSearch_BEFORE_UPDATE"
+                + " BEFORE UPDATE ON `Analysis` BEGIN DELETE FROM `AnalysisSearch` WHERE `docid`=OLD.`rowid`; END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_AnalysisSearch_BEFORE_DELETE"
+                + " BEFORE DELETE ON `Analysis` BEGIN DELETE FROM `AnalysisSearch` WHERE `docid`=OLD.`rowid`; END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_AnalysisSearch_AFTER_UPDATE"
+                + " AFTER UPDATE ON `Analysis` BEGIN INSERT INTO `AnalysisSearch`(`docid`, `labels`, `note`)"
+                + " VALUES (NEW.`rowid`, NEW.`labels`, NEW.`note`); END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_AnalysisSearch_AFTER_INSERT"
+                + " AFTER INSERT ON `Analysis` BEGIN INSERT INTO `AnalysisSearch`(`docid`, `labels`, `note`)"
+                + " VALUES (NEW.`rowid`, NEW.`labels`, NEW.`note`); END");
+    }
+
+    /**
+     * All migrations, in version order, to register with the database builder.
+     *
+     * @param context The application context, needed by migrations that resolve labels.
+     * @return The migrations.
+     */
+    static Migration[] all(Context context) {
+        return new Migration[]{
+                MIGRATION_1_2,
+                MIGRATION_2_3,
+                MIGRATION_3_4,
+                MIGRATION_4_5,
+                migration5To6(context),
+                migration6To7(context),
+                MIGRATION_7_8,
+                MIGRATION_8_9,
+                MIGRATION_9_10
+        };
+    }
+
+    // Private constructor to prevent instantiation.
+    private AnalysisMigrations() {
+    }
+}
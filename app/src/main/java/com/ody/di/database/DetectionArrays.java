@@ -0,0 +1,69 @@
+package com.ody.di.database;
+
+import com.ody.di.utils.LabelMap;
+
+/**
+ * The detections of an analysis as parallel primitive arrays, as decoded by {@link DetectionCodec}.
+ * Detection {@code i} has class ID {@code classIds[i]}, score {@code scores[i]} and its box at
+ * {@code boxes[4 * i] .. boxes[4 * i + 3]} as left, top, right, bottom.
+ *
+ * @author Debidutt Prasad
+ */
+public final class DetectionArrays {
+
+    /**
+     * An empty set of detections.
+     */
+    public static final DetectionArrays EMPTY = new DetectionArrays(new int[0], new float[0], new float[0]);
+
+    /**
+     * Number of detections.
+     */
+    public final int count;
+
+    /**
+     * Class ID of each detection.
+     */
+    public final int[] classIds;
+
+    /**
+     * Confidence score of each detection, between 0 and 1.
+     */
+    public final float[] scores;
+
+    /**
+     * Bounding boxes, four values (left, top, right, bottom) per detection.
+     */
+    public final float[] boxes;
+
+    /**
+     * Constructor for the DetectionArrays.
+     *
+     * @param classIds Class ID of each detection.
+     * @param scores   Confidence score of each detection.
+     * @param boxes    Four box coordinates per detection.
+     */
+    public DetectionArrays(int[] classIds, float[] scores, float[] boxes) {
+        if (scores.length != classIds.length || boxes.length != classIds.length * 4) {
+            throw new IllegalArgumentException("Array lengths don't match " + classIds.length + " detections");
+        }
+        this.count = classIds.length;
+        this.classIds = classIds;
+        this.scores = scores;
+        this.boxes = boxes;
+    }
+
+    /**
+     * Checks whether a detection has a label that wasn't in the label map.
+     *
+     * @return True if any class ID is {@link LabelMap#UNKNOWN_CLASS_ID}.
+     */
+    public boolean hasUnknownClass() {
+        for (int classId : classIds) {
+            if (classId == LabelMap.UNKNOWN_CLASS_ID) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,113 @@
+package com.ody.di.database;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Versioned binary encoding of the detections stored in the {@code detections} BLOB of an analysis.
+ *
+ * <p>Version 1 layout, little endian:</p>
+ * <pre>
+ * byte    version (1)
+ * uint16  count
+ * count x {
+ *     int16   class ID
+ *     uint16  score, quantized to score * 65535
+ *     int16   left, top, right, bottom, in half pixels
+ * }
+ * </pre>
+ *
+ * <p>Each detection takes {@value #RECORD_BYTES} bytes. Scores keep a precision of about 1.5e-5
+ * and box coordinates half a pixel within +-16383 pixels, which is more than the detector gives and
+ * the overlay can draw. Decoding fills primitive arrays directly, without allocating an object per
+ * detection.</p>
+ *
+ * @author Debidutt Prasad
+ */
+public final class DetectionCodec {
+
+    /**
+     * The version written by {@link #encode(DetectionArrays)}.
+     */
+    public static final byte VERSION_1 = 1;
+
+    static final int HEADER_BYTES = 3;
+    static final int RECORD_BYTES = 12;
+    static final int MAX_COUNT = 0xFFFF;
+
+    private static final float SCORE_SCALE = 0xFFFF;
+    private static final float BOX_SCALE = 2f;
+
+    /**
+     * Encodes detections into a blob of the current version.
+     *
+     * @param detections The detections to encode. At most {@value #MAX_COUNT}.
+     * @return The encoded blob.
+     */
+    public static byte[] encode(DetectionArrays detections) {
+        int count = detections.count;
+        if (count > MAX_COUNT) {
+            throw new IllegalArgumentException("Too many detections: " + count);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + count * RECORD_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put(VERSION_1);
+        buffer.putShort((short) count);
+        float[] boxes = detections.boxes;
+        for (int i = 0; i < count; i++) {
+            buffer.putShort((short) detections.classIds[i]);
+            buffer.putShort((short) Math.round(clamp(detections.scores[i], 0f, 1f) * SCORE_SCALE));
+            for (int j = i * 4; j < i * 4 + 4; j++) {
+                buffer.putShort(toFixedPoint(boxes[j]));
+            }
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Decodes a blob written by any supported version.
+     *
+     * @param blob The encoded detections. Null decodes to no detections.
+     * @return The decoded detections.
+     * @throws IllegalArgumentException if the blob is truncated or of an unknown version.
+     */
+    public static DetectionArrays decode(byte[] blob) {
+        if (blob == null || blob.length == 0) {
+            return DetectionArrays.EMPTY;
+        }
+        if (blob[0] != VERSION_1) {
+            throw new IllegalArgumentException("Unknown detections version " + blob[0]);
+        }
+        if (blob.length < HEADER_BYTES) {
+            throw new IllegalArgumentException("Truncated detections header");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(blob).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.position(1);
+        int count = buffer.getShort() & 0xFFFF;
+        if (blob.length < HEADER_BYTES + count * RECORD_BYTES) {
+            throw new IllegalArgumentException("Truncated detections: " + blob.length + " bytes for " + count);
+        }
+        int[] classIds = new int[count];
+        float[] scores = new float[count];
+        float[] boxes = new float[count * 4];
+        for (int i = 0; i < count; i++) {
+            classIds[i] = buffer.getShort();
+            scores[i] = (buffer.getShort() & 0xFFFF) / SCORE_SCALE;
+            for (int j = i * 4; j < i * 4 + 4; j++) {
+                boxes[j] = buffer.getShort() / BOX_SCALE;
+            }
+        }
+        return new DetectionArrays(classIds, scores, boxes);
+    }
+
+    private static short toFixedPoint(float coordinate) {
+        return (short) Math.round(clamp(coordinate * BOX_SCALE, Short.MIN_VALUE, Short.MAX_VALUE));
+    }
+
+    private static float clamp(float value, float min, float max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    // Private constructor to prevent instantiation.
+    private DetectionCodec() {
+    }
+}
@@ -0,0 +1,181 @@
+package com.ody.di.database;
+
+import android.graphics.RectF;
+import android.text.TextUtils;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+import com.ody.di.database.entities.Detection;
+import com.ody.di.utils.LabelMap;
+
+import org.tensorflow.lite.examples.detection.tflite.Detector;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Converts between the detector's {@link Detector.Recognition} results, the {@link DetectionArrays}
+ * stored in the analysis blob and {@link Detection} rows.
+ *
+ * @author Debidutt Prasad
+ */
+public final class DetectionMapper {
+
+    private static final String UNKNOWN_LABEL = "?";
+
+    private static final Gson GSON = new Gson();
+
+    private static final Type LEGACY_JSON_TYPE = new TypeToken<List<Detector.Recognition>>() {
+    }.getType();
+
+    /**
+     * Builds the detection rows of an analysis.
+     *
+     * @param analysisId   Serial number of the analysis the detections belong to.
+     * @param recognitions The detector results.
+     * @param labelMap     Resolves labels to class IDs.
+     * @return One detection row per recognition, in the same order.
+     */
+    public static List<Detection> toDetections(long analysisId, List<Detector.Recognition> recognitions, LabelMap labelMap) {
+        List<Detection> detections = new ArrayList<>(recognitions.size());
+        for (Detector.Recognition recognition : recognitions) {
+            RectF box = recognition.getLocation();
+            Detection detection = new Detection();
+            detection.analysisId = analysisId;
+            detection.classId = labelMap.classIdOf(recognition.getTitle());
+            detection.score = recognition.getConfidence();
+            detection.boxLeft = box.left;
+            detection.boxTop = box.top;
+            detection.boxRight = box.right;
+            detection.boxBottom = box.bottom;
+            detections.add(detection);
+        }
+        return detections;
+    }
+
+    /**
+     * Builds the detection rows of an analysis from its decoded blob.
+     *
+     * @param analysisId Serial number of the analysis the detections belong to.
+     * @param arrays     The decoded detections.
+     * @return One detection row per detection, in the same order.
+     */
+    public static List<Detection> toDetections(long analysisId, DetectionArrays arrays) {
+        List<Detection> detections = new ArrayList<>(arrays.count);
+        for (int i = 0; i < arrays.count; i++) {
+            Detection detection = new Detection();
+            detection.analysisId = analysisId;
+            detection.classId = arrays.classIds[i];
+            detection.score = arrays.scores[i];
+            detection.boxLeft = arrays.boxes[i * 4];
+            detection.boxTop = arrays.boxes[i * 4 + 1];
+            detection.boxRight = arrays.boxes[i * 4 + 2];
+            detection.boxBottom = arrays.boxes[i * 4 + 3];
+            detections.add(detection);
+        }
+        return detections;
+    }
+
+    /**
+     * Flattens detector results into arrays, ready for {@link DetectionCodec#encode(DetectionArrays)}.
+     *
+     * @param recognitions The detector results.
+     * @param labelMap     Resolves labels to class IDs.
+     * @return The detections as arrays, in the same order.
+     */
+    public static DetectionArrays toArrays(List<Detector.Recognition> recognitions, LabelMap labelMap) {
+        int count = recognitions.size();
+        int[] classIds = new int[count];
+        float[] scores = new float[count];
+        float[] boxes = new float[count * 4];
+        for (int i = 0; i < count; i++) {
+            Detector.Recognition recognition = recognitions.get(i);
+            RectF box = recognition.getLocation();
+            classIds[i] = labelMap.classIdOf(recognition.getTitle());
+            scores[i] = recognition.getConfidence();
+            boxes[i * 4] = box.left;
+            boxes[i * 4 + 1] = box.top;
+            boxes[i * 4 + 2] = box.right;
+            boxes[i * 4 + 3] = box.bottom;
+        }
+        return new DetectionArrays(classIds, scores, boxes);
+    }
+
+    /**
+     * Rebuilds detector results from decoded detections, for display.
+     *
+     * @param arrays   The decoded detections.
+     * @param labelMap Resolves class IDs to labels.
+     * @return One recognition per detection, in the same order.
+     */
+    public static List<Detector.Recognition> toRecognitions(DetectionArrays arrays, LabelMap labelMap) {
+        return toRecognitions(arrays, labelMap, null);
+    }
+
+    /**
+     * Rebuilds detector results from decoded detections, for display, taking the label of a class
+     * ID the label map doesn't know from the JSON the detections were migrated from.
+     *
+     * @param arrays     The decoded detections.
+     * @param labelMap   Resolves class IDs to labels.
+     * @param legacyJson The {@code detected_objects} JSON kept for labels the map didn't know, or null.
+     * @return One recognition per detection, in the same order.
+     */
+    public static List<Detector.Recognition> toRecognitions(DetectionArrays arrays, LabelMap labelMap, String legacyJson) {
+        List<Detector.Recognition> legacy = null;
+        if (legacyJson != null) {
+            try {
+                legacy = parseLegacyJson(legacyJson);
+            } catch (JsonParseException e) {
+                // Only kept when it parsed during the migration; fall back to the unknown label.
+            }
+        }
+        List<Detector.Recognition> recognitions = new ArrayList<>(arrays.count);
+        for (int i = 0; i < arrays.count; i++) {
+            String label = labelMap.labelOf(arrays.classIds[i]);
+            if (label == null && legacy != null && legacy.size() == arrays.count) {
+                label = legacy.get(i).getTitle();
+            }
+            RectF box = new RectF(arrays.boxes[i * 4], arrays.boxes[i * 4 + 1], arrays.boxes[i * 4 + 2], arrays.boxes[i * 4 + 3]);
+            recognitions.add(new Detector.Recognition(String.valueOf(i), label == null ? UNKNOWN_LABEL : label, arrays.scores[i], box));
+        }
+        return recognitions;
+    }
+
+    /**
+     * Lists the distinct labels of decoded detections, for the search index.
+     *
+     * @param arrays   The decoded detections.
+     * @param labelMap Resolves class IDs to labels.
+     * @return The labels separated by spaces, in order of first detection, or null if none is known.
+     */
+    public static String labelsOf(DetectionArrays arrays, LabelMap labelMap) {
+        Set<String> labels = new LinkedHashSet<>();
+        for (int i = 0; i < arrays.count; i++) {
+            String label = labelMap.labelOf(arrays.classIds[i]);
+            if (label != null) {
+                labels.add(label);
+            }
+        }
+        return labels.isEmpty() ? null : TextUtils.join(" ", labels);
+    }
+
+    /**
+     * Parses the JSON of the {@code detected_objects} column written before schema version 6.
+     *
+     * @param json The JSON, or null.
+     * @return The recognitions, or null if there is no JSON.
+     * @throws JsonParseException if the JSON can't be read.
+     */
+    public static List<Detector.Recognition> parseLegacyJson(String json) {
+        return GSON.fromJson(json, LEGACY_JSON_TYPE);
+    }
+
+    // Private constructor to prevent instantiation.
+    private DetectionMapper() {
+    }
+}
@@ -0,0 +1,95 @@
+package com.ody.di.database;
+
+import com.ody.di.database.entities.ImportJob;
+
+import java.util.List;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.Query;
+import androidx.room.Update;
+import io.reactivex.rxjava3.core.Flowable;
+
+/**
+ * Data Access Object (DAO) for the gallery import queue.
+ *
+ * @author Debidutt Prasad
+ */
+@Dao
+public interface ImportJobDao {
+
+    /**
+     * Returns the highest serial number reserved by a job, stored or not.
+     *
+     * @return The serial number, or 0 if no job reserved one.
+     */
+    @Query("SELECT IFNULL(MAX(analysis_serial_number), 0) FROM ImportJob")
+    long getMaxReservedSerialNumber();
+
+    /**
+     * Inserts new jobs.
+     *
+     * @param jobs The jobs to insert.
+     */
+    @Insert
+    void insertAll(List<ImportJob> jobs);
+
+    /**
+     * Stores a job's state, reserved serial number and error.
+     *
+     * @param job The job to update.
+     */
+    @Update
+    void update(ImportJob job);
+
+    /**
+     * Returns the next queued jobs in the order they were picked, for keyset pagination.
+     *
+     * @param afterId ID of the last job of the previous page, or 0 to start.
+     * @param limit   Maximum number of jobs to return.
+     * @return The next page of queued jobs.
+     */
+    @Query("SELECT * FROM ImportJob WHERE state = " + ImportJob.STATE_QUEUED + " AND id > :afterId"
+            + " ORDER BY id LIMIT :limit")
+    List<ImportJob> getQueuedJobs(long afterId, int limit);
+
+    /**
+     * Counts the jobs that are queued.
+     *
+     * @return The number of queued jobs.
+     */
+    @Query("SELECT COUNT(*) FROM ImportJob WHERE state = " + ImportJob.STATE_QUEUED)
+    int countQueuedJobs();
+
+    /**
+     * Settles jobs that were in progress when the process died: a job whose reserved analysis was
+     * stored is done, any other job is queued again.
+     *
+     * @return The number of jobs settled.
+     */
+    @Query("UPDATE ImportJob SET state = CASE"
+            + " WHEN EXISTS (SELECT 1 FROM Analysis WHERE serialNumber = analysis_serial_number)"
+            + " THEN " + ImportJob.STATE_DONE + " ELSE " + ImportJob.STATE_QUEUED + " END"
+            + " WHERE state IN (" + ImportJob.STATE_DECODING + ", " + ImportJob.STATE_ANALYZING
+            + ", " + ImportJob.STATE_SAVING + ")")
+    int settleInterruptedJobs();
+
+    /**
+     * Deletes the finished jobs, so that progress only counts the batch about to run.
+     *
+     * @return The number of jobs deleted.
+     */
+    @Query("DELETE FROM ImportJob WHERE state IN (" + ImportJob.STATE_DONE + ", " + ImportJob.STATE_FAILED + ")")
+    int deleteFinishedJobs();
+
+    /**
+     * Observes the progress of the current batch. Re-emits on every change to the table.
+     *
+     * @return Flowable of the progress.
+     */
+    @Query("SELECT COUNT(*) AS total,"
+            + " IFNULL(SUM(state = " + ImportJob.STATE_DONE + "), 0) AS done,"
+            + " IFNULL(SUM(state = " + ImportJob.STATE_FAILED + "), 0) AS failed"
+            + " FROM ImportJob")
+    Flowable<ImportProgress> observeProgress();
+}
@@ -0,0 +1,56 @@
+package com.ody.di.database;
+
+import androidx.room.ColumnInfo;
+
+/**
+ * Progress of the gallery import: the number of jobs in the current batch and how many of them
+ * have finished.
+ *
+ * @author Debidutt Prasad
+ */
+public class ImportProgress {
+
+    /**
+     * Number of jobs in the batch, finished or not.
+     */
+    @ColumnInfo(name = "total")
+    public int total;
+
+    /**
+     * Number of jobs whose analysis is stored.
+     */
+    @ColumnInfo(name = "done")
+    public int done;
+
+    /**
+     * Number of jobs that failed.
+     */
+    @ColumnInfo(name = "failed")
+    public int failed;
+
+    /**
+     * Returns whether every job of the batch has finished, successfully or not.
+     *
+     * @return True if no job is queued or running.
+     */
+    public boolean isFinished() {
+        return done + failed == total;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ImportProgress)) {
+            return false;
+        }
+        ImportProgress other = (ImportProgress) o;
+        return total == other.total && done == other.done && failed == other.failed;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * total + done) + failed;
+    }
+}
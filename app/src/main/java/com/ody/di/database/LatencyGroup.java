@@ -0,0 +1,30 @@
+package com.ody.di.database;
+
+import androidx.room.ColumnInfo;
+
+/**
+ * A group of timed analyses, by model version or by day, and its size. Used to compute
+ * {@link LatencyPercentiles}.
+ *
+ * @author Debidutt Prasad
+ */
+public class LatencyGroup {
+
+    /**
+     * The model ID, null for analyses saved before models were recorded, or the day as {@code yyyyMMdd}.
+     */
+    @ColumnInfo(name = "key")
+    public String key;
+
+    /**
+     * The model version, or 0 for a day.
+     */
+    @ColumnInfo(name = "model_version")
+    public int modelVersion;
+
+    /**
+     * Number of timed analyses in the group.
+     */
+    @ColumnInfo(name = "count")
+    public int count;
+}
@@ -0,0 +1,88 @@
+package com.ody.di.database;
+
+/**
+ * Latency percentiles of a group of analyses, by model version or by day, as computed by
+ * {@link AnalysisDao#getLatencyPercentilesPerModel()} and
+ * {@link AnalysisDao#getLatencyPercentilesPerDay(int)}. Percentiles use the nearest-rank method,
+ * so each is a latency that was actually measured. A percentile is null if its row could not be
+ * read, which only happens if the group changed while it was being ranked.
+ *
+ * @author Debidutt Prasad
+ */
+public class LatencyPercentiles {
+
+    /**
+     * The model ID, null for analyses saved before models were recorded, or the day as {@code yyyyMMdd}.
+     */
+    public final String key;
+
+    /**
+     * The model version, or 0 for a day.
+     */
+    public final int modelVersion;
+
+    /**
+     * Number of timed analyses in the group.
+     */
+    public final int count;
+
+    /**
+     * Median time in the detector, in milliseconds.
+     */
+    public final Long inferenceP50;
+
+    /**
+     * 90th percentile of the time in the detector, in milliseconds.
+     */
+    public final Long inferenceP90;
+
+    /**
+     * 99th percentile of the time in the detector, in milliseconds.
+     */
+    public final Long inferenceP99;
+
+    /**
+     * Median time from the start of an analysis to its detections, in milliseconds.
+     */
+    public final Long totalP50;
+
+    /**
+     * 90th percentile of the time from the start of an analysis to its detections, in milliseconds.
+     */
+    public final Long totalP90;
+
+    /**
+     * 99th percentile of the time from the start of an analysis to its detections, in milliseconds.
+     */
+    public final Long totalP99;
+
+    LatencyPercentiles(String key, int modelVersion, int count, Long inferenceP50, Long inferenceP90, Long inferenceP99,
+                       Long totalP50, Long totalP90, Long totalP99) {
+        this.key = key;
+        this.modelVersion = modelVersion;
+        this.count = count;
+        this.inferenceP50 = inferenceP50;
+        this.inferenceP90 = inferenceP90;
+        this.inferenceP99 = inferenceP99;
+        this.totalP50 = totalP50;
+        this.totalP90 = totalP90;
+        this.totalP99 = totalP99;
+    }
+
+    /**
+     * Returns the zero-based position of a percentile in a sorted group, by nearest rank.
+     *
+     * @param percentile The percentile, from 1 to 100.
+     * @param count      The size of the group, at least 1.
+     * @return The offset of the percentile's value.
+     */
+    static int offsetOf(int percentile, int count) {
+        return Math.max(0, (percentile * count + 99) / 100 - 1);
+    }
+
+    @Override
+    public String toString() {
+        return key + (modelVersion != 0 ? " v" + modelVersion : "") + ": " + count + " analyses, inference p50/p90/p99 " + inferenceP50 + "/" + inferenceP90 + "/"
+                + inferenceP99 + " ms, total " + totalP50 + "/" + totalP90 + "/" + totalP99 + " ms";
+    }
+}
@@ -0,0 +1,40 @@
+package com.ody.di.database;
+
+import java.util.Locale;
+
+/**
+ * Turns free text typed by the user into an FTS4 MATCH expression for {@link AnalysisDao}'s search
+ * queries. Every word becomes a prefix term and all terms must match, so "pine app" finds analyses
+ * with a pineapple and an apple. Characters that have a meaning in the MATCH syntax are dropped.
+ *
+ * @author Debidutt Prasad
+ */
+public final class SearchQuery {
+
+    /**
+     * Builds the MATCH expression for the given text.
+     *
+     * @param text The text typed by the user.
+     * @return The MATCH expression, or null if the text contains no searchable word.
+     */
+    public static String toMatchExpression(String text) {
+        if (text == null) {
+            return null;
+        }
+        StringBuilder expression = new StringBuilder();
+        for (String word : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            if (expression.length() > 0) {
+                expression.append(' ');
+            }
+            expression.append(word).append('*');
+        }
+        return expression.length() == 0 ? null : expression.toString();
+    }
+
+    // Private constructor to prevent instantiation.
+    private SearchQuery() {
+    }
+}
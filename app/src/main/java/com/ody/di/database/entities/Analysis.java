@@ -2,15 +2,18 @@ package com.ody.di.database.entities;
 
 import androidx.room.ColumnInfo;
 import androidx.room.Entity;
+import androidx.room.Index;
 import androidx.room.PrimaryKey;
 
 /**
  * Represents an analysis entity with details about analyzed images and detected objects.
- * The detected objects will be stored in JSON format.
+ * The detected objects are stored as a compact binary blob, see
+ * {@link com.ody.di.database.DetectionCodec}. Images are indexed by reference so the number of
+ * analyses sharing a content-addressed image can be counted cheaply.
  *
  * @author Debidutt Prasad
  */
-@Entity
+@Entity(indices = {@Index("image_reference")})
 public class Analysis {
 
     /**
@@ -20,17 +23,115 @@ public class Analysis {
     public long serialNumber;
 
     /**
-     * Reference or path to the analyzed image.
+     * File name of the analyzed image, {@code <sha256>.png} for images stored through the
+     * content-addressed image store.
      */
     @ColumnInfo(name = "image_reference")
     public String imageReference;
 
     /**
-     * Details about the objects detected during the analysis, stored in JSON format.
+     * Legacy JSON form of the detections, converted to {@link #detections} by schema version 6.
+     * Only kept where a label wasn't in the label map, so its title can still be shown, and for
+     * JSON that couldn't be read. The column stays because SQLite on the supported API levels can't
+     * drop a column without rebuilding the table.
      */
     @ColumnInfo(name = "detected_objects")
     public String detectedObjects;
 
+    /**
+     * The objects detected during the analysis, encoded by the DetectionCodec.
+     */
+    @ColumnInfo(name = "detections", typeAffinity = ColumnInfo.BLOB)
+    public byte[] detections;
+
+    /**
+     * The distinct labels detected in the analysis, separated by spaces. Indexed for search by
+     * {@link AnalysisSearch}.
+     */
+    @ColumnInfo(name = "labels")
+    public String labels;
+
+    /**
+     * Optional note the user attached to the analysis. Indexed for search by {@link AnalysisSearch}.
+     */
+    @ColumnInfo(name = "note")
+    public String note;
+
+    /**
+     * Set by storage reconciliation when the referenced image file no longer exists.
+     */
+    @ColumnInfo(name = "image_missing", defaultValue = "0")
+    public boolean imageMissing;
+
+    /**
+     * Whether the stored image has the detections drawn in, as images saved before schema version 9
+     * do. Such images can't be analyzed again, and are shown without an overlay.
+     */
+    @ColumnInfo(name = "image_annotated", defaultValue = "0")
+    public boolean imageAnnotated;
+
+    /**
+     * ID of the model that produced the detections, see {@link com.ody.di.utils.DetectionModel}.
+     * Null for analyses saved before schema version 9.
+     */
+    @ColumnInfo(name = "model_id")
+    public String modelId;
+
+    /**
+     * Version of the model that produced the detections, or 0 if unknown.
+     */
+    @ColumnInfo(name = "model_version", defaultValue = "0")
+    public int modelVersion;
+
+    /**
+     * Options the detector ran with, or null if unknown.
+     */
+    @ColumnInfo(name = "detection_options")
+    public String detectionOptions;
+
+    /**
+     * Milliseconds spent obtaining the decoded image, or null if not measured, as for analyses
+     * saved before schema version 10. See {@link com.ody.di.utils.AnalysisTiming}.
+     */
+    @ColumnInfo(name = "decode_ms")
+    public Long decodeMs;
+
+    /**
+     * Milliseconds spent in the detector, or null if not measured.
+     */
+    @ColumnInfo(name = "inference_ms")
+    public Long inferenceMs;
+
+    /**
+     * Milliseconds from the start of the analysis to its detections, or null if not measured.
+     */
+    @ColumnInfo(name = "total_ms")
+    public Long totalMs;
+
+    /**
+     * Number of threads the detector ran on, or 0 if unknown.
+     */
+    @ColumnInfo(name = "thread_count", defaultValue = "0")
+    public int threadCount;
+
+    /**
+     * Width in pixels of the image given to the detector, or 0 if unknown.
+     */
+    @ColumnInfo(name = "input_width", defaultValue = "0")
+    public int inputWidth;
+
+    /**
+     * Height in pixels of the image given to the detector, or 0 if unknown.
+     */
+    @ColumnInfo(name = "input_height", defaultValue = "0")
+    public int inputHeight;
+
+    /**
+     * The device, SoC and build the detector ran on, or null if unknown.
+     */
+    @ColumnInfo(name = "device")
+    public String device;
+
 }
 
 
@@ -0,0 +1,31 @@
+package com.ody.di.database.entities;
+
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.Fts4;
+import androidx.room.FtsOptions;
+
+/**
+ * Full-text index over the detected labels and the user note of each analysis. The index is an
+ * external-content FTS4 table on {@link Analysis}: it stores no copy of the text, its rowid is the
+ * analysis serial number, and the sync triggers Room generates for it keep it current on every
+ * insert, update and delete of an analysis.
+ *
+ * @author Debidutt Prasad
+ */
+@Fts4(contentEntity = Analysis.class, tokenizer = FtsOptions.TOKENIZER_UNICODE61)
+@Entity
+public class AnalysisSearch {
+
+    /**
+     * The distinct labels detected in the analysis, separated by spaces.
+     */
+    @ColumnInfo(name = "labels")
+    public String labels;
+
+    /**
+     * The user's note on the analysis.
+     */
+    @ColumnInfo(name = "note")
+    public String note;
+}
@@ -0,0 +1,64 @@
+package com.ody.di.database.entities;
+
+import java.util.Objects;
+
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.PrimaryKey;
+
+/**
+ * Materialized statistics over the whole analysis history, held in a single row. The row is kept
+ * up to date by database triggers on the Analysis table, so it changes in the same transaction as
+ * the analyses it counts and can be read in constant time.
+ *
+ * @author Debidutt Prasad
+ */
+@Entity
+public class AnalysisStats {
+
+    /**
+     * ID of the only row of this table.
+     */
+    public static final int SINGLETON_ID = 0;
+
+    @PrimaryKey
+    public int id;
+
+    /**
+     * Number of stored analyses.
+     */
+    @ColumnInfo(name = "total_analyses")
+    public long totalAnalyses;
+
+    /**
+     * Serial number (a yyyyMMddHHmmss timestamp) of the oldest analysis, or null if there is none.
+     */
+    @ColumnInfo(name = "first_serial_number")
+    public Long firstSerialNumber;
+
+    /**
+     * Serial number (a yyyyMMddHHmmss timestamp) of the newest analysis, or null if there is none.
+     */
+    @ColumnInfo(name = "last_serial_number")
+    public Long lastSerialNumber;
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof AnalysisStats)) {
+            return false;
+        }
+        AnalysisStats other = (AnalysisStats) o;
+        return id == other.id
+                && totalAnalyses == other.totalAnalyses
+                && Objects.equals(firstSerialNumber, other.firstSerialNumber)
+                && Objects.equals(lastSerialNumber, other.lastSerialNumber);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id, totalAnalyses, firstSerialNumber, lastSerialNumber);
+    }
+}
@@ -0,0 +1,75 @@
+package com.ody.di.database.entities;
+
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.ForeignKey;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+
+/**
+ * Represents a single object detected in an analysis. Detections are stored as child rows of their
+ * {@link Analysis} so they can be queried by class and score without parsing the analysis itself,
+ * and are deleted together with it.
+ *
+ * @author Debidutt Prasad
+ */
+@Entity(
+        foreignKeys = @ForeignKey(
+                entity = Analysis.class,
+                parentColumns = "serialNumber",
+                childColumns = "analysis_id",
+                onDelete = ForeignKey.CASCADE),
+        indices = {
+                @Index("analysis_id"),
+                @Index({"class_id", "score"})
+        })
+public class Detection {
+
+    /**
+     * Unique ID for each detection. It's autogenerated by the database.
+     */
+    @PrimaryKey(autoGenerate = true)
+    public long id;
+
+    /**
+     * Serial number of the analysis this detection belongs to.
+     */
+    @ColumnInfo(name = "analysis_id")
+    public long analysisId;
+
+    /**
+     * Index of the detected label in the model's label file, or -1 if the label is unknown.
+     */
+    @ColumnInfo(name = "class_id")
+    public int classId;
+
+    /**
+     * Confidence score of the detection, between 0 and 1.
+     */
+    @ColumnInfo(name = "score")
+    public float score;
+
+    /**
+     * Left edge of the bounding box, in image pixels.
+     */
+    @ColumnInfo(name = "box_left")
+    public float boxLeft;
+
+    /**
+     * Top edge of the bounding box, in image pixels.
+     */
+    @ColumnInfo(name = "box_top")
+    public float boxTop;
+
+    /**
+     * Right edge of the bounding box, in image pixels.
+     */
+    @ColumnInfo(name = "box_right")
+    public float boxRight;
+
+    /**
+     * Bottom edge of the bounding box, in image pixels.
+     */
+    @ColumnInfo(name = "box_bottom")
+    public float boxBottom;
+}
@@ -0,0 +1,80 @@
+package com.ody.di.database.entities;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+
+/**
+ * An image picked from the gallery and waiting to be, or being, analyzed by the import queue. Jobs
+ * are rows so that a batch survives the process being killed; the state records how far each job
+ * got.
+ *
+ * @author Debidutt Prasad
+ */
+@Entity(indices = {@Index("state")})
+public class ImportJob {
+
+    /**
+     * Waiting for the import queue.
+     */
+    public static final int STATE_QUEUED = 0;
+
+    /**
+     * The image is being decoded.
+     */
+    public static final int STATE_DECODING = 1;
+
+    /**
+     * The detector is running on the image.
+     */
+    public static final int STATE_ANALYZING = 2;
+
+    /**
+     * The analysis is being stored.
+     */
+    public static final int STATE_SAVING = 3;
+
+    /**
+     * The analysis is stored under {@link #analysisSerialNumber}.
+     */
+    public static final int STATE_DONE = 4;
+
+    /**
+     * The image could not be imported; see {@link #error}.
+     */
+    public static final int STATE_FAILED = 5;
+
+    /**
+     * Unique ID of the job, in the order the images were picked.
+     */
+    @PrimaryKey(autoGenerate = true)
+    public long id;
+
+    /**
+     * Content URI of the picked image.
+     */
+    @NonNull
+    @ColumnInfo(name = "source_uri")
+    public String sourceUri = "";
+
+    /**
+     * One of the STATE_ constants.
+     */
+    @ColumnInfo(name = "state")
+    public int state;
+
+    /**
+     * Serial number reserved for the job's analysis when processing starts, or 0. After a crash it
+     * tells whether the analysis was stored before the job could be marked done.
+     */
+    @ColumnInfo(name = "analysis_serial_number")
+    public long analysisSerialNumber;
+
+    /**
+     * Why the job failed, or null.
+     */
+    @ColumnInfo(name = "error")
+    public String error;
+}
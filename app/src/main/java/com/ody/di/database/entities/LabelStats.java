@@ -0,0 +1,45 @@
+package com.ody.di.database.entities;
+
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.PrimaryKey;
+
+/**
+ * Materialized number of detections per class, kept up to date by database triggers on the
+ * Detection table.
+ *
+ * @author Debidutt Prasad
+ */
+@Entity
+public class LabelStats {
+
+    /**
+     * Class ID of the label, as in {@link Detection#classId}.
+     */
+    @PrimaryKey
+    @ColumnInfo(name = "class_id")
+    public int classId;
+
+    /**
+     * Number of stored detections of this class.
+     */
+    @ColumnInfo(name = "detections")
+    public long detections;
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof LabelStats)) {
+            return false;
+        }
+        LabelStats other = (LabelStats) o;
+        return classId == other.classId && detections == other.detections;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * classId + Long.hashCode(detections);
+    }
+}
@@ -0,0 +1,188 @@
+package com.ody.di.repository;
+
+import android.app.Application;
+import android.util.LruCache;
+
+import com.ody.di.database.AnalysisDao;
+import com.ody.di.database.AnalysisDatabase;
+import com.ody.di.database.DetectionArrays;
+import com.ody.di.database.DetectionCodec;
+import com.ody.di.database.entities.Analysis;
+import com.ody.di.utils.Metrics;
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import androidx.annotation.NonNull;
+import androidx.room.InvalidationTracker;
+
+/**
+ * Process-wide read-through cache of decoded analyses, so flipping between the same few records
+ * doesn't query and decode them again. Holds the {@value #MAX_ENTRIES} most recently used analyses.
+ *
+ * <p>Concurrent misses for the same serial number are collapsed into a single load that every
+ * caller waits for. Any change to the Analysis table clears the cache, as observed through Room's
+ * invalidation tracker; callers that change a row also invalidate it directly, so the next read
+ * can't see the old value before the tracker fires. A load that overlaps an invalidation returns
+ * its result but doesn't cache it.</p>
+ *
+ * @author Debidutt Prasad
+ */
+public class AnalysisCache {
+
+    /**
+     * Maximum number of decoded analyses kept.
+     */
+    static final int MAX_ENTRIES = 32;
+
+    private static volatile AnalysisCache INSTANCE;
+
+    /**
+     * An analysis with its detections decoded. Immutable; callers must not modify the arrays.
+     */
+    public static final class Entry {
+        /**
+         * Serial number of the analysis.
+         */
+        public final long serialNumber;
+
+        /**
+         * File name of the analyzed image.
+         */
+        public final String imageReference;
+
+        /**
+         * The user's note, or null.
+         */
+        public final String note;
+
+        /**
+         * Whether the image has the detections drawn in.
+         */
+        public final boolean imageAnnotated;
+
+        /**
+         * The decoded detections.
+         */
+        public final DetectionArrays detections;
+
+        /**
+         * The JSON the detections were migrated from, kept for labels the label map doesn't know,
+         * or null.
+         */
+        public final String legacyJson;
+
+        Entry(long serialNumber, String imageReference, String note, boolean imageAnnotated, DetectionArrays detections,
+              String legacyJson) {
+            this.serialNumber = serialNumber;
+            this.imageReference = imageReference;
+            this.note = note;
+            this.imageAnnotated = imageAnnotated;
+            this.detections = detections;
+            this.legacyJson = legacyJson;
+        }
+    }
+
+    private final AnalysisDao analysisDao;
+    private final LruCache<Long, Entry> entries = new LruCache<>(MAX_ENTRIES);
+    private final ConcurrentHashMap<Long, CompletableFuture<Entry>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong generation = new AtomicLong();
+
+    private AnalysisCache(Application application) {
+        AnalysisDatabase database = AnalysisDatabase.getDatabase(application);
+        this.analysisDao = database.analysisDao();
+        database.getInvalidationTracker().addObserver(new InvalidationTracker.Observer("Analysis") {
+            @Override
+            public void onInvalidated(@NonNull Set<String> tables) {
+                invalidateAll();
+            }
+        });
+    }
+
+    /**
+     * Retrieves the process-wide cache, creating it on first use.
+     *
+     * @param application The application used to reach the database.
+     * @return The singleton cache.
+     */
+    public static AnalysisCache getInstance(Application application) {
+        if (INSTANCE == null) {
+            synchronized (AnalysisCache.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new AnalysisCache(application);
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the decoded analysis, loading it on a miss. Must not be called on the main thread,
+     * since a miss queries the database.
+     *
+     * @param serialNumber The serial number of the analysis.
+     * @return The decoded analysis, or null if it doesn't exist.
+     */
+    public Entry get(long serialNumber) {
+        Entry cached = entries.get(serialNumber);
+        if (cached != null) {
+            return cached;
+        }
+        CompletableFuture<Entry> load = new CompletableFuture<>();
+        CompletableFuture<Entry> running = inFlight.putIfAbsent(serialNumber, load);
+        if (running != null) {
+            try {
+                return running.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+        long loadGeneration = generation.get();
+        try {
+            Entry entry = load(serialNumber);
+            if (entry != null && generation.get() == loadGeneration) {
+                entries.put(serialNumber, entry);
+            }
+            load.complete(entry);
+            return entry;
+        } catch (RuntimeException e) {
+            load.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(serialNumber, load);
+        }
+    }
+
+    /**
+     * Drops one analysis from the cache. Call after changing or deleting its row.
+     *
+     * @param serialNumber The serial number of the analysis.
+     */
+    public void invalidate(long serialNumber) {
+        generation.incrementAndGet();
+        entries.remove(serialNumber);
+    }
+
+    /**
+     * Drops every analysis from the cache.
+     */
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        entries.evictAll();
+    }
+
+    private Entry load(long serialNumber) {
+        Analysis analysis;
+        try (Metrics.Span ignored = Metrics.getInstance().span("db.loadAnalysis")) {
+            analysis = analysisDao.getAnalysisBySerialNumber(serialNumber);
+        }
+        if (analysis == null) {
+            return null;
+        }
+        return new Entry(analysis.serialNumber, analysis.imageReference, analysis.note, analysis.imageAnnotated,
+                DetectionCodec.decode(analysis.detections), analysis.detectedObjects);
+    }
+}
@@ -0,0 +1,305 @@
+package com.ody.di.repository;
+
+import android.util.Log;
+
+import com.ody.di.database.AnalysisDao;
+import com.ody.di.database.AnalysisDatabase;
+import com.ody.di.database.AnalysisImageRef;
+import com.ody.di.database.SearchQuery;
+import com.ody.di.utils.AppExecutors;
+import com.ody.di.utils.Metrics;
+import com.ody.di.utils.RxSchedulers;
+import com.ody.di.utils.SerialExecutor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import androidx.annotation.NonNull;
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+import androidx.room.InvalidationTracker;
+import io.reactivex.rxjava3.disposables.Disposable;
+import io.reactivex.rxjava3.subjects.PublishSubject;
+
+/**
+ * Loads the analysis history page by page, newest first, using keyset pagination on
+ * {@code serialNumber DESC}: each page starts below the last serial number already loaded, so a page
+ * costs the same index range scan no matter how deep the user has scrolled. Only the serial number
+ * and image reference of each row are read, never the detections.
+ *
+ * <p>The loaded rows are a window of the history, published with their offset and the total count so
+ * the UI can lay out placeholders for the rows around them. Binding a row within
+ * {@link #PREFETCH_DISTANCE} of either end of the window loads the next page in that direction.</p>
+ *
+ * <p>Changes to the Analysis table are coalesced to at most one reload every
+ * {@value #RELOAD_INTERVAL_MS} ms. A reload reads the counts and about two pages around the last
+ * bound position, anchored on the serial number of the row at the start of that range, instead of
+ * every row loaded so far.</p>
+ *
+ * <p>A full-text query set through {@link #setQuery(String)} restricts the history to the matching
+ * analyses, with the same pagination.</p>
+ *
+ * @param <T> The UI model each row is mapped to. Mapping runs on the loader thread.
+ * @author Debidutt Prasad
+ */
+public class AnalysisHistoryPager<T> {
+
+    private static final String TAG = "AnalysisHistoryPager";
+
+    /**
+     * Number of rows fetched per page.
+     */
+    public static final int PAGE_SIZE = 30;
+
+    /**
+     * How close to the end of the loaded rows a bound position may get before the next page loads.
+     */
+    public static final int PREFETCH_DISTANCE = 10;
+
+    /**
+     * Minimum interval between two reloads caused by writes to the Analysis table.
+     */
+    private static final long RELOAD_INTERVAL_MS = 300;
+
+    /**
+     * An immutable view of the history: the loaded window of rows, its position and the total number
+     * of rows.
+     *
+     * @param <T> The UI model of a row.
+     */
+    public static final class Snapshot<T> {
+        /**
+         * Position of the first loaded row in the history.
+         */
+        public final int offset;
+
+        /**
+         * The loaded rows, newest first.
+         */
+        public final List<T> loaded;
+
+        /**
+         * Number of rows in the history, loaded or not.
+         */
+        public final int totalCount;
+
+        Snapshot(int offset, List<T> loaded, int totalCount) {
+            this.offset = offset;
+            this.loaded = Collections.unmodifiableList(loaded);
+            this.totalCount = totalCount;
+        }
+    }
+
+    private final AnalysisDatabase database;
+    private final AnalysisDao analysisDao;
+    private final Function<AnalysisImageRef, T> mapper;
+    private final Executor loader = new SerialExecutor(AppExecutors.getInstance().database());
+    private final MutableLiveData<Snapshot<T>> snapshot = new MutableLiveData<>();
+    private final PublishSubject<Set<String>> invalidations = PublishSubject.create();
+    private final Disposable reloads;
+    private final InvalidationTracker.Observer invalidationObserver = new InvalidationTracker.Observer("Analysis") {
+        @Override
+        public void onInvalidated(@NonNull Set<String> tables) {
+            invalidations.onNext(tables);
+        }
+    };
+
+    // Only touched on the loader thread.
+    private final List<T> loaded = new ArrayList<>();
+    private final List<Long> loadedSerialNumbers = new ArrayList<>();
+    private int offset;
+    // Keyset bounds of the window: rows above it are newer than the first, rows below older than the last.
+    private long firstSerialNumber = Long.MAX_VALUE;
+    private long lastSerialNumber = Long.MAX_VALUE;
+    private String matchQuery;
+    private int totalCount;
+    private boolean endReached;
+
+    // Last position the UI bound; written from the main thread.
+    private volatile int boundPosition;
+
+    // Set by close(); queued loads then do nothing.
+    private volatile boolean closed;
+
+    /**
+     * Constructor for the AnalysisHistoryPager. Loads the first page and starts observing the table.
+     *
+     * @param database The analysis database.
+     * @param mapper   Maps a row to its UI model, on the loader thread.
+     */
+    public AnalysisHistoryPager(AnalysisDatabase database, Function<AnalysisImageRef, T> mapper) {
+        this.database = database;
+        this.analysisDao = database.analysisDao();
+        this.mapper = mapper;
+        // Unlike a debounce, a steady stream of writes (an import, say) still refreshes the history.
+        reloads = invalidations
+                .throttleLatest(RELOAD_INTERVAL_MS, TimeUnit.MILLISECONDS, RxSchedulers.database(), true)
+                .subscribe(tables -> loader.execute(this::reload));
+        database.getInvalidationTracker().addObserver(invalidationObserver);
+        loader.execute(this::reload);
+    }
+
+    /**
+     * Returns the history snapshots. A new snapshot is posted after each page load or reload.
+     *
+     * @return LiveData of the current snapshot.
+     */
+    public LiveData<Snapshot<T>> getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Tells the pager that a position was bound, which loads further pages if it is close to either
+     * end of the loaded rows. Reloads are centred on the last bound position.
+     *
+     * @param position The adapter position that was bound.
+     */
+    public void onPositionBound(int position) {
+        boundPosition = position;
+        loader.execute(this::loadAroundBound);
+    }
+
+    /**
+     * Restricts the history to the analyses matching a full-text query, or shows all of them again,
+     * and reloads from the first page.
+     *
+     * @param matchQuery FTS4 MATCH expression built by {@link SearchQuery}, or null for no filter.
+     */
+    public void setQuery(String matchQuery) {
+        loader.execute(() -> {
+            if (Objects.equals(this.matchQuery, matchQuery)) {
+                return;
+            }
+            this.matchQuery = matchQuery;
+            boundPosition = 0;
+            reload();
+        });
+    }
+
+    /**
+     * Stops observing the database. Loads still queued are skipped.
+     */
+    public void close() {
+        closed = true;
+        database.getInvalidationTracker().removeObserver(invalidationObserver);
+        reloads.dispose();
+    }
+
+    private void loadAroundBound() {
+        if (closed) {
+            return;
+        }
+        int position = boundPosition;
+        boolean changed = false;
+        while (offset > 0 && position < offset + PREFETCH_DISTANCE) {
+            prependPage(PAGE_SIZE);
+            changed = true;
+        }
+        while (!endReached && position >= offset + loaded.size() - PREFETCH_DISTANCE) {
+            appendPage(PAGE_SIZE);
+            changed = true;
+        }
+        if (changed) {
+            publish();
+        }
+    }
+
+    /**
+     * Re-reads the counts and the rows from a page above the last bound position to a page below it,
+     * so the visible range survives inserts and deletes. The range is anchored on the serial number
+     * of its first row, whose position is recounted; the rows outside it are dropped and load again
+     * when scrolled to.
+     */
+    private void reload() {
+        if (closed) {
+            return;
+        }
+        int position = boundPosition;
+        int windowStart = Math.max(0, position - PAGE_SIZE);
+        int windowSize = position - windowStart + PAGE_SIZE;
+        int anchorIndex = windowStart - offset;
+        long anchor = windowStart > 0 && anchorIndex >= 0 && anchorIndex < loadedSerialNumbers.size()
+                ? loadedSerialNumbers.get(anchorIndex) : Long.MAX_VALUE;
+
+        loaded.clear();
+        loadedSerialNumbers.clear();
+        endReached = false;
+        try (Metrics.Span ignored = Metrics.getInstance().span("db.count")) {
+            totalCount = matchQuery == null ? analysisDao.countVisibleAnalyses() : analysisDao.countSearchResults(matchQuery);
+            if (anchor == Long.MAX_VALUE) {
+                offset = 0;
+            } else {
+                offset = matchQuery == null
+                        ? analysisDao.countVisibleAnalysesAfter(anchor)
+                        : analysisDao.countSearchResultsAfter(matchQuery, anchor);
+            }
+        }
+        if (anchor == Long.MAX_VALUE) {
+            // Nothing loaded at the start of the range; read it from the top.
+            firstSerialNumber = Long.MAX_VALUE;
+            lastSerialNumber = Long.MAX_VALUE;
+            appendPage(windowStart + windowSize);
+        } else {
+            firstSerialNumber = anchor;
+            lastSerialNumber = anchor + 1;
+            appendPage(windowSize);
+        }
+        publish();
+    }
+
+    private void appendPage(int size) {
+        List<AnalysisImageRef> rows;
+        try (Metrics.Span ignored = Metrics.getInstance().span("db.page")) {
+            rows = matchQuery == null
+                    ? analysisDao.getHistoryPage(lastSerialNumber, size)
+                    : analysisDao.getSearchPage(matchQuery, lastSerialNumber, size);
+        }
+        for (AnalysisImageRef row : rows) {
+            loaded.add(mapper.apply(row));
+            loadedSerialNumbers.add(row.serialNumber);
+        }
+        if (!rows.isEmpty()) {
+            lastSerialNumber = rows.get(rows.size() - 1).serialNumber;
+        }
+        endReached = rows.size() < size;
+        if (endReached) {
+            // Rows inserted or deleted since the count was read would otherwise leave stale placeholders.
+            totalCount = offset + loaded.size();
+        }
+        Log.d(TAG, "appendPage: " + rows.size() + " rows, " + offset + "+" + loaded.size() + "/" + totalCount + " loaded");
+    }
+
+    private void prependPage(int size) {
+        List<AnalysisImageRef> rows;
+        try (Metrics.Span ignored = Metrics.getInstance().span("db.page")) {
+            rows = matchQuery == null
+                    ? analysisDao.getHistoryPageAfter(firstSerialNumber, size)
+                    : analysisDao.getSearchPageAfter(matchQuery, firstSerialNumber, size);
+        }
+        // The rows come oldest first; the window is newest first.
+        List<T> page = new ArrayList<>(rows.size());
+        List<Long> pageSerialNumbers = new ArrayList<>(rows.size());
+        for (int i = rows.size() - 1; i >= 0; i--) {
+            page.add(mapper.apply(rows.get(i)));
+            pageSerialNumbers.add(rows.get(i).serialNumber);
+        }
+        loaded.addAll(0, page);
+        loadedSerialNumbers.addAll(0, pageSerialNumbers);
+        if (!rows.isEmpty()) {
+            firstSerialNumber = rows.get(rows.size() - 1).serialNumber;
+        }
+        // Fewer rows than asked for means the top was reached, even if the offset was counted higher.
+        offset = rows.size() < size ? 0 : Math.max(0, offset - rows.size());
+        Log.d(TAG, "prependPage: " + rows.size() + " rows, " + offset + "+" + loaded.size() + "/" + totalCount + " loaded");
+    }
+
+    private void publish() {
+        snapshot.postValue(new Snapshot<>(offset, new ArrayList<>(loaded), Math.max(totalCount, offset + loaded.size())));
+    }
+}
@@ -6,12 +6,17 @@ import android.content.SharedPreferences;
 
 import com.ody.di.database.AnalysisDao;
 import com.ody.di.database.AnalysisDatabase;
+import com.ody.di.database.SearchQuery;
 import com.ody.di.database.entities.Analysis;
+import com.ody.di.database.entities.AnalysisStats;
+import com.ody.di.database.entities.LabelStats;
 import com.ody.di.utils.Constants;
+import com.ody.di.utils.LabelMap;
 
+import java.util.Collections;
 import java.util.List;
 
-import androidx.lifecycle.LiveData;
+import io.reactivex.rxjava3.core.Flowable;
 
 /**
  * AnalysisRepository provides an abstraction layer between the DAO (Data Access Object)
@@ -23,6 +28,8 @@ import androidx.lifecycle.LiveData;
 public class AnalysisRepository {
 
     private final AnalysisDao analysisDao;
+    private final AnalysisWriteQueue writeQueue;
+    private final AnalysisCache analysisCache;
     private final Application application;
 
     /**
@@ -34,6 +41,8 @@ public class AnalysisRepository {
         this.application = application;
         AnalysisDatabase database = AnalysisDatabase.getDatabase(this.application);
         this.analysisDao = database.analysisDao();
+        this.writeQueue = AnalysisWriteQueue.getInstance(application);
+        this.analysisCache = AnalysisCache.getInstance(application);
     }
 
     /**
@@ -47,13 +56,32 @@ public class AnalysisRepository {
     }
 
     /**
-     * Deletes an analysis record based on the given serial number.
+     * Deletes an analysis record based on the given serial number and releases its image, which is
+     * removed once no other analysis shares it.
      *
      * @param serialNum The serial number of the analysis to delete.
      * @return The number of rows deleted.
      */
     public int deleteAnalysisBySerialNumber(long serialNum) {
-        return this.analysisDao.deleteAnalysisBySerialNumber(serialNum);
+        String imageReference = this.analysisDao.getImageReference(serialNum);
+        int deleted = this.analysisDao.deleteAnalysisBySerialNumber(serialNum);
+        this.analysisCache.invalidate(serialNum);
+        if (deleted > 0 && imageReference != null) {
+            this.writeQueue.release(imageReference);
+        }
+        return deleted;
+    }
+
+    /**
+     * Deletes several analyses in one transaction and releases their images in a single background
+     * sweep; images still shared with other analyses are kept.
+     *
+     * @param serialNums The serial numbers of the analyses to delete.
+     */
+    public void deleteAnalyses(List<Long> serialNums) {
+        List<String> imageReferences = this.analysisDao.deleteByIds(serialNums);
+        this.analysisCache.invalidateAll();
+        this.writeQueue.releaseAll(imageReferences);
     }
 
     /**
@@ -67,12 +95,77 @@ public class AnalysisRepository {
     }
 
     /**
-     * Retrieves all analysis records from the database.
+     * Retrieves an analysis with its detections decoded, served from the {@link AnalysisCache} when
+     * it was read recently. Must not be called on the main thread.
+     *
+     * @param serialNum The serial number of the analysis to retrieve.
+     * @return The decoded analysis, or null if it doesn't exist.
+     */
+    public AnalysisCache.Entry getDecodedAnalysis(long serialNum) {
+        return this.analysisCache.get(serialNum);
+    }
+
+    /**
+     * Finds the analyses that detected the given label with at least the given confidence.
+     *
+     * @param label    The detected label, as listed in the model's label file.
+     * @param minScore The minimum confidence score, between 0 and 1.
+     * @return The serial numbers of the matching analyses, newest first. Empty for unknown labels.
+     */
+    public List<Long> findAnalysesWithLabel(String label, float minScore) {
+        int classId = LabelMap.getInstance(application).classIdOf(label);
+        if (classId == LabelMap.UNKNOWN_CLASS_ID) {
+            return Collections.emptyList();
+        }
+        return this.analysisDao.findAnalysesWithClass(classId, minScore);
+    }
+
+    /**
+     * Finds the analyses whose labels or note contain words starting with the words of the given
+     * text, served by the full-text index.
+     *
+     * @param text Free text typed by the user.
+     * @return The serial numbers of the matching analyses, newest first. Empty if the text has no words.
+     */
+    public List<Long> searchAnalyses(String text) {
+        String matchQuery = SearchQuery.toMatchExpression(text);
+        if (matchQuery == null) {
+            return Collections.emptyList();
+        }
+        return this.analysisDao.searchAnalyses(matchQuery);
+    }
+
+    /**
+     * Sets or clears the user note of an analysis.
+     *
+     * @param serialNum The serial number of the analysis.
+     * @param note      The note; blank notes are stored as no note.
+     * @return The number of rows updated.
+     */
+    public int updateNote(long serialNum, String note) {
+        int updated = this.analysisDao.updateNote(serialNum, note == null || note.trim().isEmpty() ? null : note.trim());
+        this.analysisCache.invalidate(serialNum);
+        return updated;
+    }
+
+    /**
+     * Observes the history statistics: total analyses and first/last serial numbers.
+     *
+     * @return Flowable of the statistics, updated in the same transaction as the analyses. Emits
+     * only when the statistics actually changed.
+     */
+    public Flowable<AnalysisStats> observeStats() {
+        return this.analysisDao.observeStats().distinctUntilChanged();
+    }
+
+    /**
+     * Observes the number of detections per class.
      *
-     * @return A LiveData list of all Analysis objects in the database.
+     * @return Flowable of the per-class counts, most frequent first. Emits only when the counts
+     * actually changed.
      */
-    public LiveData<List<Analysis>> getAllAnalyses() {
-        return this.analysisDao.getAll();
+    public Flowable<List<LabelStats>> observeLabelStats() {
+        return this.analysisDao.observeLabelStats().distinctUntilChanged();
     }
 
     /**
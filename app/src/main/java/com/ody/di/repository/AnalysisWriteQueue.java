@@ -0,0 +1,396 @@
+package com.ody.di.repository;
+
+import android.app.Application;
+import android.graphics.Bitmap;
+import android.os.Environment;
+import android.util.Log;
+
+import com.ody.di.database.AnalysisDao;
+import com.ody.di.database.AnalysisDatabase;
+import com.ody.di.database.DetectionMapper;
+import com.ody.di.database.entities.Analysis;
+import com.ody.di.database.entities.Detection;
+import com.ody.di.utils.AppExecutors;
+import com.ody.di.utils.LabelMap;
+import com.ody.di.utils.Metrics;
+import com.ody.di.utils.SerialExecutor;
+
+import org.tensorflow.lite.examples.detection.tflite.Detector;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+import io.reactivex.rxjava3.core.Single;
+
+/**
+ * Write-behind queue for saving analyses. Save jobs are accepted from any thread and go through two
+ * lanes: images are encoded and hashed on the I/O pool, one after the other, and the staged jobs are
+ * handed to a writer lane on the database pool, which inserts all analyses staged at that moment
+ * together, with their detections, in one Room transaction (group commit) and then renames their
+ * files. The writer lane never encodes, so it holds a database thread only for the transaction and
+ * the renames. Images are stored through the content-addressed {@link ImageStore}, so saving the
+ * same image twice keeps a single file.
+ *
+ * <p>To keep the image directory and the database consistent across a crash, every image is first
+ * written to a {@value #PENDING_SUFFIX} file and only renamed to its final name once the row
+ * referencing it has been committed. On start-up, pending files whose row exists are completed and
+ * all others are deleted, so neither orphan files nor rows without an image survive.</p>
+ *
+ * @author Debidutt Prasad
+ */
+public class AnalysisWriteQueue {
+
+    private static final String TAG = "AnalysisWriteQueue";
+
+    /**
+     * Suffix of image files whose analysis row has not been committed yet.
+     */
+    static final String PENDING_SUFFIX = ".pending";
+
+    /**
+     * Receives the outcome of a save job. Invoked on the writer thread, or on the staging thread if
+     * the image could not be written.
+     */
+    public interface Callback {
+        /**
+         * Called once the image and the analysis row are both durable.
+         *
+         * @param serialNumber The serial number of the stored analysis.
+         */
+        void onSaved(long serialNumber);
+
+        /**
+         * Called when the job could not be stored. Nothing of the job is left on disk.
+         *
+         * @param error The cause of the failure.
+         */
+        void onFailed(Exception error);
+    }
+
+    /**
+     * A single save request: the image to write and the analysis row that references it.
+     */
+    private static final class SaveJob {
+        final Bitmap bitmap;
+        final Analysis analysis;
+        final List<Detector.Recognition> recognitions;
+        final Callback callback;
+        ImageStore.StagedImage staged;
+
+        SaveJob(Bitmap bitmap, Analysis analysis, List<Detector.Recognition> recognitions, Callback callback) {
+            this.bitmap = bitmap;
+            this.analysis = analysis;
+            this.recognitions = recognitions;
+            this.callback = callback;
+        }
+    }
+
+    private static volatile AnalysisWriteQueue INSTANCE;
+
+    private final AnalysisDatabase database;
+    private final AnalysisDao analysisDao;
+    private final LabelMap labelMap;
+    private final File storageDir;
+    private final ImageStore imageStore;
+    private final ConcurrentLinkedQueue<SaveJob> stagedJobs = new ConcurrentLinkedQueue<>();
+    private final Executor stager = new SerialExecutor(AppExecutors.getInstance().io());
+    private final Executor writer = new SerialExecutor(AppExecutors.getInstance().database());
+
+    private AnalysisWriteQueue(Application application) {
+        this.database = AnalysisDatabase.getDatabase(application);
+        this.analysisDao = database.analysisDao();
+        this.labelMap = LabelMap.getInstance(application);
+        this.storageDir = application.getExternalFilesDir(Environment.DIRECTORY_PICTURES);
+        this.imageStore = new ImageStore(storageDir);
+        // Runs ahead of any staging, so it can't delete the temporary file of a new save.
+        stager.execute(this::recoverPendingFiles);
+    }
+
+    /**
+     * Retrieves the process-wide write queue, creating it on first use.
+     *
+     * @param application The application used to reach the database and the image directory.
+     * @return The singleton write queue.
+     */
+    public static AnalysisWriteQueue getInstance(Application application) {
+        if (INSTANCE == null) {
+            synchronized (AnalysisWriteQueue.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new AnalysisWriteQueue(application);
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Enqueues an analysis for saving. The image is stored under its content hash, which the queue
+     * writes into {@code analysis.imageReference} before the row is inserted. The recognitions are
+     * inserted as Detection rows in the same transaction as the analysis.
+     *
+     * @param bitmap       The image to persist alongside the analysis.
+     * @param analysis     The analysis row to insert.
+     * @param recognitions The detector results of the analysis.
+     * @param callback     Receives the outcome on the writer thread.
+     */
+    public void enqueue(Bitmap bitmap, Analysis analysis, List<Detector.Recognition> recognitions, Callback callback) {
+        SaveJob job = new SaveJob(bitmap, analysis, recognitions, callback);
+        stager.execute(() -> stage(job));
+    }
+
+    /**
+     * Reactive form of {@link #enqueue}: the save is enqueued on subscription and the Single
+     * succeeds with the serial number once the row is committed. Disposing only drops the result;
+     * an enqueued save still completes.
+     *
+     * @param bitmap       The image to persist alongside the analysis.
+     * @param analysis     The analysis row to insert.
+     * @param recognitions The detector results of the analysis.
+     * @return A Single of the saved serial number, signalled on the writer thread.
+     */
+    public Single<Long> save(Bitmap bitmap, Analysis analysis, List<Detector.Recognition> recognitions) {
+        return Single.create(emitter -> enqueue(bitmap, analysis, recognitions, new Callback() {
+            @Override
+            public void onSaved(long serialNumber) {
+                emitter.onSuccess(serialNumber);
+            }
+
+            @Override
+            public void onFailed(Exception error) {
+                emitter.tryOnError(error);
+            }
+        }));
+    }
+
+    /**
+     * Deletes an image once no analysis references it any more. Runs on the writer thread so it is
+     * ordered with saves that might be about to reference the same content.
+     *
+     * @param imageReference The file name of the image that lost a reference.
+     */
+    public void release(String imageReference) {
+        releaseAll(Collections.singletonList(imageReference));
+    }
+
+    /**
+     * Deletes the images no analysis references any more, as one background sweep on the writer
+     * thread. References are checked {@link AnalysisDao#BULK_CHUNK_SIZE} names per query.
+     *
+     * @param imageReferences The file names of the images that lost a reference.
+     */
+    public void releaseAll(Collection<String> imageReferences) {
+        List<String> names = nonNull(imageReferences);
+        if (names.isEmpty()) {
+            return;
+        }
+        writer.execute(() -> sweep(names));
+    }
+
+    /**
+     * Like {@link #releaseAll}, but waits for the sweep to finish. Blocks, so call it from a
+     * background thread other than the writer's.
+     *
+     * @param imageReferences The file names of the images that lost a reference.
+     * @return The number of bytes actually deleted; images referenced again in the meantime stay.
+     */
+    public long releaseAllAndWait(Collection<String> imageReferences) {
+        List<String> names = nonNull(imageReferences);
+        if (names.isEmpty()) {
+            return 0;
+        }
+        CompletableFuture<Long> freed = new CompletableFuture<>();
+        writer.execute(() -> {
+            try {
+                freed.complete(sweep(names));
+            } catch (RuntimeException e) {
+                freed.completeExceptionally(e);
+            }
+        });
+        try {
+            return freed.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+    }
+
+    /**
+     * Deletes the given images that no row references. Runs on the writer thread.
+     *
+     * @return The number of bytes deleted.
+     */
+    private long sweep(List<String> names) {
+        int deleted = 0;
+        long freedBytes = 0;
+        for (int start = 0; start < names.size(); start += AnalysisDao.BULK_CHUNK_SIZE) {
+            List<String> chunk = names.subList(start, Math.min(names.size(), start + AnalysisDao.BULK_CHUNK_SIZE));
+            Set<String> referenced = new HashSet<>(analysisDao.findReferencedImages(chunk));
+            for (String name : chunk) {
+                if (referenced.contains(name)) {
+                    continue;
+                }
+                long size = imageStore.fileFor(name).length();
+                if (imageStore.delete(name)) {
+                    deleted++;
+                    freedBytes += size;
+                } else {
+                    Log.d(TAG, "releaseAll: " + name + " was already gone");
+                }
+            }
+        }
+        Log.d(TAG, "releaseAll: " + deleted + " of " + names.size() + " images deleted");
+        return freedBytes;
+    }
+
+    private static List<String> nonNull(Collection<String> imageReferences) {
+        List<String> names = new ArrayList<>(imageReferences.size());
+        for (String name : imageReferences) {
+            if (name != null) {
+                names.add(name);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Encodes and hashes the image of a job into a temporary file, then hands the job to the writer.
+     * Runs on the staging lane.
+     */
+    private void stage(SaveJob job) {
+        try {
+            job.staged = imageStore.stage(job.bitmap);
+        } catch (IOException e) {
+            job.callback.onFailed(e);
+            return;
+        }
+        stagedJobs.add(job);
+        writer.execute(this::drain);
+    }
+
+    /**
+     * Commits every job staged at the time of the call. Jobs staged while a previous drain was
+     * committing are picked up here together, which is what batches their inserts. The staged files
+     * are moved to their pending names here rather than while staging, so that the pending file of a
+     * content hash is only ever created, renamed or deleted on this lane.
+     */
+    private void drain() {
+        List<SaveJob> batch = new ArrayList<>();
+        // Content file name -> pending file; identical images within a batch share one entry.
+        Map<String, File> pendingFiles = new HashMap<>();
+        SaveJob job;
+        while ((job = stagedJobs.poll()) != null) {
+            String fileName = job.staged.fileName();
+            File pendingFile = imageStore.fileFor(fileName + PENDING_SUFFIX);
+            try {
+                imageStore.publish(job.staged, pendingFile);
+            } catch (IOException e) {
+                job.staged.tempFile.delete();
+                job.callback.onFailed(e);
+                continue;
+            }
+            pendingFiles.put(fileName, pendingFile);
+            job.analysis.imageReference = fileName;
+            batch.add(job);
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        Map<SaveJob, Exception> failures = new HashMap<>();
+        try (Metrics.Span ignored = Metrics.getInstance().span("db.insert")) {
+            database.runInTransaction(() -> insert(batch));
+        } catch (RuntimeException e) {
+            // One conflicting row aborts the whole group; retry individually so the others still land.
+            Log.w(TAG, "Group commit of " + batch.size() + " analyses failed, retrying one by one", e);
+            for (SaveJob saveJob : batch) {
+                try (Metrics.Span ignored = Metrics.getInstance().span("db.insert")) {
+                    database.runInTransaction(() -> insert(Collections.singletonList(saveJob)));
+                } catch (RuntimeException single) {
+                    failures.put(saveJob, single);
+                }
+            }
+        }
+
+        Set<String> committed = new HashSet<>();
+        for (SaveJob saveJob : batch) {
+            if (!failures.containsKey(saveJob)) {
+                committed.add(saveJob.analysis.imageReference);
+            }
+        }
+        for (Map.Entry<String, File> entry : pendingFiles.entrySet()) {
+            publishOrDrop(entry.getValue(), entry.getKey(), committed.contains(entry.getKey()));
+        }
+        for (SaveJob saveJob : batch) {
+            Exception failure = failures.get(saveJob);
+            if (failure == null) {
+                saveJob.callback.onSaved(saveJob.analysis.serialNumber);
+            } else {
+                saveJob.callback.onFailed(failure);
+            }
+        }
+    }
+
+    /**
+     * Inserts the analyses of the given jobs followed by their detections. Must run in a transaction.
+     */
+    private void insert(List<SaveJob> jobs) {
+        List<Analysis> rows = new ArrayList<>(jobs.size());
+        List<Detection> detections = new ArrayList<>();
+        for (SaveJob saveJob : jobs) {
+            rows.add(saveJob.analysis);
+            detections.addAll(DetectionMapper.toDetections(saveJob.analysis.serialNumber, saveJob.recognitions, labelMap));
+        }
+        analysisDao.insertAll(rows);
+        analysisDao.insertDetections(detections);
+    }
+
+    /**
+     * Gives a pending file its final name if a row now references it, deletes it otherwise. When the
+     * same content is already stored, the rename replaces it with identical bytes, which keeps a
+     * single file per hash without racing against a concurrent delete of the old one.
+     */
+    private void publishOrDrop(File pendingFile, String fileName, boolean committed) {
+        if (committed) {
+            if (!pendingFile.renameTo(imageStore.fileFor(fileName))) {
+                // The row is committed; recovery will finish the rename on the next start.
+                Log.w(TAG, "Could not rename " + pendingFile + ", leaving it for recovery");
+            }
+        } else if (!pendingFile.delete()) {
+            Log.w(TAG, "Could not delete " + pendingFile);
+        }
+    }
+
+    /**
+     * Resolves image files left behind by a crash: half-written staging files are deleted, a pending
+     * file whose row was committed is renamed to its final name, any other pending file is deleted.
+     */
+    private void recoverPendingFiles() {
+        File[] leftovers = storageDir == null ? null
+                : storageDir.listFiles((dir, name) -> name.endsWith(PENDING_SUFFIX) || name.endsWith(ImageStore.TEMP_SUFFIX));
+        if (leftovers == null) {
+            return;
+        }
+        for (File leftover : leftovers) {
+            String name = leftover.getName();
+            if (name.endsWith(ImageStore.TEMP_SUFFIX)) {
+                leftover.delete();
+                continue;
+            }
+            String imageReference = name.substring(0, name.length() - PENDING_SUFFIX.length());
+            boolean committed = analysisDao.countByImageReference(imageReference) > 0;
+            publishOrDrop(leftover, imageReference, committed);
+            Log.d(TAG, "recoverPendingFiles: " + name + (committed ? " completed" : " dropped"));
+        }
+    }
+}
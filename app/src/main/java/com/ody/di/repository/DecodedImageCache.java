@@ -0,0 +1,184 @@
+package com.ody.di.repository;
+
+import android.app.Application;
+import android.content.ComponentCallbacks2;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.util.DisplayMetrics;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.ody.di.utils.ImageUtils;
+import com.ody.di.utils.MemoryGovernor;
+import com.ody.di.utils.Metrics;
+import com.ody.di.utils.RxSchedulers;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import androidx.annotation.NonNull;
+import io.reactivex.rxjava3.core.Single;
+
+/**
+ * Process-wide cache of decoded images, so a photo shown on the snap screen, analyzed and shown
+ * again on the analysis screen is decoded once. Entries are keyed by URI, target size and whether
+ * the bitmap may be a hardware bitmap, and the cache is bounded by the bytes of its bitmaps.
+ *
+ * <p>Decoding always runs on the I/O pool; concurrent requests for the same key share one decode.
+ * The cache is cleared when the system runs low on memory, or when the {@link MemoryGovernor} needs
+ * room for a decode.</p>
+ *
+ * <p>Cached bitmaps are shared: callers must neither modify nor recycle them.</p>
+ *
+ * @author Debidutt Prasad
+ */
+public class DecodedImageCache {
+
+    private static final String TAG = "DecodedImageCache";
+
+    // Share of the heap the cache may use.
+    private static final int HEAP_FRACTION = 8;
+
+    private static volatile DecodedImageCache INSTANCE;
+
+    private final Application application;
+    private final LruCache<Key, Bitmap> bitmaps;
+    private final Map<Key, Single<Bitmap>> pending = new ConcurrentHashMap<>();
+
+    private DecodedImageCache(Application application) {
+        this.application = application;
+        this.bitmaps = new LruCache<Key, Bitmap>((int) (Runtime.getRuntime().maxMemory() / HEAP_FRACTION)) {
+            @Override
+            protected int sizeOf(Key key, Bitmap bitmap) {
+                return bitmap.getAllocationByteCount();
+            }
+        };
+        Metrics.getInstance().gauge("imageCache.bytes", bitmaps::size);
+        MemoryGovernor.getInstance(application).addReclaimer(bitmaps::evictAll);
+        application.registerComponentCallbacks(new ComponentCallbacks2() {
+            @Override
+            public void onTrimMemory(int level) {
+                if (level >= TRIM_MEMORY_RUNNING_LOW) {
+                    bitmaps.evictAll();
+                } else if (level >= TRIM_MEMORY_UI_HIDDEN) {
+                    bitmaps.trimToSize(bitmaps.maxSize() / 2);
+                }
+            }
+
+            @Override
+            public void onConfigurationChanged(@NonNull Configuration newConfig) {
+            }
+
+            @Override
+            public void onLowMemory() {
+                bitmaps.evictAll();
+            }
+        });
+    }
+
+    /**
+     * Retrieves the process-wide image cache, creating it on first use.
+     *
+     * @param application The application used to open images and observe memory pressure.
+     * @return The singleton cache.
+     */
+    public static DecodedImageCache getInstance(Application application) {
+        if (INSTANCE == null) {
+            synchronized (DecodedImageCache.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new DecodedImageCache(application);
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the longer side of the screen in pixels, the target size for full-screen images.
+     * Screens that request images for display at this size share their cache entries.
+     *
+     * @return The screen size.
+     */
+    public int screenSize() {
+        DisplayMetrics metrics = application.getResources().getDisplayMetrics();
+        return Math.max(metrics.widthPixels, metrics.heightPixels);
+    }
+
+    /**
+     * Loads an image from the cache, or decodes it on the I/O pool and caches it.
+     *
+     * @param imageUri     The image. Use the same URI form for the same file everywhere, as entries
+     *                     are keyed by URI.
+     * @param maxDimension The size in pixels the longer side should not exceed by more than 2x.
+     * @param hardware     Whether the bitmap may be a hardware bitmap, whose pixels can't be read.
+     * @return The decoded image, emitted on the I/O pool or, if cached, on the subscribing thread.
+     */
+    public Single<Bitmap> load(Uri imageUri, int maxDimension, boolean hardware) {
+        Key key = new Key(imageUri, maxDimension, hardware);
+        return Single.defer(() -> {
+            Bitmap cached = bitmaps.get(key);
+            if (cached != null) {
+                Metrics.getInstance().counter("imageCache.hit").increment();
+                return Single.just(cached);
+            }
+            Metrics.getInstance().counter("imageCache.miss").increment();
+            return pending.computeIfAbsent(key, this::decode);
+        });
+    }
+
+    /**
+     * Removes the cached images of a URI, for instance once its file is deleted.
+     *
+     * @param imageUri The image.
+     */
+    public void evict(Uri imageUri) {
+        for (Key key : bitmaps.snapshot().keySet()) {
+            if (key.uri.equals(imageUri)) {
+                bitmaps.remove(key);
+            }
+        }
+    }
+
+    private Single<Bitmap> decode(Key key) {
+        return Single.fromCallable(() -> ImageUtils.decodeSampled(application, key.uri, key.maxDimension, key.hardware))
+                .subscribeOn(RxSchedulers.io())
+                .doOnSuccess(bitmap -> {
+                    bitmaps.put(key, bitmap);
+                    Log.d(TAG, "decode: " + key.uri + " at " + bitmap.getWidth() + "x" + bitmap.getHeight()
+                            + ", cache " + bitmaps.size() / 1024 + "/" + bitmaps.maxSize() / 1024 + " KiB");
+                })
+                .doFinally(() -> pending.remove(key))
+                .cache();
+    }
+
+    private static final class Key {
+        final Uri uri;
+        final int maxDimension;
+        final boolean hardware;
+
+        Key(Uri uri, int maxDimension, boolean hardware) {
+            this.uri = uri;
+            this.maxDimension = maxDimension;
+            this.hardware = hardware;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Key key = (Key) o;
+            return maxDimension == key.maxDimension && hardware == key.hardware && uri.equals(key.uri);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(uri, maxDimension, hardware);
+        }
+    }
+}
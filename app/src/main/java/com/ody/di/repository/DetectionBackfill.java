@@ -0,0 +1,135 @@
+package com.ody.di.repository;
+
+import android.app.Application;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.ody.di.database.AnalysisDao;
+import com.ody.di.database.AnalysisDatabase;
+import com.ody.di.database.DetectionCodec;
+import com.ody.di.database.DetectionMapper;
+import com.ody.di.database.entities.Analysis;
+import com.ody.di.database.entities.Detection;
+import com.ody.di.utils.RxSchedulers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.reactivex.rxjava3.core.Flowable;
+
+import static com.ody.di.utils.Constants.MY_APP_PREFERENCES;
+
+/**
+ * Fills the Detection table for analyses saved before it existed, by decoding their detections blob.
+ * Rows are processed in batches, each batch inserted in one transaction, and the position is
+ * checkpointed after every batch so an interrupted backfill resumes where it stopped. Batches are
+ * read and decoded on the I/O pool and inserted on the database pool; reading runs at most
+ * {@value #READ_AHEAD} batches ahead of the inserts, so memory stays bounded however many rows
+ * are left. Once a pass completes the backfill is marked done and never runs again.
+ *
+ * @author Debidutt Prasad
+ */
+public class DetectionBackfill {
+
+    private static final String TAG = "DetectionBackfill";
+
+    // Constants related to SharedPreferences.
+    static final String BACKFILL_DONE = "DetectionBackfillDone";
+    static final String BACKFILL_CURSOR = "DetectionBackfillCursor";
+
+    private static final int BATCH_SIZE = 100;
+
+    /**
+     * Decoded batches read ahead while the previous one is being inserted.
+     */
+    private static final int READ_AHEAD = 2;
+
+    private static volatile DetectionBackfill INSTANCE;
+
+    private final Application application;
+    private final AnalysisDao analysisDao;
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    // Detections decoded from one batch of analyses, and the serial number to resume after.
+    private static final class Batch {
+        final long cursor;
+        final List<Detection> detections;
+
+        Batch(long cursor, List<Detection> detections) {
+            this.cursor = cursor;
+            this.detections = detections;
+        }
+    }
+
+    private DetectionBackfill(Application application) {
+        this.application = application;
+        this.analysisDao = AnalysisDatabase.getDatabase(application).analysisDao();
+    }
+
+    /**
+     * Retrieves the process-wide backfill, creating it on first use.
+     *
+     * @param application The application used to reach the database and preferences.
+     * @return The singleton backfill.
+     */
+    public static DetectionBackfill getInstance(Application application) {
+        if (INSTANCE == null) {
+            synchronized (DetectionBackfill.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new DetectionBackfill(application);
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Starts or resumes the backfill in the background, unless it already completed or is running.
+     */
+    public void runIfNeeded() {
+        if (preferences().getBoolean(BACKFILL_DONE, false) || !running.compareAndSet(false, true)) {
+            return;
+        }
+        int[] total = new int[1];
+        Flowable.<Batch, Long>generate(() -> preferences().getLong(BACKFILL_CURSOR, 0), (cursor, emitter) -> {
+                    List<Analysis> analyses = analysisDao.getAnalysesWithoutDetections(cursor, BATCH_SIZE);
+                    if (analyses.isEmpty()) {
+                        emitter.onComplete();
+                        return cursor;
+                    }
+                    emitter.onNext(toBatch(analyses));
+                    return analyses.get(analyses.size() - 1).serialNumber;
+                })
+                .subscribeOn(RxSchedulers.io())
+                .observeOn(RxSchedulers.database(), false, READ_AHEAD)
+                .doFinally(() -> running.set(false))
+                .subscribe(batch -> {
+                    if (!batch.detections.isEmpty()) {
+                        analysisDao.insertDetections(batch.detections);
+                    }
+                    total[0] += batch.detections.size();
+                    preferences().edit().putLong(BACKFILL_CURSOR, batch.cursor).commit();
+                }, error -> Log.e(TAG, "backfill: stopped, will resume on next start", error), () -> {
+                    preferences().edit().remove(BACKFILL_CURSOR).putBoolean(BACKFILL_DONE, true).commit();
+                    Log.d(TAG, "backfill: " + total[0] + " detections indexed");
+                });
+    }
+
+    private Batch toBatch(List<Analysis> analyses) {
+        List<Detection> detections = new ArrayList<>();
+        for (Analysis analysis : analyses) {
+            try {
+                detections.addAll(DetectionMapper.toDetections(analysis.serialNumber, DetectionCodec.decode(analysis.detections)));
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "Skipping analysis " + analysis.serialNumber + " with unreadable detections", e);
+            }
+        }
+        return new Batch(analyses.get(analyses.size() - 1).serialNumber, detections);
+    }
+
+    private SharedPreferences preferences() {
+        return application.getSharedPreferences(MY_APP_PREFERENCES, Context.MODE_PRIVATE);
+    }
+}
@@ -0,0 +1,584 @@
+package com.ody.di.repository;
+
+import android.app.Application;
+import android.net.Uri;
+import android.os.Environment;
+import android.os.SystemClock;
+import android.util.Base64;
+import android.util.Log;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonWriter;
+import com.ody.di.database.AnalysisDao;
+import com.ody.di.database.AnalysisDatabase;
+import com.ody.di.database.DetectionCodec;
+import com.ody.di.database.DetectionMapper;
+import com.ody.di.database.entities.Analysis;
+import com.ody.di.database.entities.Detection;
+import com.ody.di.utils.AppExecutors;
+import com.ody.di.utils.LabelMap;
+import com.ody.di.utils.Metrics;
+import com.ody.di.utils.SerialExecutor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Exports the whole analysis history to a ZIP archive and imports such archives back, with memory
+ * bounded by one chunk of rows whatever the history size.
+ *
+ * <p>An archive holds the images under {@value #IMAGE_DIR}, followed by {@value #MANIFEST}: a JSON
+ * header line and then one JSON line per analysis. Images come first so an importer has every file
+ * in place before it inserts the rows referencing them.</p>
+ *
+ * <ul>
+ *     <li>Export walks the distinct image references and then the rows in keyset chunks. Image files
+ *     are copied into the archive by channel transfer, stored without recompression, never
+ *     decoded.</li>
+ *     <li>Import stages each image under its content hash with a {@value #IMPORT_SUFFIX} suffix,
+ *     inserts the rows in batched transactions, and only then gives the images of each committed
+ *     batch their final name. Rows whose serial number already exists are skipped.</li>
+ * </ul>
+ *
+ * @author Debidutt Prasad
+ */
+public class HistoryArchive {
+
+    private static final String TAG = "HistoryArchive";
+
+    /**
+     * Name of the manifest entry.
+     */
+    public static final String MANIFEST = "manifest.jsonl";
+
+    /**
+     * Directory of the image entries.
+     */
+    public static final String IMAGE_DIR = "images/";
+
+    /**
+     * Suffix of imported images whose rows aren't committed yet. Storage maintenance leaves them alone.
+     */
+    static final String IMPORT_SUFFIX = ".importing";
+
+    private static final String FORMAT = "ody-history";
+
+    // Version 2 adds the model of each analysis and whether its image has the detections drawn in.
+    // The timing fields are optional: older readers skip them and older archives leave them unset.
+    private static final int VERSION = 2;
+
+    /**
+     * Rows read or inserted per chunk; bounds the memory used by an export or import.
+     */
+    private static final int CHUNK_SIZE = 200;
+
+    private static volatile HistoryArchive INSTANCE;
+
+    private final AnalysisDatabase database;
+    private final AnalysisDao analysisDao;
+    private final Application application;
+    private final LabelMap labelMap;
+    private final File storageDir;
+    private final ImageStore imageStore;
+    private final Executor worker = new SerialExecutor(AppExecutors.getInstance().io());
+
+    /**
+     * Outcome of an export or import.
+     */
+    public static final class Result {
+        /**
+         * True for an export, false for an import.
+         */
+        public final boolean export;
+
+        /**
+         * Number of analyses written, or inserted for an import.
+         */
+        public final int analyses;
+
+        /**
+         * Number of image files written or read.
+         */
+        public final int images;
+
+        /**
+         * Size of the archive in bytes.
+         */
+        public final long bytes;
+
+        /**
+         * Wall time of the whole operation in milliseconds.
+         */
+        public final long elapsedMs;
+
+        Result(boolean export, int analyses, int images, long bytes, long elapsedMs) {
+            this.export = export;
+            this.analyses = analyses;
+            this.images = images;
+            this.bytes = bytes;
+            this.elapsedMs = elapsedMs;
+        }
+
+        /**
+         * Returns the archive size in megabytes.
+         *
+         * @return The size in MB.
+         */
+        public double getMegabytes() {
+            return bytes / (1024.0 * 1024.0);
+        }
+
+        /**
+         * Returns the throughput of the operation.
+         *
+         * @return Archive megabytes per second.
+         */
+        public double getMegabytesPerSecond() {
+            return getMegabytes() * 1000.0 / Math.max(1, elapsedMs);
+        }
+    }
+
+    /**
+     * Receives the outcome of an export or import. Invoked on the archive thread.
+     */
+    public interface Listener {
+        /**
+         * Called when the operation completed.
+         *
+         * @param result Counts and throughput of the operation.
+         */
+        void onFinished(Result result);
+
+        /**
+         * Called when the operation failed. An import keeps the batches committed before the failure.
+         *
+         * @param error The cause of the failure.
+         */
+        void onFailed(Exception error);
+    }
+
+    private HistoryArchive(Application application) {
+        this.application = application;
+        this.database = AnalysisDatabase.getDatabase(application);
+        this.analysisDao = database.analysisDao();
+        this.labelMap = LabelMap.getInstance(application);
+        this.storageDir = application.getExternalFilesDir(Environment.DIRECTORY_PICTURES);
+        this.imageStore = new ImageStore(storageDir);
+    }
+
+    /**
+     * Retrieves the process-wide archive exporter and importer, creating it on first use.
+     *
+     * @param application The application used to reach the database, storage and content resolver.
+     * @return The singleton archive.
+     */
+    public static HistoryArchive getInstance(Application application) {
+        if (INSTANCE == null) {
+            synchronized (HistoryArchive.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new HistoryArchive(application);
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Exports the history to a document in the background.
+     *
+     * @param destination The document to write, e.g. picked with ACTION_CREATE_DOCUMENT.
+     * @param listener    Receives the outcome.
+     */
+    public void exportTo(Uri destination, Listener listener) {
+        worker.execute(() -> {
+            try (OutputStream out = application.getContentResolver().openOutputStream(destination)) {
+                if (out == null) {
+                    throw new IOException("Cannot open " + destination);
+                }
+                listener.onFinished(export(out));
+            } catch (IOException | RuntimeException e) {
+                Log.e(TAG, "exportTo: export failed", e);
+                listener.onFailed(e);
+            }
+        });
+    }
+
+    /**
+     * Imports an archive from a document in the background.
+     *
+     * @param source   The document to read, e.g. picked with ACTION_OPEN_DOCUMENT.
+     * @param listener Receives the outcome.
+     */
+    public void importFrom(Uri source, Listener listener) {
+        worker.execute(() -> {
+            try (InputStream in = application.getContentResolver().openInputStream(source)) {
+                if (in == null) {
+                    throw new IOException("Cannot open " + source);
+                }
+                listener.onFinished(importArchive(in));
+            } catch (IOException | RuntimeException e) {
+                Log.e(TAG, "importFrom: import failed", e);
+                listener.onFailed(e);
+            }
+        });
+    }
+
+    /**
+     * Writes the history as an archive. Call on a background thread.
+     *
+     * @param out The stream to write to; not closed by this method.
+     * @return Counts and throughput of the export.
+     * @throws IOException if the archive could not be written.
+     */
+    public Result export(OutputStream out) throws IOException {
+        long start = SystemClock.elapsedRealtime();
+        CountingOutputStream counter = new CountingOutputStream(out);
+        ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(counter, 64 * 1024));
+        WritableByteChannel zipChannel = Channels.newChannel(zip);
+
+        // Images are PNGs already; deflating them again costs time and saves nothing.
+        zip.setLevel(Deflater.NO_COMPRESSION);
+        int images = 0;
+        String lastImage = "";
+        List<String> names;
+        while (!(names = analysisDao.getImageReferencesAfter(lastImage, CHUNK_SIZE)).isEmpty()) {
+            for (String name : names) {
+                File file = imageStore.fileFor(name);
+                if (file.isFile()) {
+                    writeImage(zip, zipChannel, name, file);
+                    images++;
+                }
+            }
+            lastImage = names.get(names.size() - 1);
+        }
+
+        zip.setLevel(Deflater.DEFAULT_COMPRESSION);
+        zip.putNextEntry(new ZipEntry(MANIFEST));
+        Writer manifest = new OutputStreamWriter(zip, StandardCharsets.UTF_8);
+        JsonObject header = new JsonObject();
+        header.addProperty("format", FORMAT);
+        header.addProperty("version", VERSION);
+        manifest.write(header.toString());
+        manifest.write('\n');
+        int analyses = 0;
+        long lastSerial = 0;
+        List<Analysis> chunk;
+        while (!(chunk = analysisDao.getAnalysesAfter(lastSerial, CHUNK_SIZE)).isEmpty()) {
+            for (Analysis analysis : chunk) {
+                try (Metrics.Span ignored = Metrics.getInstance().span("json.write")) {
+                    writeManifestLine(manifest, analysis);
+                }
+                analyses++;
+            }
+            lastSerial = chunk.get(chunk.size() - 1).serialNumber;
+        }
+        manifest.flush();
+        zip.closeEntry();
+        zip.finish();
+        zip.flush();
+
+        Result result = new Result(true, analyses, images, counter.count, SystemClock.elapsedRealtime() - start);
+        Log.d(TAG, String.format("export: %d analyses, %d images, %.1f MB at %.1f MB/s",
+                result.analyses, result.images, result.getMegabytes(), result.getMegabytesPerSecond()));
+        return result;
+    }
+
+    /**
+     * Reads an archive into the history. Call on a background thread.
+     *
+     * @param in The archive; not closed by this method.
+     * @return Counts and throughput of the import.
+     * @throws IOException if the archive could not be read or isn't a history archive.
+     */
+    public Result importArchive(InputStream in) throws IOException {
+        long start = SystemClock.elapsedRealtime();
+        deleteImportLeftovers();
+        CountingInputStream counter = new CountingInputStream(in);
+        ZipInputStream zip = new ZipInputStream(new BufferedInputStream(counter, 64 * 1024));
+        // Only images whose content name differs from their archived name, i.e. legacy names.
+        Map<String, String> renamedImages = new HashMap<>();
+        int images = 0;
+        int analyses = -1;
+        try {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                String name = entry.getName();
+                if (name.startsWith(IMAGE_DIR) && !entry.isDirectory()) {
+                    importImage(zip, name.substring(IMAGE_DIR.length()), renamedImages);
+                    images++;
+                } else if (name.equals(MANIFEST)) {
+                    analyses = importManifest(zip, renamedImages);
+                }
+                zip.closeEntry();
+            }
+        } finally {
+            // Images no imported row references.
+            deleteImportLeftovers();
+        }
+        if (analyses < 0) {
+            throw new IOException("Not a history archive: " + MANIFEST + " is missing");
+        }
+
+        if (analyses > 0) {
+            // Imported rows may come from another model.
+            Reanalysis.getInstance(application).rewind();
+        }
+        Result result = new Result(false, analyses, images, counter.count, SystemClock.elapsedRealtime() - start);
+        Log.d(TAG, String.format("import: %d analyses, %d images, %.1f MB at %.1f MB/s",
+                result.analyses, result.images, result.getMegabytes(), result.getMegabytesPerSecond()));
+        return result;
+    }
+
+    private void writeImage(ZipOutputStream zip, WritableByteChannel zipChannel, String name, File file) throws IOException {
+        ZipEntry entry = new ZipEntry(IMAGE_DIR + name);
+        entry.setTime(file.lastModified());
+        zip.putNextEntry(entry);
+        try (FileInputStream in = new FileInputStream(file)) {
+            FileChannel channel = in.getChannel();
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                position += channel.transferTo(position, size - position, zipChannel);
+            }
+        }
+        zip.closeEntry();
+    }
+
+    private void writeManifestLine(Writer manifest, Analysis analysis) throws IOException {
+        // Not closed: that would close the archive.
+        JsonWriter json = new JsonWriter(manifest);
+        json.beginObject();
+        json.name("serialNumber").value(analysis.serialNumber);
+        json.name("image").value(analysis.imageReference);
+        json.name("detections").value(analysis.detections == null ? null
+                : Base64.encodeToString(analysis.detections, Base64.NO_WRAP));
+        json.name("labels").value(analysis.labels);
+        // Optional; carries the titles of labels the label map didn't know at migration time.
+        json.name("detectedObjects").value(analysis.detectedObjects);
+        json.name("note").value(analysis.note);
+        json.name("imageAnnotated").value(analysis.imageAnnotated);
+        json.name("modelId").value(analysis.modelId);
+        json.name("modelVersion").value(analysis.modelVersion);
+        json.name("detectionOptions").value(analysis.detectionOptions);
+        json.name("decodeMs").value(analysis.decodeMs);
+        json.name("inferenceMs").value(analysis.inferenceMs);
+        json.name("totalMs").value(analysis.totalMs);
+        json.name("threadCount").value(analysis.threadCount);
+        json.name("inputWidth").value(analysis.inputWidth);
+        json.name("inputHeight").value(analysis.inputHeight);
+        json.name("device").value(analysis.device);
+        json.endObject();
+        json.flush();
+        manifest.write('\n');
+    }
+
+    private void importImage(InputStream zip, String name, Map<String, String> renamedImages) throws IOException {
+        if (name.isEmpty() || name.contains("/") || name.contains("\\") || name.startsWith(".")) {
+            Log.w(TAG, "importImage: skipping entry " + name);
+            return;
+        }
+        ImageStore.StagedImage staged = imageStore.stage(zip);
+        if (!staged.fileName().equals(name)) {
+            renamedImages.put(name, staged.fileName());
+        }
+        imageStore.publish(staged, imageStore.fileFor(staged.fileName() + IMPORT_SUFFIX));
+    }
+
+    private int importManifest(InputStream zip, Map<String, String> renamedImages) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(zip, StandardCharsets.UTF_8));
+        JsonObject header = parseLine(reader.readLine());
+        if (header == null || !header.has("format") || !FORMAT.equals(header.get("format").getAsString())) {
+            throw new IOException("Not a history archive");
+        }
+        int version = header.get("version").getAsInt();
+        if (version > VERSION) {
+            throw new IOException("Unsupported history archive version " + version);
+        }
+
+        int inserted = 0;
+        List<Analysis> batch = new ArrayList<>(CHUNK_SIZE);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            JsonObject json = parseLine(line);
+            if (json == null) {
+                continue;
+            }
+            batch.add(toAnalysis(json, renamedImages));
+            if (batch.size() == CHUNK_SIZE) {
+                inserted += insertBatch(batch);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            inserted += insertBatch(batch);
+        }
+        return inserted;
+    }
+
+    private Analysis toAnalysis(JsonObject json, Map<String, String> renamedImages) throws IOException {
+        try {
+            Analysis analysis = new Analysis();
+            analysis.serialNumber = json.get("serialNumber").getAsLong();
+            String image = stringOrNull(json, "image");
+            analysis.imageReference = renamedImages.containsKey(image) ? renamedImages.get(image) : image;
+            String detections = stringOrNull(json, "detections");
+            analysis.detections = detections == null ? null : Base64.decode(detections, Base64.NO_WRAP);
+            // Labels follow this install's label file rather than the archive's.
+            analysis.labels = DetectionMapper.labelsOf(DetectionCodec.decode(analysis.detections), labelMap);
+            analysis.detectedObjects = stringOrNull(json, "detectedObjects");
+            analysis.note = stringOrNull(json, "note");
+            // Every image of a version 1 archive has the detections drawn in.
+            analysis.imageAnnotated = !json.has("imageAnnotated") || json.get("imageAnnotated").getAsBoolean();
+            analysis.modelId = stringOrNull(json, "modelId");
+            analysis.modelVersion = json.has("modelVersion") ? json.get("modelVersion").getAsInt() : 0;
+            analysis.detectionOptions = stringOrNull(json, "detectionOptions");
+            analysis.decodeMs = longOrNull(json, "decodeMs");
+            analysis.inferenceMs = longOrNull(json, "inferenceMs");
+            analysis.totalMs = longOrNull(json, "totalMs");
+            analysis.threadCount = json.has("threadCount") ? json.get("threadCount").getAsInt() : 0;
+            analysis.inputWidth = json.has("inputWidth") ? json.get("inputWidth").getAsInt() : 0;
+            analysis.inputHeight = json.has("inputHeight") ? json.get("inputHeight").getAsInt() : 0;
+            analysis.device = stringOrNull(json, "device");
+            return analysis;
+        } catch (IllegalArgumentException | IllegalStateException | NullPointerException e) {
+            throw new IOException("Malformed manifest line: " + json, e);
+        }
+    }
+
+    /**
+     * Inserts a batch in one transaction, then publishes the images of the batch.
+     *
+     * @return The number of analyses inserted; existing serial numbers are skipped.
+     */
+    private int insertBatch(List<Analysis> batch) {
+        int[] inserted = new int[1];
+        database.runInTransaction(() -> {
+            List<Long> ids = analysisDao.insertAllIfAbsent(batch);
+            List<Detection> detections = new ArrayList<>();
+            for (int i = 0; i < batch.size(); i++) {
+                if (ids.get(i) != -1) {
+                    Analysis analysis = batch.get(i);
+                    detections.addAll(DetectionMapper.toDetections(analysis.serialNumber, DetectionCodec.decode(analysis.detections)));
+                    inserted[0]++;
+                }
+            }
+            if (!detections.isEmpty()) {
+                analysisDao.insertDetections(detections);
+            }
+        });
+        for (Analysis analysis : batch) {
+            if (analysis.imageReference == null) {
+                continue;
+            }
+            File pending = imageStore.fileFor(analysis.imageReference + IMPORT_SUFFIX);
+            if (pending.exists() && !pending.renameTo(imageStore.fileFor(analysis.imageReference))) {
+                Log.w(TAG, "insertBatch: could not publish " + analysis.imageReference);
+            }
+        }
+        return inserted[0];
+    }
+
+    private void deleteImportLeftovers() {
+        File[] leftovers = storageDir == null ? null
+                : storageDir.listFiles(file -> file.getName().endsWith(IMPORT_SUFFIX));
+        if (leftovers == null) {
+            return;
+        }
+        for (File file : leftovers) {
+            if (!file.delete()) {
+                Log.w(TAG, "deleteImportLeftovers: could not delete " + file.getName());
+            }
+        }
+    }
+
+    private static JsonObject parseLine(String line) throws IOException {
+        if (line == null || line.trim().isEmpty()) {
+            return null;
+        }
+        try (Metrics.Span ignored = Metrics.getInstance().span("json.parse")) {
+            return JsonParser.parseString(line).getAsJsonObject();
+        } catch (JsonParseException | IllegalStateException e) {
+            throw new IOException("Malformed manifest line: " + line, e);
+        }
+    }
+
+    private static String stringOrNull(JsonObject json, String name) {
+        return json.has(name) && !json.get(name).isJsonNull() ? json.get(name).getAsString() : null;
+    }
+
+    private static Long longOrNull(JsonObject json, String name) {
+        return json.has(name) && !json.get(name).isJsonNull() ? json.get(name).getAsLong() : null;
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = in.read(b, off, len);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.ody.di.repository;
+
+import android.graphics.Bitmap;
+
+import com.ody.di.utils.Metrics;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Content-addressed store for analysis images. An image is named after the SHA-256 of its bytes,
+ * so identical images share a single file and the name doubles as a stable key (for example for
+ * caching detections). Looking an image up by hash is a single path computation.
+ *
+ * <p>Writes are staged: bytes go to a {@value #TEMP_SUFFIX} file that is hashed and synced while it
+ * is written, and only then given its content name by a rename. Reference counting is derived from
+ * the {@code image_reference} column of the analysis rows; the {@link AnalysisWriteQueue} is the
+ * only writer and releases a file once no row references it.</p>
+ *
+ * @author Debidutt Prasad
+ */
+public class ImageStore {
+
+    /**
+     * Extension of content-addressed image files.
+     */
+    public static final String EXTENSION = ".png";
+
+    /**
+     * Suffix of files that are still being written.
+     */
+    static final String TEMP_SUFFIX = ".tmp";
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final File storageDir;
+
+    /**
+     * An image that has been written and hashed but not yet published under its content name.
+     */
+    public static final class StagedImage {
+        /**
+         * Hex encoded SHA-256 of the image bytes.
+         */
+        public final String hash;
+
+        /**
+         * The temporary file holding the bytes.
+         */
+        public final File tempFile;
+
+        StagedImage(String hash, File tempFile) {
+            this.hash = hash;
+            this.tempFile = tempFile;
+        }
+
+        /**
+         * Returns the file name the image is stored under once published.
+         *
+         * @return The content-addressed file name.
+         */
+        public String fileName() {
+            return hash + EXTENSION;
+        }
+    }
+
+    /**
+     * Constructor for the ImageStore.
+     *
+     * @param storageDir The directory holding the images.
+     */
+    public ImageStore(File storageDir) {
+        this.storageDir = storageDir;
+    }
+
+    /**
+     * Returns the file for an image reference, whether content-addressed or a legacy timestamped name.
+     *
+     * @param imageReference The file name stored with the analysis.
+     * @return The image file.
+     */
+    public File fileFor(String imageReference) {
+        return new File(storageDir, imageReference);
+    }
+
+    /**
+     * Encodes the bitmap as PNG into a temporary file, hashing the bytes on the way.
+     *
+     * @param bitmap The bitmap to store.
+     * @return The staged image.
+     * @throws IOException if the file could not be written.
+     */
+    public StagedImage stage(Bitmap bitmap) throws IOException {
+        return stage(out -> {
+            try (Metrics.Span ignored = Metrics.getInstance().span("image.encode")) {
+                if (!bitmap.compress(Bitmap.CompressFormat.PNG, 100, out)) {
+                    throw new IOException("Bitmap could not be compressed");
+                }
+            }
+        });
+    }
+
+    /**
+     * Copies an already encoded image into a temporary file, hashing the bytes on the way.
+     *
+     * @param in The encoded image bytes; not closed by this method.
+     * @return The staged image.
+     * @throws IOException if the stream could not be read or the file written.
+     */
+    public StagedImage stage(InputStream in) throws IOException {
+        return stage(out -> {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        });
+    }
+
+    /**
+     * Moves a staged image to the given final location.
+     *
+     * @param staged The staged image.
+     * @param target The file to move it to.
+     * @throws IOException if the rename failed.
+     */
+    public void publish(StagedImage staged, File target) throws IOException {
+        if (!staged.tempFile.renameTo(target)) {
+            throw new IOException("Could not rename " + staged.tempFile + " to " + target);
+        }
+    }
+
+    /**
+     * Deletes the file of an image reference.
+     *
+     * @param imageReference The file name to delete.
+     * @return True if the file was deleted.
+     */
+    public boolean delete(String imageReference) {
+        return fileFor(imageReference).delete();
+    }
+
+    private interface Writer {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    private StagedImage stage(Writer writer) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        File tempFile = File.createTempFile("stage_", TEMP_SUFFIX, storageDir);
+        try (FileOutputStream fileOut = new FileOutputStream(tempFile);
+             DigestOutputStream out = new DigestOutputStream(fileOut, digest)) {
+            writer.writeTo(out);
+            out.flush();
+            fileOut.getFD().sync();
+        } catch (IOException | RuntimeException e) {
+            tempFile.delete();
+            throw e;
+        }
+        return new StagedImage(toHex(digest.digest()), tempFile);
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,340 @@
+package com.ody.di.repository;
+
+import android.app.Application;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.ody.di.database.AnalysisDatabase;
+import com.ody.di.database.DetectionArrays;
+import com.ody.di.database.DetectionCodec;
+import com.ody.di.database.DetectionMapper;
+import com.ody.di.database.ImportJobDao;
+import com.ody.di.database.ImportProgress;
+import com.ody.di.database.entities.Analysis;
+import com.ody.di.database.entities.ImportJob;
+import com.ody.di.utils.AnalysisTiming;
+import com.ody.di.utils.AppExecutors;
+import com.ody.di.utils.DetectionModel;
+import com.ody.di.utils.LabelMap;
+import com.ody.di.utils.MemoryGovernor;
+import com.ody.di.utils.RxSchedulers;
+import com.ody.di.viewmodel.AnalysisViewModel;
+
+import org.tensorflow.lite.examples.detection.tflite.Detector;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.reactivex.rxjava3.core.Flowable;
+import io.reactivex.rxjava3.core.Single;
+
+import static com.ody.di.utils.Constants.MY_APP_PREFERENCES;
+import static com.ody.di.utils.ImageUtils.decodeSampled;
+
+/**
+ * Imports images picked from the gallery in the background. Each picked image becomes a row in the
+ * ImportJob table, so a batch survives the process being killed, and goes through the same path as
+ * a camera shot: decoded at screen size on the I/O pool, analyzed on the inference pool, then stored
+ * through the {@link AnalysisWriteQueue}.
+ *
+ * <p>Jobs are read in pages and up to {@link #getParallelism()} of them are in flight at once, so
+ * decoding and saving one image overlaps with analyzing another while only that many images are in
+ * memory. A job waits before decoding while the {@link MemoryGovernor} reports memory pressure. The
+ * detector is created for a run and closed when it ends.</p>
+ *
+ * <p>Each job reserves its analysis's serial number from the {@link SerialNumberAllocator}, which
+ * no other analysis gets, before it starts. Jobs that were in progress
+ * when the process died are settled on the next run: done if that analysis was stored, queued again
+ * otherwise, so no image is imported twice.</p>
+ *
+ * @author Debidutt Prasad
+ */
+public class ImportQueue {
+
+    private static final String TAG = "ImportQueue";
+
+    // Constants related to SharedPreferences.
+    static final String IMPORT_PARALLELISM = "ImportParallelism";
+
+    /**
+     * Number of jobs in flight unless configured otherwise.
+     */
+    public static final int DEFAULT_PARALLELISM = 2;
+
+    /**
+     * Upper bound of the parallelism. Each job in flight holds a decoded image, and the jobs share a
+     * single inference thread, so more would only add memory and queueing.
+     */
+    public static final int MAX_PARALLELISM = 3;
+
+    private static final int PAGE_SIZE = 50;
+
+    /**
+     * Minimum interval between two progress updates.
+     */
+    private static final long PROGRESS_INTERVAL_MS = 250;
+
+    private static volatile ImportQueue INSTANCE;
+
+    private final Application application;
+    private final ImportJobDao importJobDao;
+    private final AnalysisWriteQueue writeQueue;
+    private final DecodedImageCache imageCache;
+    private final SerialNumberAllocator serialNumbers;
+    private final LabelMap labelMap;
+    private final AnalysisViewModel.DetectorFactory detectorFactory;
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final AtomicBoolean settled = new AtomicBoolean();
+
+    // Created by a run on first use and closed when it ends; only touched on the inference thread.
+    private Detector detector;
+
+    // An analyzed image on its way to the write queue.
+    private static final class Analyzed {
+        final Bitmap image;
+        final List<Detector.Recognition> recognitions;
+        final AnalysisTiming timing;
+
+        Analyzed(Bitmap image, List<Detector.Recognition> recognitions, AnalysisTiming timing) {
+            this.image = image;
+            this.recognitions = recognitions;
+            this.timing = timing;
+        }
+    }
+
+    private ImportQueue(Application application) {
+        this.application = application;
+        this.importJobDao = AnalysisDatabase.getDatabase(application).importJobDao();
+        this.writeQueue = AnalysisWriteQueue.getInstance(application);
+        this.imageCache = DecodedImageCache.getInstance(application);
+        this.serialNumbers = SerialNumberAllocator.getInstance(application);
+        this.labelMap = LabelMap.getInstance(application);
+        this.detectorFactory = AnalysisViewModel.defaultDetectorFactory(application);
+    }
+
+    /**
+     * Retrieves the process-wide import queue, creating it on first use.
+     *
+     * @param application The application used to reach the database, preferences and images.
+     * @return The singleton import queue.
+     */
+    public static ImportQueue getInstance(Application application) {
+        if (INSTANCE == null) {
+            synchronized (ImportQueue.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new ImportQueue(application);
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Adds images to the queue and starts processing them in the background. The read permission of
+     * each image is persisted where the provider allows it, so the batch also survives a restart of
+     * the device.
+     *
+     * @param images Content URIs of the images, e.g. picked with ACTION_OPEN_DOCUMENT.
+     */
+    public void enqueue(List<Uri> images) {
+        List<Uri> sources = new ArrayList<>(images);
+        AppExecutors.getInstance().database().execute(() -> {
+            List<ImportJob> jobs = new ArrayList<>(sources.size());
+            for (Uri source : sources) {
+                keepReadable(source);
+                ImportJob job = new ImportJob();
+                job.sourceUri = source.toString();
+                job.state = ImportJob.STATE_QUEUED;
+                jobs.add(job);
+            }
+            importJobDao.insertAll(jobs);
+            Log.d(TAG, "enqueue: " + jobs.size() + " images queued");
+            runIfNeeded();
+        });
+    }
+
+    /**
+     * Resumes the jobs left by a previous process, if any. Cheap when there are none.
+     */
+    public void resume() {
+        AppExecutors.getInstance().database().execute(this::runIfNeeded);
+    }
+
+    /**
+     * Observes the progress of the current batch, at most every {@value #PROGRESS_INTERVAL_MS} ms.
+     *
+     * @return Flowable of the progress.
+     */
+    public Flowable<ImportProgress> observeProgress() {
+        return importJobDao.observeProgress()
+                .distinctUntilChanged()
+                .throttleLatest(PROGRESS_INTERVAL_MS, TimeUnit.MILLISECONDS, RxSchedulers.database(), true);
+    }
+
+    /**
+     * Returns the number of jobs processed at once.
+     *
+     * @return The parallelism, from 1 to {@value #MAX_PARALLELISM}.
+     */
+    public int getParallelism() {
+        return clampParallelism(preferences().getInt(IMPORT_PARALLELISM, DEFAULT_PARALLELISM));
+    }
+
+    /**
+     * Sets the number of jobs processed at once. Takes effect on the next run.
+     *
+     * @param parallelism The parallelism, clamped to 1 to {@value #MAX_PARALLELISM}.
+     */
+    public void setParallelism(int parallelism) {
+        preferences().edit().putInt(IMPORT_PARALLELISM, clampParallelism(parallelism)).apply();
+    }
+
+    /**
+     * Processes the queued jobs unless a run is already doing so. The first run of the process
+     * settles the jobs interrupted by the previous one, and every run first drops the jobs of
+     * finished batches.
+     */
+    private void runIfNeeded() {
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+        int parallelism = getParallelism();
+        Flowable.<List<ImportJob>, Long>generate(() -> {
+                    if (settled.compareAndSet(false, true)) {
+                        Log.d(TAG, "run: " + importJobDao.settleInterruptedJobs() + " interrupted jobs settled");
+                    }
+                    importJobDao.deleteFinishedJobs();
+                    return 0L;
+                }, (cursor, emitter) -> {
+                    List<ImportJob> jobs = importJobDao.getQueuedJobs(cursor, PAGE_SIZE);
+                    if (jobs.isEmpty()) {
+                        emitter.onComplete();
+                        return cursor;
+                    }
+                    emitter.onNext(jobs);
+                    return jobs.get(jobs.size() - 1).id;
+                })
+                .subscribeOn(RxSchedulers.database())
+                .concatMapIterable(jobs -> jobs, 1)
+                .flatMapSingle(this::process, false, parallelism)
+                .doFinally(this::finishRun)
+                .subscribe(job -> Log.d(TAG, "run: job " + job.id + (job.state == ImportJob.STATE_DONE ? " done" : " failed")),
+                        error -> Log.e(TAG, "run: stopped, will resume on next start", error));
+    }
+
+    /**
+     * Imports one image. Never fails: a job that can't be imported is marked failed.
+     */
+    private Single<ImportJob> process(ImportJob job) {
+        Uri source = Uri.parse(job.sourceUri);
+        // Set on the I/O pool, read on the inference pool after the hop.
+        long[] start = new long[1];
+        long[] decodeMs = new long[1];
+        return MemoryGovernor.getInstance(application).deferWhileUnderPressure("import job " + job.id)
+                .andThen(Single.fromCallable(() -> {
+                    job.analysisSerialNumber = serialNumbers.next();
+                    update(job, ImportJob.STATE_DECODING);
+                    start[0] = SystemClock.elapsedRealtime();
+                    Bitmap image = decodeSampled(application, source, imageCache.screenSize(), false);
+                    decodeMs[0] = SystemClock.elapsedRealtime() - start[0];
+                    return image;
+                }))
+                .subscribeOn(RxSchedulers.io())
+                .doOnSuccess(image -> update(job, ImportJob.STATE_ANALYZING))
+                .observeOn(RxSchedulers.inference())
+                .map(image -> {
+                    Detector detector = detector();
+                    long inferenceStart = SystemClock.elapsedRealtime();
+                    List<Detector.Recognition> recognitions = detector.recognizeImage(image);
+                    long end = SystemClock.elapsedRealtime();
+                    return new Analyzed(image, recognitions,
+                            new AnalysisTiming(image, decodeMs[0], end - inferenceStart, end - start[0]));
+                })
+                .observeOn(RxSchedulers.io())
+                .flatMap(analyzed -> {
+                    update(job, ImportJob.STATE_SAVING);
+                    Analysis analysis = new Analysis();
+                    analysis.serialNumber = job.analysisSerialNumber;
+                    DetectionArrays arrays = DetectionMapper.toArrays(analyzed.recognitions, labelMap);
+                    analysis.detections = DetectionCodec.encode(arrays);
+                    analysis.labels = DetectionMapper.labelsOf(arrays, labelMap);
+                    DetectionModel.stamp(analysis);
+                    analyzed.timing.applyTo(analysis);
+                    return writeQueue.save(analyzed.image, analysis, analyzed.recognitions);
+                })
+                .map(serialNumber -> {
+                    update(job, ImportJob.STATE_DONE);
+                    return job;
+                })
+                .onErrorReturn(error -> {
+                    Log.w(TAG, "process: " + source + " could not be imported", error);
+                    job.error = error.toString();
+                    update(job, ImportJob.STATE_FAILED);
+                    return job;
+                })
+                .doOnSuccess(finished -> releaseReadable(source));
+    }
+
+    /**
+     * Ends a run: closes its detector and starts another run if jobs were queued meanwhile.
+     */
+    private void finishRun() {
+        AppExecutors.getInstance().inference().execute(() -> {
+            if (detector != null) {
+                detector.close();
+                detector = null;
+            }
+        });
+        AppExecutors.getInstance().database().execute(() -> {
+            running.set(false);
+            if (importJobDao.countQueuedJobs() > 0) {
+                runIfNeeded();
+            }
+        });
+    }
+
+    private Detector detector() throws IOException {
+        if (detector == null) {
+            detector = detectorFactory.create();
+        }
+        return detector;
+    }
+
+    private void update(ImportJob job, int state) {
+        job.state = state;
+        importJobDao.update(job);
+    }
+
+    private void keepReadable(Uri source) {
+        try {
+            application.getContentResolver().takePersistableUriPermission(source, Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        } catch (SecurityException e) {
+            // The grant from the picker still lasts until the device restarts.
+            Log.w(TAG, "keepReadable: " + source + " can't be kept readable across restarts", e);
+        }
+    }
+
+    private void releaseReadable(Uri source) {
+        try {
+            application.getContentResolver().releasePersistableUriPermission(source, Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        } catch (SecurityException e) {
+            Log.d(TAG, "releaseReadable: no persisted permission for " + source);
+        }
+    }
+
+    private static int clampParallelism(int parallelism) {
+        return Math.max(1, Math.min(MAX_PARALLELISM, parallelism));
+    }
+
+    private SharedPreferences preferences() {
+        return application.getSharedPreferences(MY_APP_PREFERENCES, Context.MODE_PRIVATE);
+    }
+}
@@ -0,0 +1,320 @@
+package com.ody.di.repository;
+
+import android.app.Application;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.os.BatteryManager;
+import android.os.Environment;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.ody.di.database.AnalysisDao;
+import com.ody.di.database.AnalysisDatabase;
+import com.ody.di.database.AnalysisImageRef;
+import com.ody.di.database.DetectionArrays;
+import com.ody.di.database.DetectionCodec;
+import com.ody.di.database.DetectionMapper;
+import com.ody.di.database.entities.Analysis;
+import com.ody.di.utils.AnalysisTiming;
+import com.ody.di.utils.AppExecutors;
+import com.ody.di.utils.DetectionModel;
+import com.ody.di.utils.LabelMap;
+import com.ody.di.utils.MemoryGovernor;
+import com.ody.di.utils.Metrics;
+import com.ody.di.utils.RxSchedulers;
+
+import org.tensorflow.lite.examples.detection.tflite.Detector;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.reactivex.rxjava3.core.Flowable;
+import io.reactivex.rxjava3.core.Maybe;
+import io.reactivex.rxjava3.core.Single;
+
+import static com.ody.di.utils.Constants.MY_APP_PREFERENCES;
+import static com.ody.di.utils.ImageUtils.decodeSampled;
+import static com.ody.di.utils.ImageUtils.readBounds;
+import static com.ody.di.utils.ImageUtils.scaleRecognitions;
+
+/**
+ * Analyzes stored images again once the bundled {@link DetectionModel} has changed, so the whole
+ * history reflects the current model. Outdated analyses are those recorded with another model ID,
+ * version or options; images that have the detections drawn in are left as they are.
+ *
+ * <p>Rows are walked in chunks of {@value #CHUNK_SIZE} by serial number. Each image is decoded on
+ * the I/O pool and analyzed on the inference pool, one at a time, and the results of a chunk are
+ * swapped in with {@link AnalysisDao#replaceDetections(List)} in one transaction, so the history
+ * never shows a row half updated. The position is checkpointed after every chunk, together with
+ * the model signature it belongs to, so an interrupted pass resumes where it stopped and a new
+ * model starts a new pass.</p>
+ *
+ * <p>The pass yields to the user and the battery: chunks follow each other at once while the device
+ * charges, with a pause while it is idle on battery and a longer one while it is in use. Below
+ * {@value #MIN_BATTERY_PERCENT}% on battery the pass stops and resumes on a later start. Each image
+ * also waits while the {@link MemoryGovernor} reports memory pressure.</p>
+ *
+ * @author Debidutt Prasad
+ */
+public class Reanalysis {
+
+    private static final String TAG = "Reanalysis";
+
+    // Constants related to SharedPreferences.
+    static final String REANALYSIS_MODEL = "ReanalysisModel";
+    static final String REANALYSIS_CURSOR = "ReanalysisCursor";
+
+    private static final int CHUNK_SIZE = 20;
+
+    /**
+     * Pause before each chunk while on battery with the screen off or the device dozing.
+     */
+    private static final long IDLE_PAUSE_MS = 2_000;
+
+    /**
+     * Pause before each chunk while on battery and in use.
+     */
+    private static final long INTERACTIVE_PAUSE_MS = 10_000;
+
+    /**
+     * Battery level on battery below which the pass stops.
+     */
+    private static final int MIN_BATTERY_PERCENT = 30;
+
+    private static volatile Reanalysis INSTANCE;
+
+    private final Application application;
+    private final AnalysisDao analysisDao;
+    private final AnalysisCache analysisCache;
+    private final DecodedImageCache imageCache;
+    private final LabelMap labelMap;
+    private final File storageDir;
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final AtomicBoolean rewound = new AtomicBoolean();
+
+    // Created by a pass on first use and closed when it ends; only touched on the inference thread.
+    private Detector detector;
+
+    // One chunk of outdated analyses, and the serial number to resume after.
+    private static final class Chunk {
+        final long cursor;
+        final List<AnalysisImageRef> rows;
+
+        Chunk(long cursor, List<AnalysisImageRef> rows) {
+            this.cursor = cursor;
+            this.rows = rows;
+        }
+    }
+
+    private Reanalysis(Application application) {
+        this.application = application;
+        this.analysisDao = AnalysisDatabase.getDatabase(application).analysisDao();
+        this.analysisCache = AnalysisCache.getInstance(application);
+        this.imageCache = DecodedImageCache.getInstance(application);
+        this.labelMap = LabelMap.getInstance(application);
+        this.storageDir = application.getExternalFilesDir(Environment.DIRECTORY_PICTURES);
+    }
+
+    /**
+     * Retrieves the process-wide re-analysis, creating it on first use.
+     *
+     * @param application The application used to reach the database, images and device state.
+     * @return The singleton re-analysis.
+     */
+    public static Reanalysis getInstance(Application application) {
+        if (INSTANCE == null) {
+            synchronized (Reanalysis.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new Reanalysis(application);
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Starts or resumes the pass for the current model in the background, unless it is running or
+     * already completed. Cheap once completed.
+     */
+    public void runIfNeeded() {
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+        int[] total = new int[1];
+        Flowable.<Chunk, Long>generate(this::startCursor, (cursor, emitter) -> {
+                    List<AnalysisImageRef> rows = analysisDao.getOutdatedAnalyses(cursor, DetectionModel.ID,
+                            DetectionModel.VERSION, DetectionModel.OPTIONS, CHUNK_SIZE);
+                    if (rows.isEmpty()) {
+                        emitter.onComplete();
+                        return cursor;
+                    }
+                    emitter.onNext(new Chunk(rows.get(rows.size() - 1).serialNumber, rows));
+                    return rows.get(rows.size() - 1).serialNumber;
+                })
+                .subscribeOn(RxSchedulers.database())
+                .takeWhile(chunk -> batteryAllows())
+                .concatMapSingle(chunk -> reanalyze(chunk)
+                        .delaySubscription(pauseBeforeChunk(), TimeUnit.MILLISECONDS, RxSchedulers.io()), 1)
+                .doFinally(this::finishPass)
+                .subscribe(updated -> total[0] += updated,
+                        error -> Log.e(TAG, "run: stopped, will resume on next start", error),
+                        () -> Log.d(TAG, "run: " + total[0] + " analyses updated to " + DetectionModel.SIGNATURE));
+    }
+
+    /**
+     * Starts the pass over from the first analysis, e.g. after rows made by another model were
+     * imported. A running pass finishes first.
+     */
+    public void rewind() {
+        rewound.set(true);
+        AppExecutors.getInstance().database().execute(this::runIfNeeded);
+    }
+
+    /**
+     * Returns where the pass resumes: the checkpoint if it belongs to the current model and no
+     * rewind was asked for, otherwise the first analysis. Completed passes leave the cursor at the
+     * last analysis.
+     */
+    private long startCursor() {
+        SharedPreferences preferences = preferences();
+        if (rewound.getAndSet(false)
+                || !DetectionModel.SIGNATURE.equals(preferences.getString(REANALYSIS_MODEL, null))) {
+            preferences.edit().putString(REANALYSIS_MODEL, DetectionModel.SIGNATURE).remove(REANALYSIS_CURSOR).commit();
+            return 0;
+        }
+        return preferences.getLong(REANALYSIS_CURSOR, 0);
+    }
+
+    /**
+     * Analyzes the images of a chunk one at a time, swaps the results in and checkpoints the chunk.
+     *
+     * @return The number of analyses updated.
+     */
+    private Single<Integer> reanalyze(Chunk chunk) {
+        return Flowable.fromIterable(chunk.rows)
+                .concatMapMaybe(row -> MemoryGovernor.getInstance(application)
+                        .deferWhileUnderPressure("reanalysis of " + row.serialNumber)
+                        .andThen(Maybe.defer(() -> analyze(row))))
+                .toList()
+                .observeOn(RxSchedulers.database())
+                .map(analyses -> {
+                    List<Long> updated;
+                    try (Metrics.Span ignored = Metrics.getInstance().span("db.replaceDetections")) {
+                        updated = analyses.isEmpty() ? Collections.<Long>emptyList()
+                                : analysisDao.replaceDetections(analyses);
+                    }
+                    for (Long serialNumber : updated) {
+                        analysisCache.invalidate(serialNumber);
+                    }
+                    preferences().edit().putLong(REANALYSIS_CURSOR, chunk.cursor).commit();
+                    return updated.size();
+                });
+    }
+
+    /**
+     * Analyzes one stored image. Completes empty if the image can't be read, leaving the row as is.
+     */
+    private Maybe<Analysis> analyze(AnalysisImageRef row) {
+        Uri imageUri = Uri.fromFile(new File(storageDir, row.imageReference));
+        long start = SystemClock.elapsedRealtime();
+        long[] decodeMs = new long[1];
+        int[] storedWidth = new int[1];
+        return Single.fromCallable(() -> {
+                    storedWidth[0] = readBounds(application, imageUri).outWidth;
+                    return decodeSampled(application, imageUri, imageCache.screenSize(), false);
+                })
+                .subscribeOn(RxSchedulers.io())
+                .doOnSuccess(image -> decodeMs[0] = SystemClock.elapsedRealtime() - start)
+                .observeOn(RxSchedulers.inference())
+                .map(image -> {
+                    Detector detector = detector();
+                    long inferenceStart = SystemClock.elapsedRealtime();
+                    // Under memory pressure the image may be decoded smaller than stored; keep the stored pixels.
+                    List<Detector.Recognition> recognitions = scaleRecognitions(detector.recognizeImage(image),
+                            (float) storedWidth[0] / image.getWidth());
+                    long end = SystemClock.elapsedRealtime();
+                    Analysis analysis = new Analysis();
+                    analysis.serialNumber = row.serialNumber;
+                    analysis.imageReference = row.imageReference;
+                    DetectionArrays arrays = DetectionMapper.toArrays(recognitions, labelMap);
+                    analysis.detections = DetectionCodec.encode(arrays);
+                    analysis.labels = DetectionMapper.labelsOf(arrays, labelMap);
+                    DetectionModel.stamp(analysis);
+                    new AnalysisTiming(image, decodeMs[0], end - inferenceStart, end - start).applyTo(analysis);
+                    return analysis;
+                })
+                .toMaybe()
+                .onErrorResumeNext(error -> {
+                    Log.w(TAG, "analyze: skipping analysis " + row.serialNumber, error);
+                    return Maybe.empty();
+                });
+    }
+
+    /**
+     * Ends a pass: closes its detector and starts another pass if a rewind was asked for meanwhile.
+     */
+    private void finishPass() {
+        AppExecutors.getInstance().inference().execute(() -> {
+            if (detector != null) {
+                detector.close();
+                detector = null;
+            }
+        });
+        running.set(false);
+        if (rewound.get()) {
+            runIfNeeded();
+        }
+    }
+
+    private Detector detector() throws IOException {
+        if (detector == null) {
+            detector = DetectionModel.create(application);
+        }
+        return detector;
+    }
+
+    /**
+     * Returns the pause before the next chunk: none while charging, longer while the user is
+     * using the device than while it is idle.
+     */
+    private long pauseBeforeChunk() {
+        if (isCharging()) {
+            return 0;
+        }
+        PowerManager powerManager = (PowerManager) application.getSystemService(Context.POWER_SERVICE);
+        boolean idle = powerManager == null || !powerManager.isInteractive() || powerManager.isDeviceIdleMode();
+        return idle ? IDLE_PAUSE_MS : INTERACTIVE_PAUSE_MS;
+    }
+
+    private boolean batteryAllows() {
+        if (isCharging()) {
+            return true;
+        }
+        BatteryManager batteryManager = (BatteryManager) application.getSystemService(Context.BATTERY_SERVICE);
+        int percent = batteryManager == null ? 100 : batteryManager.getIntProperty(BatteryManager.BATTERY_PROPERTY_CAPACITY);
+        if (percent < MIN_BATTERY_PERCENT) {
+            Log.d(TAG, "run: pausing at " + percent + "% battery");
+            return false;
+        }
+        return true;
+    }
+
+    private boolean isCharging() {
+        // Sticky broadcast: returns the current state without registering a receiver.
+        Intent battery = application.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        int status = battery == null ? -1 : battery.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
+        return status == BatteryManager.BATTERY_STATUS_CHARGING || status == BatteryManager.BATTERY_STATUS_FULL;
+    }
+
+    private SharedPreferences preferences() {
+        return application.getSharedPreferences(MY_APP_PREFERENCES, Context.MODE_PRIVATE);
+    }
+}
@@ -0,0 +1,88 @@
+package com.ody.di.repository;
+
+import android.app.Application;
+import android.icu.text.SimpleDateFormat;
+
+import com.ody.di.database.AnalysisDao;
+import com.ody.di.database.AnalysisDatabase;
+import com.ody.di.database.ImportJobDao;
+
+import java.text.ParseException;
+import java.util.Date;
+import java.util.Locale;
+
+import static com.ody.di.utils.Constants.YYYYMMDDHHMMSS;
+
+/**
+ * Hands out the serial numbers of new analyses. A serial number is the {@code yyyyMMddHHmmss} time
+ * of the analysis; when several analyses start within the same second, each gets the next second,
+ * so every serial number stays a valid time and none is handed out twice.
+ *
+ * <p>Camera saves and gallery imports both allocate here. The allocator starts after the highest
+ * serial number stored or reserved by an import job, so serial numbers also stay unique across
+ * restarts and across clock changes.</p>
+ *
+ * @author Debidutt Prasad
+ */
+public class SerialNumberAllocator {
+
+    private static volatile SerialNumberAllocator INSTANCE;
+
+    private final AnalysisDao analysisDao;
+    private final ImportJobDao importJobDao;
+
+    // Last serial number handed out, or -1 until seeded from the database; guarded by this.
+    private long lastSerialNumber = -1;
+
+    private SerialNumberAllocator(Application application) {
+        AnalysisDatabase database = AnalysisDatabase.getDatabase(application);
+        this.analysisDao = database.analysisDao();
+        this.importJobDao = database.importJobDao();
+    }
+
+    /**
+     * Retrieves the process-wide allocator, creating it on first use.
+     *
+     * @param application The application used to reach the database.
+     * @return The singleton allocator.
+     */
+    public static SerialNumberAllocator getInstance(Application application) {
+        if (INSTANCE == null) {
+            synchronized (SerialNumberAllocator.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new SerialNumberAllocator(application);
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Allocates the serial number of a new analysis: the current time, or one second after the last
+     * serial number handed out if that is later. The first call reads the database, so call it off
+     * the main thread.
+     *
+     * @return The serial number.
+     */
+    public synchronized long next() {
+        if (lastSerialNumber < 0) {
+            lastSerialNumber = Math.max(analysisDao.getMaxSerialNumber(), importJobDao.getMaxReservedSerialNumber());
+        }
+        SimpleDateFormat format = new SimpleDateFormat(YYYYMMDDHHMMSS, Locale.getDefault());
+        long time = System.currentTimeMillis();
+        if (lastSerialNumber > 0) {
+            try {
+                time = Math.max(time, format.parse(String.valueOf(lastSerialNumber)).getTime() + 1000);
+            } catch (ParseException e) {
+                // Not a time, e.g. from an old archive; the clock alone decides.
+            }
+        }
+        long serialNumber = Long.parseLong(format.format(new Date(time)));
+        if (serialNumber <= lastSerialNumber) {
+            // Unparseable and ahead of the clock: stay unique even if not a valid time.
+            serialNumber = lastSerialNumber + 1;
+        }
+        lastSerialNumber = serialNumber;
+        return serialNumber;
+    }
+}
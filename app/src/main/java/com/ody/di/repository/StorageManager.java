@@ -0,0 +1,319 @@
+package com.ody.di.repository;
+
+import android.app.Application;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Environment;
+import android.util.Log;
+
+import com.ody.di.database.AnalysisDao;
+import com.ody.di.database.AnalysisDatabase;
+import com.ody.di.database.AnalysisImageRef;
+import com.ody.di.utils.AppExecutors;
+import com.ody.di.utils.Constants;
+import com.ody.di.utils.SerialExecutor;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static com.ody.di.utils.Constants.MY_APP_PREFERENCES;
+
+/**
+ * Keeps the app's pictures directory within a byte budget and consistent with the database.
+ *
+ * <p>Two kinds of maintenance run on a dedicated background thread:</p>
+ * <ul>
+ *     <li>Budget enforcement evicts images that no analysis references, least recently viewed
+ *     first, until the directory fits the configured budget. Images of saved analyses are never
+ *     evicted.</li>
+ *     <li>Reconciliation walks the files and the rows in chunks, deleting files that no row
+ *     references and flagging rows whose file is gone. Progress is checkpointed in
+ *     SharedPreferences after each chunk, so an interrupted pass resumes where it stopped.</li>
+ * </ul>
+ *
+ * @author Debidutt Prasad
+ */
+public class StorageManager {
+
+    private static final String TAG = "StorageManager";
+
+    // Constants related to SharedPreferences.
+    static final String STORAGE_BUDGET_BYTES = "StorageBudgetBytes";
+    static final String RECONCILE_FILE_CURSOR = "ReconcileFileCursor";
+    static final String RECONCILE_ROW_CURSOR = "ReconcileRowCursor";
+
+    /**
+     * Number of files or rows handled between two checkpoints. Also keeps IN (...) lists well below
+     * SQLite's bound variable limit.
+     */
+    private static final int CHUNK_SIZE = 200;
+
+    /**
+     * Captures without a row younger than this may still be waiting to be analysed, so
+     * reconciliation leaves them alone. Budget enforcement may still evict them.
+     */
+    private static final long CAPTURE_GRACE_MS = TimeUnit.HOURS.toMillis(24);
+
+    private static final String CAPTURE_PREFIX = "JPEG_";
+
+    private static volatile StorageManager INSTANCE;
+
+    private final Application application;
+    private final AnalysisDao analysisDao;
+    private final Executor maintenance = new SerialExecutor(AppExecutors.getInstance().io());
+
+    private StorageManager(Application application) {
+        this.application = application;
+        this.analysisDao = AnalysisDatabase.getDatabase(application).analysisDao();
+    }
+
+    /**
+     * Retrieves the process-wide storage manager, creating it on first use.
+     *
+     * @param application The application used to reach the database, preferences and storage.
+     * @return The singleton storage manager.
+     */
+    public static StorageManager getInstance(Application application) {
+        if (INSTANCE == null) {
+            synchronized (StorageManager.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new StorageManager(application);
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the configured byte budget for the pictures directory.
+     *
+     * @return The budget in bytes.
+     */
+    public long getBudgetBytes() {
+        return preferences().getLong(STORAGE_BUDGET_BYTES, Constants.DEFAULT_STORAGE_BUDGET_BYTES);
+    }
+
+    /**
+     * Changes the byte budget and enforces it in the background.
+     *
+     * @param budgetBytes The new budget in bytes.
+     */
+    public void setBudgetBytes(long budgetBytes) {
+        preferences().edit().putLong(STORAGE_BUDGET_BYTES, budgetBytes).apply();
+        maintenance.execute(this::enforceBudget);
+    }
+
+    /**
+     * Records that an image was just viewed, which moves it to the back of the eviction order.
+     *
+     * @param file The image file that was viewed.
+     */
+    public void markViewed(File file) {
+        maintenance.execute(() -> {
+            if (file.exists() && !file.setLastModified(System.currentTimeMillis())) {
+                Log.d(TAG, "markViewed: could not touch " + file.getName());
+            }
+        });
+    }
+
+    /**
+     * Enforces the budget in the background. Call after new images were written.
+     */
+    public void enforceBudgetAsync() {
+        maintenance.execute(this::enforceBudget);
+    }
+
+    /**
+     * Enforces the budget and then continues (or starts) a reconciliation pass in the background.
+     */
+    public void runMaintenance() {
+        maintenance.execute(() -> {
+            enforceBudget();
+            reconcileFiles();
+            reconcileRows();
+        });
+    }
+
+    /**
+     * Deletes unreferenced images, least recently viewed first, until the directory fits the budget.
+     */
+    private void enforceBudget() {
+        File[] files = listImages();
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        long budget = getBudgetBytes();
+        if (total <= budget) {
+            return;
+        }
+
+        List<File> candidates = new ArrayList<>();
+        String currentCapture = currentCaptureName();
+        for (List<File> chunk : chunks(Arrays.asList(files))) {
+            Set<String> referenced = referencedNames(chunk);
+            for (File file : chunk) {
+                if (!referenced.contains(file.getName()) && !file.getName().equals(currentCapture)) {
+                    candidates.add(file);
+                }
+            }
+        }
+        candidates.sort(Comparator.comparingLong(File::lastModified));
+
+        int next = 0;
+        while (total > budget && next < candidates.size()) {
+            // Releases just enough files to fit, then counts only what was actually deleted: a save
+            // may have referenced one of them again in the meantime.
+            List<String> released = new ArrayList<>();
+            long releasedBytes = 0;
+            while (total - releasedBytes > budget && next < candidates.size()) {
+                File file = candidates.get(next++);
+                long size = file.length();
+                if (!file.getName().startsWith(CAPTURE_PREFIX)) {
+                    released.add(file.getName());
+                    releasedBytes += size;
+                } else if (file.delete()) {
+                    total -= size;
+                }
+            }
+            total -= AnalysisWriteQueue.getInstance(application).releaseAllAndWait(released);
+        }
+        if (total > budget) {
+            Log.w(TAG, "enforceBudget: saved analyses alone use " + total + " bytes, budget is " + budget);
+        }
+    }
+
+    /**
+     * Deletes files that no analysis references, resuming after the last checkpointed file name.
+     */
+    private void reconcileFiles() {
+        File[] files = listImages();
+        Arrays.sort(files, Comparator.comparing(File::getName));
+        String cursor = preferences().getString(RECONCILE_FILE_CURSOR, "");
+        String currentCapture = currentCaptureName();
+        long captureCutoff = System.currentTimeMillis() - CAPTURE_GRACE_MS;
+
+        List<File> remaining = new ArrayList<>();
+        for (File file : files) {
+            if (file.getName().compareTo(cursor) > 0) {
+                remaining.add(file);
+            }
+        }
+        for (List<File> chunk : chunks(remaining)) {
+            Set<String> referenced = referencedNames(chunk);
+            for (File file : chunk) {
+                String name = file.getName();
+                boolean freshCapture = name.startsWith(CAPTURE_PREFIX) && file.lastModified() > captureCutoff;
+                if (!referenced.contains(name) && !name.equals(currentCapture) && !freshCapture && !delete(file)) {
+                    Log.w(TAG, "reconcileFiles: could not delete " + name);
+                }
+            }
+            preferences().edit().putString(RECONCILE_FILE_CURSOR, chunk.get(chunk.size() - 1).getName()).commit();
+        }
+        preferences().edit().remove(RECONCILE_FILE_CURSOR).commit();
+    }
+
+    /**
+     * Flags rows whose image file is missing (and clears the flag when it reappears), resuming after
+     * the last checkpointed serial number. An image that is still being published counts as present.
+     */
+    private void reconcileRows() {
+        File storageDir = application.getExternalFilesDir(Environment.DIRECTORY_PICTURES);
+        long cursor = preferences().getLong(RECONCILE_ROW_CURSOR, 0);
+        List<AnalysisImageRef> chunk;
+        while (!(chunk = analysisDao.getImageRefsAfter(cursor, CHUNK_SIZE)).isEmpty()) {
+            List<Long> nowMissing = new ArrayList<>();
+            List<Long> nowPresent = new ArrayList<>();
+            for (AnalysisImageRef ref : chunk) {
+                boolean exists = imageExists(storageDir, ref.imageReference);
+                if (!exists && !ref.imageMissing) {
+                    nowMissing.add(ref.serialNumber);
+                } else if (exists && ref.imageMissing) {
+                    nowPresent.add(ref.serialNumber);
+                }
+            }
+            if (!nowMissing.isEmpty()) {
+                analysisDao.setImageMissing(nowMissing, true);
+            }
+            if (!nowPresent.isEmpty()) {
+                analysisDao.setImageMissing(nowPresent, false);
+            }
+            cursor = chunk.get(chunk.size() - 1).serialNumber;
+            preferences().edit().putLong(RECONCILE_ROW_CURSOR, cursor).commit();
+        }
+        preferences().edit().remove(RECONCILE_ROW_CURSOR).commit();
+    }
+
+    /**
+     * Checks whether the image of a row is on disk. Rows are committed before their image gets its
+     * final name, so a file still under the {@link AnalysisWriteQueue} or {@link HistoryArchive}
+     * staging name counts as present. The staging names are checked first: if the rename happens
+     * in between, the final file is already there when it is checked.
+     */
+    private static boolean imageExists(File storageDir, String imageReference) {
+        return new File(storageDir, imageReference + AnalysisWriteQueue.PENDING_SUFFIX).exists()
+                || new File(storageDir, imageReference + HistoryArchive.IMPORT_SUFFIX).exists()
+                || new File(storageDir, imageReference).exists();
+    }
+
+    /**
+     * Lists the images in the pictures directory, leaving out files still owned by the
+     * {@link AnalysisWriteQueue} or an import of the {@link HistoryArchive}.
+     */
+    private File[] listImages() {
+        File storageDir = application.getExternalFilesDir(Environment.DIRECTORY_PICTURES);
+        File[] files = storageDir == null ? null
+                : storageDir.listFiles(file -> file.isFile()
+                && !file.getName().endsWith(AnalysisWriteQueue.PENDING_SUFFIX)
+                && !file.getName().endsWith(ImageStore.TEMP_SUFFIX)
+                && !file.getName().endsWith(HistoryArchive.IMPORT_SUFFIX));
+        return files == null ? new File[0] : files;
+    }
+
+    /**
+     * Deletes an unreferenced image. Captures are never referenced by a row and go directly; any
+     * other image is released through the {@link AnalysisWriteQueue}, which re-checks the reference
+     * count on its own thread so a save sharing the same content cannot lose its file.
+     *
+     * @return False if a capture could not be deleted; a release is queued and counts as done.
+     */
+    private boolean delete(File file) {
+        if (file.getName().startsWith(CAPTURE_PREFIX)) {
+            return file.delete();
+        }
+        AnalysisWriteQueue.getInstance(application).release(file.getName());
+        return true;
+    }
+
+    private Set<String> referencedNames(List<File> files) {
+        List<String> names = new ArrayList<>(files.size());
+        for (File file : files) {
+            names.add(file.getName());
+        }
+        return new HashSet<>(analysisDao.findReferencedImages(names));
+    }
+
+    private String currentCaptureName() {
+        String path = preferences().getString(ImageRepository.IMAGE_CAPTURED_PATH, null);
+        return path == null ? null : new File(path).getName();
+    }
+
+    private SharedPreferences preferences() {
+        return application.getSharedPreferences(MY_APP_PREFERENCES, Context.MODE_PRIVATE);
+    }
+
+    private static <T> List<List<T>> chunks(List<T> items) {
+        List<List<T>> chunks = new ArrayList<>();
+        for (int start = 0; start < items.size(); start += CHUNK_SIZE) {
+            chunks.add(items.subList(start, Math.min(items.size(), start + CHUNK_SIZE)));
+        }
+        return chunks;
+    }
+}
@@ -1,42 +1,82 @@
 package com.ody.di.ui;
 
+import android.icu.text.SimpleDateFormat;
 import android.os.Bundle;
-import android.os.Environment;
 import android.util.Pair;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
 import android.widget.ProgressBar;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.integration.recyclerview.RecyclerViewPreloader;
+import com.bumptech.glide.util.FixedPreloadSizeProvider;
 import com.ody.di.R;
-import com.ody.di.database.entities.Analysis;
+import com.ody.di.database.ImportProgress;
+import com.ody.di.repository.AnalysisHistoryPager;
 import com.ody.di.ui.adapter.AnalysesGridAdapter;
+import com.ody.di.ui.model.AnalysesModel;
 import com.ody.di.utils.Constants;
 import com.ody.di.utils.NavigationUtils;
 import com.ody.di.viewmodel.AnalysesViewModel;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
 
-import java.io.File;
-import java.util.List;
+import java.util.Date;
+import java.util.Locale;
 
+import androidx.activity.result.ActivityResultLauncher;
+import androidx.activity.result.contract.ActivityResultContracts;
+import androidx.appcompat.view.ActionMode;
+import androidx.appcompat.widget.SearchView;
 import androidx.lifecycle.ViewModelProvider;
 import androidx.recyclerview.widget.GridLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import static com.ody.di.utils.Constants.ORIGIN_ANALYSES_ACTIVITY;
+import static com.ody.di.utils.Constants.YYYYMMDDHHMMSS;
 
 /**
  * Represents the activity that displays the analyses history.
  * Users can view past analyses and navigate to individual analysis details.
  * It also provides a floating action button to navigate back to the welcome activity.
+ * The search field filters the history by detected labels and notes.
+ * The options menu imports images from the gallery, and exports the history to a ZIP archive or
+ * imports one. Imported images are analyzed in the background while a progress bar is shown.
+ * Long pressing an analysis starts a selection mode in which several analyses can be deleted at once.
  *
  * @author Debidutt Prasad
  */
 public class AnalysesActivity extends BaseActivity {
 
+    // Images preloaded ahead of the scroll direction: three screens of the two-column grid.
+    private static final int PRELOAD_ITEMS = 24;
+
     private AnalysesViewModel analysesViewModel;
+    private AnalysesGridAdapter analysesGridAdapter;
     private long backPressedTime;
     private Toast backToast;
+    private ActionMode selectionMode;
+    private boolean searching;
+    private boolean importing;
+
+    private final ActivityResultLauncher<String> exportLauncher = registerForActivityResult(
+            new ActivityResultContracts.CreateDocument("application/zip"), uri -> {
+                if (uri != null) {
+                    analysesViewModel.exportHistory(uri);
+                }
+            });
+
+    private final ActivityResultLauncher<String[]> imagesLauncher = registerForActivityResult(
+            new ActivityResultContracts.OpenMultipleDocuments(), uris -> analysesViewModel.importImages(uris));
+
+    private final ActivityResultLauncher<String[]> importLauncher = registerForActivityResult(
+            new ActivityResultContracts.OpenDocument(), uri -> {
+                if (uri != null) {
+                    analysesViewModel.importHistory(uri);
+                }
+            });
 
     /**
      * Called when the activity is starting.
@@ -67,9 +107,152 @@ public class AnalysesActivity extends BaseActivity {
 
         analysesViewModel = new ViewModelProvider(this).get(AnalysesViewModel.class);
 
-        analysesViewModel.getAnalyses().observe(this, analyses -> updateUIBasedOnAnalyses(analyses, textViewAnalysesStatus, gridViewAnalyses, progressBar));
+        analysesGridAdapter = new AnalysesGridAdapter(this);
+        analysesGridAdapter.setOnItemClickListener(position -> {
+            if (selectionMode != null) {
+                toggleSelection(position);
+                return;
+            }
+            AnalysesModel model = analysesGridAdapter.getItem(position);
+            if (model != null) {
+                navigateToAnalysisActivity(model.getSerialNumber());
+            }
+        });
+        analysesGridAdapter.setOnItemLongClickListener(position -> {
+            if (selectionMode == null) {
+                selectionMode = startSupportActionMode(selectionModeCallback);
+            }
+            toggleSelection(position);
+        });
+        analysesGridAdapter.setOnPositionBoundListener(analysesViewModel::onPositionBound);
+        gridViewAnalyses.setAdapter(analysesGridAdapter);
+        int thumbnailSize = analysesGridAdapter.getThumbnailSize();
+        gridViewAnalyses.addOnScrollListener(new RecyclerViewPreloader<>(Glide.with(this), analysesGridAdapter,
+                new FixedPreloadSizeProvider<>(thumbnailSize, thumbnailSize), PRELOAD_ITEMS));
+
+        SearchView searchView = findViewById(R.id.search_view_history);
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                searchView.clearFocus();
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                searching = !newText.trim().isEmpty();
+                analysesViewModel.search(newText);
+                return true;
+            }
+        });
+
+        analysesViewModel.getHistory().observe(this, history -> updateUIBasedOnAnalyses(history, textViewAnalysesStatus, gridViewAnalyses, progressBar));
+        analysesViewModel.getArchiveResult().observe(this, result -> Toast.makeText(this,
+                getString(result.export ? R.string.export_finished : R.string.import_finished,
+                        result.analyses, result.getMegabytes(), result.getMegabytesPerSecond()),
+                Toast.LENGTH_LONG).show());
+        analysesViewModel.getArchiveFailed().observe(this, failed -> {
+            if (failed) {
+                Toast.makeText(this, R.string.archive_failed, Toast.LENGTH_LONG).show();
+            }
+        });
+        analysesViewModel.getImportProgress().observe(this, this::showImportProgress);
+        analysesViewModel.getDeletedCount().observe(this, count -> Toast.makeText(this,
+                getResources().getQuantityString(R.plurals.analyses_deleted, count, count), Toast.LENGTH_SHORT).show());
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.menu_analyses, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == R.id.action_import_images) {
+            imagesLauncher.launch(new String[]{"image/*"});
+            return true;
+        } else if (item.getItemId() == R.id.action_export_history) {
+            String timestamp = new SimpleDateFormat(YYYYMMDDHHMMSS, Locale.getDefault()).format(new Date());
+            exportLauncher.launch("ody-history-" + timestamp + ".zip");
+            return true;
+        } else if (item.getItemId() == R.id.action_import_history) {
+            importLauncher.launch(new String[]{"application/zip"});
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
     }
 
+    /**
+     * Shows the progress of the gallery import while it runs, and a summary once it finishes.
+     *
+     * @param progress The progress of the current import batch.
+     */
+    private void showImportProgress(ImportProgress progress) {
+        TextView textViewImportProgress = findViewById(R.id.text_view_import_progress);
+        ProgressBar progressImport = findViewById(R.id.progress_import);
+        boolean running = progress.total > 0 && !progress.isFinished();
+        textViewImportProgress.setVisibility(running ? View.VISIBLE : View.GONE);
+        progressImport.setVisibility(running ? View.VISIBLE : View.GONE);
+        if (running) {
+            int finished = progress.done + progress.failed;
+            textViewImportProgress.setText(getString(R.string.import_progress, finished, progress.total));
+            progressImport.setMax(progress.total);
+            progressImport.setProgress(finished);
+        } else if (importing && progress.total > 0) {
+            Toast.makeText(this, getString(R.string.import_images_finished, progress.done, progress.failed),
+                    Toast.LENGTH_LONG).show();
+        }
+        importing = running;
+    }
+
+    /**
+     * Toggles the selection of an item and ends the selection mode once nothing is selected.
+     *
+     * @param position The adapter position of the item.
+     */
+    private void toggleSelection(int position) {
+        analysesGridAdapter.toggleSelection(position);
+        int selected = analysesGridAdapter.getSelectedSerialNumbers().size();
+        if (selected == 0) {
+            selectionMode.finish();
+        } else {
+            selectionMode.setTitle(getString(R.string.selected_count, selected));
+        }
+    }
+
+    /**
+     * Contextual action bar of the selection mode, offering to delete the selected analyses.
+     */
+    private final ActionMode.Callback selectionModeCallback = new ActionMode.Callback() {
+        @Override
+        public boolean onCreateActionMode(ActionMode mode, Menu menu) {
+            mode.getMenuInflater().inflate(R.menu.menu_analyses_selection, menu);
+            return true;
+        }
+
+        @Override
+        public boolean onPrepareActionMode(ActionMode mode, Menu menu) {
+            return false;
+        }
+
+        @Override
+        public boolean onActionItemClicked(ActionMode mode, MenuItem item) {
+            if (item.getItemId() == R.id.action_delete_selected) {
+                analysesViewModel.deleteAnalyses(analysesGridAdapter.getSelectedSerialNumbers());
+                mode.finish();
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public void onDestroyActionMode(ActionMode mode) {
+            analysesGridAdapter.clearSelection();
+            selectionMode = null;
+        }
+    };
+
     /**
      * Sets up the GridView for displaying analyses.
      *
@@ -79,6 +262,8 @@ public class AnalysesActivity extends BaseActivity {
         RecyclerView gridViewAnalyses = findViewById(R.id.grid_view_history);
         GridLayoutManager gridLayoutManager = new GridLayoutManager(this, 2);
         gridViewAnalyses.setLayoutManager(gridLayoutManager);
+        // The grid's size doesn't depend on its contents, so item changes don't request a layout of the screen.
+        gridViewAnalyses.setHasFixedSize(true);
         return gridViewAnalyses;
     }
 
@@ -95,36 +280,32 @@ public class AnalysesActivity extends BaseActivity {
     }
 
     /**
-     * Updates the UI components based on the provided analyses.
+     * Updates the UI components based on the provided history snapshot.
      *
-     * @param analyses               List of analysis to display.
+     * @param history                Loaded rows and total count of the history.
      * @param textViewAnalysesStatus TextView to display the analysis status.
      * @param gridViewAnalyses       GridView to display the analyses.
      * @param progressBar            ProgressBar indicating the loading state.
      */
-    private void updateUIBasedOnAnalyses(List<Analysis> analyses, TextView textViewAnalysesStatus, RecyclerView gridViewAnalyses, ProgressBar progressBar) {
-        if (analyses.isEmpty()) {
+    private void updateUIBasedOnAnalyses(AnalysisHistoryPager.Snapshot<AnalysesModel> history, TextView textViewAnalysesStatus, RecyclerView gridViewAnalyses, ProgressBar progressBar) {
+        if (history.totalCount == 0) {
             displayNoAnalysisHistory(textViewAnalysesStatus, gridViewAnalyses, progressBar);
         } else {
-            displayAnalysisHistory(analyses, textViewAnalysesStatus, gridViewAnalyses, progressBar);
+            displayAnalysisHistory(history, textViewAnalysesStatus, gridViewAnalyses, progressBar);
         }
     }
 
     private void displayNoAnalysisHistory(TextView textViewAnalysesStatus, RecyclerView gridViewAnalyses, ProgressBar progressBar) {
-        textViewAnalysesStatus.setText(R.string.no_analysis_history);
+        textViewAnalysesStatus.setText(searching ? R.string.no_search_results : R.string.no_analysis_history);
         gridViewAnalyses.setVisibility(View.GONE);
         progressBar.setVisibility(View.GONE);
     }
 
-    private void displayAnalysisHistory(List<Analysis> analyses, TextView textViewAnalysesStatus, RecyclerView gridViewAnalyses, ProgressBar progressBar) {
+    private void displayAnalysisHistory(AnalysisHistoryPager.Snapshot<AnalysesModel> history, TextView textViewAnalysesStatus, RecyclerView gridViewAnalyses, ProgressBar progressBar) {
         textViewAnalysesStatus.setText(R.string.analysis_history);
-        File storageDir = getExternalFilesDir(Environment.DIRECTORY_PICTURES);
-        AnalysesGridAdapter analysesGridAdapter = new AnalysesGridAdapter(this, analysesViewModel.mapper(analyses, storageDir));
-        analysesGridAdapter.setOnItemClickListener(position -> navigateToAnalysisActivity(analyses.get(position).serialNumber));
-        runOnUiThread(() -> {
-            gridViewAnalyses.setAdapter(analysesGridAdapter);
-            progressBar.setVisibility(View.GONE);
-        });
+        gridViewAnalyses.setVisibility(View.VISIBLE);
+        analysesGridAdapter.submitPage(history.offset, history.loaded, history.totalCount);
+        progressBar.setVisibility(View.GONE);
     }
 
     /**
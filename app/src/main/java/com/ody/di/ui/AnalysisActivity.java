@@ -1,35 +1,30 @@
 package com.ody.di.ui;
 
-import android.graphics.Bitmap;
-import android.graphics.Canvas;
-import android.graphics.Color;
-import android.graphics.Paint;
-import android.icu.text.SimpleDateFormat;
 import android.os.Bundle;
-import android.os.Environment;
 import android.util.Pair;
 import android.view.View;
+import android.view.inputmethod.EditorInfo;
 import android.widget.Button;
-import android.widget.ImageView;
+import android.widget.EditText;
 import android.widget.LinearLayout;
 import android.widget.ProgressBar;
+import android.widget.TextView;
 import android.widget.Toast;
 
 import com.ody.di.R;
 import com.ody.di.repository.AnalysisRepository;
 import com.ody.di.ui.adapter.DetectedObjectsRecyclerAdapter;
+import com.ody.di.ui.view.DetectionOverlayView;
 import com.ody.di.utils.Constants;
-import com.ody.di.utils.ImageUtils;
 import com.ody.di.utils.NavigationUtils;
+import com.ody.di.viewmodel.AnalysisUiState;
 import com.ody.di.viewmodel.AnalysisViewModel;
 import com.ody.di.viewmodel.factory.GenericViewModelFactory;
 
 import org.tensorflow.lite.examples.detection.tflite.Detector;
 
-import java.io.File;
-import java.util.Date;
+import java.util.Collections;
 import java.util.List;
-import java.util.Locale;
 
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.lifecycle.ViewModelProvider;
@@ -37,11 +32,10 @@ import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import static com.ody.di.utils.Constants.ORIGIN_ANALYSES_ACTIVITY;
-import static com.ody.di.utils.Constants.YYYYMMDDHHMMSS;
 
 /**
  * Represents the activity that performs image analysis and displays the results.
- * Users can view detailed analysis, save their analysis, or delete their analysis.
+ * Users can view detailed analysis, save their analysis, annotate it with a note, or delete their analysis.
  *
  * @author Debidutt Prasad
  */
@@ -51,12 +45,13 @@ public class AnalysisActivity extends AppCompatActivity {
     private AnalysisViewModel viewModel;
     AnalysisRepository analysisRepository;
     private long serialNum;
-    private String imageFileName;
-    private Bitmap mutableBmp;
+    private List<Detector.Recognition> shownRecognitions;
     private Button buttonSaveAnalysis;
     private Button buttonDeleteAnalysis;
+    private EditText editTextNote;
     private ProgressBar progressBar;
-    ImageView imageView;
+    private TextView textViewNoObjectsDetected;
+    DetectionOverlayView imageView;
     LinearLayout tableHeader;
     RecyclerView recyclerView;
 
@@ -78,10 +73,12 @@ public class AnalysisActivity extends AppCompatActivity {
     }
 
     /**
-     * Observes data changes in the view model and updates UI accordingly.
+     * Observes data changes in the view model and updates UI accordingly, then asks the view model
+     * for the analysis to show. The view model ignores repeated requests, so a recreated activity
+     * only renders the current state again.
      */
     private void observeViewModel() {
-        viewModel.getImageUri().observe(this, imageView::setImageURI);
+        viewModel.getUiState().observe(this, this::render);
 
         viewModel.getInsertionSuccess().observe(this, status -> {
             if (status) {
@@ -92,29 +89,6 @@ public class AnalysisActivity extends AppCompatActivity {
             }
         });
 
-        viewModel.getDeleteButtonVisibility().observe(this, visibility -> {
-            buttonDeleteAnalysis.setVisibility(View.VISIBLE);
-            buttonSaveAnalysis.setVisibility(View.GONE);
-        });
-
-        viewModel.getDetectedObjects().observe(this, detections -> {
-            progressBar.setVisibility(View.GONE);
-            tableHeader.setVisibility(View.VISIBLE);
-            recyclerView.setVisibility(View.VISIBLE);
-            imageView.setVisibility(View.VISIBLE);
-            buttonSaveAnalysis.setEnabled(true);
-            DetectedObjectsRecyclerAdapter adapter = new DetectedObjectsRecyclerAdapter(detections);
-            recyclerView.setAdapter(adapter);
-
-            buttonSaveAnalysis.setOnClickListener(v -> {
-                buttonSaveAnalysis.setEnabled(false);
-                progressBar.setVisibility(View.VISIBLE);
-                File analysedPhoto = createImageFile();
-                ImageUtils.saveBitmapAsPNG(mutableBmp, analysedPhoto);
-                viewModel.saveAnalysis(detections, imageFileName);
-            });
-        });
-
         viewModel.getDeletionSuccess().observe(this, result -> {
             if (result) {
                 Toast.makeText(this, "Record deletion successfully!", Toast.LENGTH_SHORT).show();
@@ -127,62 +101,56 @@ public class AnalysisActivity extends AppCompatActivity {
         Bundle bundle = getIntent().getExtras();
         if (bundle != null) {
             String serialNumber = bundle.getString(Constants.SERIAL_NUMBER);
-            serialNum = Long.parseLong(serialNumber);
-            viewModel.fetchAnalysis(serialNum);
+            viewModel.loadAnalysis(Long.parseLong(serialNumber));
         } else {
-            viewModel.initializeDetector();
-
-            viewModel.getIsDetectorInitialized().observe(this, isInitialized -> {
-                if (isInitialized) {
-                    viewModel.checkSavedImagePath();
-                    viewModel.getImageUri().observe(this, uri -> {
-                        if (uri != null) {
-                            viewModel.doInference(uri);
-                            viewModel.getDetectedObjects().observe(this, objects -> {
-                                if (objects.isEmpty()) {
-                                    progressBar.setVisibility(View.GONE);
-                                    recyclerView.setVisibility(View.GONE);
-                                    tableHeader.setVisibility(View.GONE);
-                                } else {
-                                    mutableBmp = viewModel.getProcessedImage().getValue().copy(Bitmap.Config.ARGB_8888, true);
-                                    final Canvas canvas = new Canvas(mutableBmp);
-                                    Paint p = new Paint();
-                                    p.setColor(Color.RED);
-                                    p.setStyle(Paint.Style.STROKE);
-                                    p.setStrokeWidth(mutableBmp.getWidth() / 95);
-
-                                    Paint paintText = new Paint();
-                                    paintText.setColor(Color.BLUE);
-                                    paintText.setTextSize(mutableBmp.getWidth() / 10);
-                                    paintText.setFakeBoldText(true);
-
-                                    Paint confidenceScoreText = new Paint();
-                                    confidenceScoreText.setColor(Color.GREEN);
-                                    confidenceScoreText.setTextSize(mutableBmp.getWidth() / 20);
-                                    confidenceScoreText.setFakeBoldText(true);
-
-                                    List<Detector.Recognition> list = viewModel.getDetectedObjects().getValue();
-
-                                    for (int i = 0; i < list.size(); i++) {
-                                        float CONFIDENCE_THRESHOLD = 0.3f;
-                                        if (list.get(i).getConfidence() > CONFIDENCE_THRESHOLD) {
-                                            canvas.drawText((i + 1) + " " + list.get(i).getTitle(), list.get(i).getLocation().left, list.get(i).getLocation().top, paintText);
-                                            canvas.drawRect(list.get(i).getLocation(), p);
-                                            canvas.drawText(String.valueOf((int) (list.get(i).getConfidence() * 100)), list.get(i).getLocation().left, list.get(i).getLocation().bottom, confidenceScoreText);
-                                        }
-                                    }
-                                    imageView.setImageBitmap(mutableBmp);
-                                }
-                            });
-
-                        }
-                    });
-                } else {
-                    // Detector failed to initialize
-                    Toast.makeText(this, "Analysis failed! Please try again!", Toast.LENGTH_SHORT).show();
-                    NavigationUtils.navigate(AnalysisActivity.this, SnapActivity.class, true);
-                }
-            });
+            viewModel.analyzeCapturedImage();
+        }
+    }
+
+    /**
+     * Shows a UI state. Every view the state controls is set, so rendering the same state twice is
+     * harmless.
+     *
+     * @param state The state to show.
+     */
+    private void render(AnalysisUiState state) {
+        boolean loading = state.status == AnalysisUiState.Status.LOADING;
+        boolean saved = state.status == AnalysisUiState.Status.SAVED;
+        boolean hasResult = state.status == AnalysisUiState.Status.INFERRED || saved;
+        boolean hasDetections = hasResult && !state.recognitions.isEmpty();
+
+        progressBar.setVisibility(loading || state.saving ? View.VISIBLE : View.GONE);
+        imageView.setVisibility(hasResult ? View.VISIBLE : View.GONE);
+        tableHeader.setVisibility(hasDetections ? View.VISIBLE : View.GONE);
+        recyclerView.setVisibility(hasDetections ? View.VISIBLE : View.GONE);
+        textViewNoObjectsDetected.setVisibility(hasResult && !hasDetections ? View.VISIBLE : View.GONE);
+        buttonSaveAnalysis.setVisibility(saved ? View.GONE : View.VISIBLE);
+        buttonSaveAnalysis.setEnabled(state.status == AnalysisUiState.Status.INFERRED && !state.saving);
+        buttonDeleteAnalysis.setVisibility(saved ? View.VISIBLE : View.GONE);
+        editTextNote.setVisibility(saved ? View.VISIBLE : View.GONE);
+
+        if (state.status == AnalysisUiState.Status.ERROR) {
+            Toast.makeText(this, "Analysis failed! Please try again!", Toast.LENGTH_SHORT).show();
+            if (getIntent().getExtras() == null) {
+                NavigationUtils.navigate(AnalysisActivity.this, SnapActivity.class, true);
+            } else {
+                NavigationUtils.navigate(AnalysisActivity.this, AnalysesActivity.class, true);
+            }
+            return;
+        }
+        if (!hasResult) {
+            return;
+        }
+        serialNum = state.serialNumber;
+        if (state.recognitions != shownRecognitions) {
+            shownRecognitions = state.recognitions;
+            imageView.setImageBitmap(state.image);
+            // Older stored images have their detections drawn in; the others get the overlay.
+            imageView.setDetections(state.imageAnnotated ? Collections.emptyList() : state.recognitions);
+            recyclerView.setAdapter(new DetectedObjectsRecyclerAdapter(state.recognitions));
+        }
+        if (saved && !editTextNote.hasFocus()) {
+            editTextNote.setText(state.note);
         }
     }
 
@@ -206,21 +174,22 @@ public class AnalysisActivity extends AppCompatActivity {
         buttonSaveAnalysis = findViewById(R.id.button_save_analysis);
         buttonDeleteAnalysis = findViewById(R.id.button_delete_analysis);
         progressBar = findViewById(R.id.spinner);
+        textViewNoObjectsDetected = findViewById(R.id.text_view_no_objects_detected);
         recyclerView.setLayoutManager(new LinearLayoutManager(this));
         buttonDeleteAnalysis.setOnClickListener(v -> {
             viewModel.deleteAnalysis(serialNum);
         });
-    }
-
-    /**
-     * Creates an image file to save the analysis result.
-     *
-     * @return The created image file.
-     */
-    File createImageFile() {
-        imageFileName = "Analysed_" + new SimpleDateFormat(YYYYMMDDHHMMSS, Locale.getDefault()).format(new Date()) + ".jpg";
-        File storageDir = getExternalFilesDir(Environment.DIRECTORY_PICTURES);
-        return new File(storageDir, imageFileName);
+        buttonSaveAnalysis.setOnClickListener(v -> viewModel.saveAnalysis());
+        editTextNote = findViewById(R.id.edit_text_note);
+        editTextNote.setOnEditorActionListener((v, actionId, event) -> {
+            if (actionId != EditorInfo.IME_ACTION_DONE) {
+                return false;
+            }
+            viewModel.updateNote(serialNum, editTextNote.getText().toString());
+            editTextNote.clearFocus();
+            Toast.makeText(this, R.string.note_saved, Toast.LENGTH_SHORT).show();
+            return false;
+        });
     }
 
     /**
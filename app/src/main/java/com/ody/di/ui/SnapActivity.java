@@ -93,6 +93,7 @@ public class SnapActivity extends AppCompatActivity {
     private void setupObservers() {
         viewModel.getImageUriLiveData().observe(this, this::launchCameraWithUri);
         viewModel.getIsImageCapturedLiveData().observe(this, this::toggleUIElements);
+        viewModel.getPreviewLiveData().observe(this, imageView::setImageBitmap);
         viewModel.getNavigateToAnalysisLiveData().observe(this, this::navigateToAnalysisActivity);
         viewModel.getPermissionDeniedLiveData().observe(this, isDenied -> showPermissionDeniedDialog());
     }
@@ -115,8 +116,7 @@ public class SnapActivity extends AppCompatActivity {
      */
     private void handleImageCaptureResult(boolean success) {
         if (success) {
-            imageView.setImageURI(viewModel.getImageUriLiveData().getValue());
-            viewModel.setImageCapturedLiveData(true);
+            viewModel.onImageCaptured();
         }
     }
 
@@ -1,6 +1,8 @@
 package com.ody.di.ui.adapter;
 
 import android.content.Context;
+import android.graphics.drawable.Drawable;
+import android.net.Uri;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -8,25 +10,68 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import com.bumptech.glide.Glide;
+import com.bumptech.glide.ListPreloader;
+import com.bumptech.glide.RequestBuilder;
+import com.bumptech.glide.RequestManager;
 import com.ody.di.R;
 import com.ody.di.ui.model.AnalysesModel;
+import com.ody.di.utils.AppExecutors;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.AsyncDifferConfig;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 
 /**
  * Adapter class for displaying a grid of analyses items in a RecyclerView.
  * Each item in the grid consists of an image and associated text.
+ * The adapter lays out the full history; positions outside the loaded rows are shown as placeholders
+ * until their page arrives. In selection mode, items are marked as activated while selected.
+ *
+ * <p>Each submitted page is diffed against the displayed one on a background thread, and items keep
+ * their serial number as stable ID, so an insert, a delete or a newly loaded page only rebinds the
+ * cells that changed. Selection changes rebind with {@link #PAYLOAD_SELECTION}, which updates the
+ * activated state without reloading the image.</p>
+ *
+ * <p>Images are requested at the exact size of the cell. The adapter also provides the same
+ * requests to a {@link com.bumptech.glide.integration.recyclerview.RecyclerViewPreloader}, so
+ * cells about to scroll into view are already in the memory cache.</p>
  *
  * @author Debidutt Prasad
  */
-public class AnalysesGridAdapter extends RecyclerView.Adapter<AnalysesGridAdapter.ViewHolder> {
+public class AnalysesGridAdapter extends ListAdapter<AnalysesModel, AnalysesGridAdapter.ViewHolder>
+        implements ListPreloader.PreloadModelProvider<AnalysesModel> {
+
+    // Partial bind payload: only the selection state changed.
+    private static final Object PAYLOAD_SELECTION = new Object();
+
+    private static final DiffUtil.ItemCallback<AnalysesModel> DIFF_CALLBACK = new DiffUtil.ItemCallback<AnalysesModel>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull AnalysesModel oldItem, @NonNull AnalysesModel newItem) {
+            return oldItem.getSerialNumber() == newItem.getSerialNumber();
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull AnalysesModel oldItem, @NonNull AnalysesModel newItem) {
+            return oldItem.equals(newItem);
+        }
+    };
 
     private Context context;
-    private List<AnalysesModel> analysesModels;
+    private final RequestManager requestManager;
+    private final int thumbnailSize;
     private OnItemClickListener mListener;
+    private OnItemLongClickListener longClickListener;
+    private final Set<Long> selectedSerialNumbers = new HashSet<>();
+    private OnPositionBoundListener boundListener;
 
     /**
      * Interface for handling item click events.
@@ -40,6 +85,39 @@ public class AnalysesGridAdapter extends RecyclerView.Adapter<AnalysesGridAdapte
         void onItemClick(int position);
     }
 
+    /**
+     * Interface for handling item long click events.
+     */
+    public interface OnItemLongClickListener {
+        /**
+         * Called when an item in the RecyclerView is long clicked.
+         *
+         * @param position The position of the long clicked item.
+         */
+        void onItemLongClick(int position);
+    }
+
+    /**
+     * Interface notified whenever a position is bound, used to load further pages ahead of scrolling.
+     */
+    public interface OnPositionBoundListener {
+        /**
+         * Called when a position is bound to a view.
+         *
+         * @param position The bound position.
+         */
+        void onPositionBound(int position);
+    }
+
+    /**
+     * Sets the listener notified when positions are bound.
+     *
+     * @param listener The listener to set.
+     */
+    public void setOnPositionBoundListener(OnPositionBoundListener listener) {
+        boundListener = listener;
+    }
+
     /**
      * Sets the listener to handle item click events.
      *
@@ -49,15 +127,108 @@ public class AnalysesGridAdapter extends RecyclerView.Adapter<AnalysesGridAdapte
         mListener = listener;
     }
 
+    /**
+     * Sets the listener to handle item long click events.
+     *
+     * @param listener The listener to set.
+     */
+    public void setOnItemLongClickListener(OnItemLongClickListener listener) {
+        longClickListener = listener;
+    }
+
     /**
      * Constructor for the adapter.
      *
-     * @param context        The context used to access application-specific resources.
-     * @param analysesModels List of models representing the data for each item in the grid.
+     * @param context The context used to access application-specific resources.
      */
-    public AnalysesGridAdapter(@NonNull Context context, @NonNull List<AnalysesModel> analysesModels) {
+    public AnalysesGridAdapter(@NonNull Context context) {
+        super(new AsyncDifferConfig.Builder<>(DIFF_CALLBACK)
+                .setBackgroundThreadExecutor(AppExecutors.getInstance().database())
+                .build());
         this.context = context;
-        this.analysesModels = analysesModels;
+        this.requestManager = Glide.with(context);
+        this.thumbnailSize = context.getResources().getDimensionPixelSize(R.dimen.history_thumbnail_size);
+        setHasStableIds(true);
+    }
+
+    /**
+     * Returns the width and height, in pixels, at which the images are loaded.
+     *
+     * @return The size of a cell's image.
+     */
+    public int getThumbnailSize() {
+        return thumbnailSize;
+    }
+
+    /**
+     * Replaces the displayed history. The new page is diffed against the displayed one in the
+     * background and only the changed positions are rebound.
+     *
+     * @param offset     The position of the first loaded row.
+     * @param loaded     The loaded rows, newest first.
+     * @param totalCount The number of rows in the history, loaded or not.
+     */
+    public void submitPage(int offset, @NonNull List<AnalysesModel> loaded, int totalCount) {
+        List<AnalysesModel> items = new ArrayList<>(Math.max(totalCount, offset + loaded.size()));
+        // Null items are placeholders; the differ matches them with each other, never with a row.
+        items.addAll(Collections.nCopies(offset, null));
+        items.addAll(loaded);
+        items.addAll(Collections.nCopies(Math.max(0, totalCount - offset - loaded.size()), null));
+        submitList(items);
+    }
+
+    /**
+     * Returns the model at a position, or null if that position is still a placeholder.
+     *
+     * @param position The adapter position.
+     * @return The model, or null.
+     */
+    @Override
+    public AnalysesModel getItem(int position) {
+        return super.getItem(position);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        AnalysesModel model = getItem(position);
+        // Placeholders are numbered from the end, negative so they can't collide with serial numbers,
+        // and keep their IDs when rows above them are inserted or deleted.
+        return model != null ? model.getSerialNumber() : position - getItemCount();
+    }
+
+    /**
+     * Selects or deselects the item at a position. Placeholders can't be selected.
+     *
+     * @param position The adapter position.
+     */
+    public void toggleSelection(int position) {
+        AnalysesModel model = getItem(position);
+        if (model == null) {
+            return;
+        }
+        if (!selectedSerialNumbers.remove(model.getSerialNumber())) {
+            selectedSerialNumbers.add(model.getSerialNumber());
+        }
+        notifyItemChanged(position, PAYLOAD_SELECTION);
+    }
+
+    /**
+     * Returns the serial numbers of the selected items.
+     *
+     * @return A copy of the selection.
+     */
+    public Set<Long> getSelectedSerialNumbers() {
+        return new HashSet<>(selectedSerialNumbers);
+    }
+
+    /**
+     * Deselects all items.
+     */
+    public void clearSelection() {
+        if (!selectedSerialNumbers.isEmpty()) {
+            selectedSerialNumbers.clear();
+            notifyItemRangeChanged(0, getItemCount(), PAYLOAD_SELECTION);
+        }
     }
 
     @NonNull
@@ -66,15 +237,55 @@ public class AnalysesGridAdapter extends RecyclerView.Adapter<AnalysesGridAdapte
         return new ViewHolder(LayoutInflater.from(this.context).inflate(R.layout.card_item, parent, false));
     }
 
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position, @NonNull List<Object> payloads) {
+        if (payloads.isEmpty()) {
+            onBindViewHolder(holder, position);
+            return;
+        }
+        AnalysesModel model = getItem(position);
+        holder.itemView.setActivated(model != null && selectedSerialNumbers.contains(model.getSerialNumber()));
+    }
+
     @Override
     public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
-        Glide.with(this.context).load(this.analysesModels.get(position).getImageUri()).into(holder.imageView);
-        holder.textView.setText(this.analysesModels.get(position).getName());
+        AnalysesModel model = getItem(position);
+        holder.itemView.setActivated(model != null && selectedSerialNumbers.contains(model.getSerialNumber()));
+        if (model == null) {
+            requestManager.clear(holder.imageView);
+            holder.textView.setText(null);
+        } else {
+            thumbnailRequest(model.getImageUri()).into(holder.imageView);
+            holder.textView.setText(model.getName());
+        }
+        if (boundListener != null) {
+            boundListener.onPositionBound(position);
+        }
     }
 
     @Override
-    public int getItemCount() {
-        return analysesModels.size();
+    public void onViewRecycled(@NonNull ViewHolder holder) {
+        // Hands the bitmap back to Glide's pool instead of keeping it until the holder is rebound.
+        requestManager.clear(holder.imageView);
+    }
+
+    @NonNull
+    @Override
+    public List<AnalysesModel> getPreloadItems(int position) {
+        AnalysesModel model = position < getItemCount() ? getItem(position) : null;
+        return model == null || model.getImageUri() == null ? Collections.emptyList() : Collections.singletonList(model);
+    }
+
+    @Nullable
+    @Override
+    public RequestBuilder<?> getPreloadRequestBuilder(@NonNull AnalysesModel model) {
+        return thumbnailRequest(model.getImageUri());
+    }
+
+    // Bind and preload must build identical requests, or preloaded images miss the memory cache.
+    private RequestBuilder<Drawable> thumbnailRequest(Uri imageUri) {
+        return requestManager.load(imageUri)
+                .override(thumbnailSize);
     }
 
     /**
@@ -96,6 +307,14 @@ public class AnalysesGridAdapter extends RecyclerView.Adapter<AnalysesGridAdapte
                     }
                 }
             });
+            itemView.setOnLongClickListener(v -> {
+                int position = getAdapterPosition();
+                if (longClickListener == null || position == RecyclerView.NO_POSITION) {
+                    return false;
+                }
+                longClickListener.onItemLongClick(position);
+                return true;
+            });
         }
     }
 }
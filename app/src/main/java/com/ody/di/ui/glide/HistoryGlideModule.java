@@ -0,0 +1,62 @@
+package com.ody.di.ui.glide;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.bumptech.glide.GlideBuilder;
+import com.bumptech.glide.annotation.GlideModule;
+import com.bumptech.glide.load.DecodeFormat;
+import com.bumptech.glide.load.engine.DiskCacheStrategy;
+import com.bumptech.glide.load.engine.bitmap_recycle.LruBitmapPool;
+import com.bumptech.glide.load.engine.cache.InternalCacheDiskCacheFactory;
+import com.bumptech.glide.load.engine.cache.LruResourceCache;
+import com.bumptech.glide.load.engine.cache.MemorySizeCalculator;
+import com.bumptech.glide.module.AppGlideModule;
+import com.bumptech.glide.request.RequestOptions;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Glide configuration for the analyses history grid, the only screen that loads images through
+ * Glide. Glide allows one application module, so these settings apply process-wide.
+ *
+ * <p>Thumbnails are small and opaque, so they decode to RGB_565 at half the memory of ARGB_8888, and
+ * the memory cache holds a few screens of them. The downsampled thumbnails, not the source photos,
+ * are kept in a dedicated disk cache, so scrolling back to an evicted cell reads a small file
+ * instead of decoding a full-size PNG again.</p>
+ *
+ * @author Debidutt Prasad
+ */
+@GlideModule
+public final class HistoryGlideModule extends AppGlideModule {
+
+    // Name of the thumbnail cache directory, under the app's cache directory.
+    private static final String DISK_CACHE_NAME = "history_thumbnails";
+
+    // Size of the thumbnail disk cache: about a thousand cells at their decoded size.
+    private static final long DISK_CACHE_SIZE = 64L * 1024 * 1024;
+
+    // Screens of thumbnails kept in memory and bitmaps kept for reuse.
+    private static final float MEMORY_CACHE_SCREENS = 3;
+    private static final float BITMAP_POOL_SCREENS = 2;
+
+    @Override
+    public void applyOptions(@NonNull Context context, @NonNull GlideBuilder builder) {
+        MemorySizeCalculator calculator = new MemorySizeCalculator.Builder(context)
+                .setMemoryCacheScreens(MEMORY_CACHE_SCREENS)
+                .setBitmapPoolScreens(BITMAP_POOL_SCREENS)
+                .build();
+        builder.setMemoryCache(new LruResourceCache(calculator.getMemoryCacheSize()))
+                .setBitmapPool(new LruBitmapPool(calculator.getBitmapPoolSize()))
+                .setDiskCache(new InternalCacheDiskCacheFactory(context, DISK_CACHE_NAME, DISK_CACHE_SIZE))
+                .setDefaultRequestOptions(new RequestOptions()
+                        .format(DecodeFormat.PREFER_RGB_565)
+                        .diskCacheStrategy(DiskCacheStrategy.RESOURCE))
+                .setLogLevel(Log.ERROR);
+    }
+
+    @Override
+    public boolean isManifestParsingEnabled() {
+        return false;
+    }
+}
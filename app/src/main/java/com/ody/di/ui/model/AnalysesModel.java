@@ -2,44 +2,41 @@ package com.ody.di.ui.model;
 
 import android.net.Uri;
 
+import java.util.Objects;
+
 /**
  * Represents a data model for analysis, holding a name and associated image URI.
  * Each instance of this class can be used to represent an analysis entry with its associated image.
+ * Instances are immutable and compare by value, so the history grid can diff successive pages.
  *
  * @author Debidutt Prasad
  */
 public class AnalysesModel {
 
-    private String name;    // The name associated with the analysis
-    private Uri imageUri;   // The URI pointing to the image associated with the analysis
+    private final long serialNumber; // The serial number of the analysis in the database
+    private final String name;    // The name associated with the analysis
+    private final Uri imageUri;   // The URI pointing to the image associated with the analysis
 
     /**
      * Constructs a new instance of the {@code AnalysesModel} with the specified name and image URI.
      *
-     * @param name    The name of the analysis.
-     * @param imageUri The URI pointing to the associated image.
+     * @param serialNumber The serial number of the analysis.
+     * @param name         The name of the analysis.
+     * @param imageUri     The URI pointing to the associated image.
      */
-    public AnalysesModel(String name, Uri imageUri) {
+    public AnalysesModel(long serialNumber, String name, Uri imageUri) {
+        this.serialNumber = serialNumber;
         this.name = name;
         this.imageUri = imageUri;
     }
 
     /**
-     * Sets the name of the analysis.
+     * Returns the serial number of the analysis.
      *
-     * @param name The name to set.
+     * @return The serial number.
      */
-    public void setName(String name) {
-        this.name = name;
-    }
-
-    /**
-     * Sets the URI pointing to the associated image.
-     *
-     * @param imageUri The image URI to set.
-     */
-    public void setImageUri(Uri imageUri) {
-        this.imageUri = imageUri;
+    public long getSerialNumber() {
+        return serialNumber;
     }
 
     /**
@@ -59,5 +56,23 @@ public class AnalysesModel {
     public Uri getImageUri() {
         return imageUri;
     }
-}
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        AnalysesModel that = (AnalysesModel) o;
+        return serialNumber == that.serialNumber
+                && Objects.equals(name, that.name)
+                && Objects.equals(imageUri, that.imageUri);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(serialNumber, name, imageUri);
+    }
+}
@@ -0,0 +1,183 @@
+package com.ody.di.ui.view;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.content.res.TypedArray;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.util.AttributeSet;
+
+import com.ody.di.R;
+import com.ody.di.utils.ImageUtils;
+import com.ody.di.utils.Metrics;
+
+import org.tensorflow.lite.examples.detection.tflite.Detector;
+
+import java.util.Collections;
+import java.util.List;
+
+import androidx.annotation.Nullable;
+import androidx.appcompat.widget.AppCompatImageView;
+import androidx.core.content.ContextCompat;
+
+/**
+ * Shows an image with its detections drawn on top, at the view's resolution rather than into the
+ * image's pixels. The image is never copied or modified, so it can be a hardware bitmap, and
+ * changing the detections or the confidence threshold only redraws the canvas.
+ *
+ * <p>Detection coordinates are in image pixels and are mapped through the image matrix, so boxes
+ * follow the scale type. Paints and font metrics are created once; label texts and their widths
+ * are computed when the detections are set, not on every draw.</p>
+ *
+ * @author Debidutt Prasad
+ */
+public class DetectionOverlayView extends AppCompatImageView {
+
+    private final Paint boxPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint labelPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint confidencePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint labelBackgroundPaint = new Paint();
+    private final Paint.FontMetrics labelMetrics;
+    private final Paint.FontMetrics confidenceMetrics;
+    private final float labelPadding;
+
+    // Reused on every draw.
+    private final RectF box = new RectF();
+    private final RectF labelBackground = new RectF();
+
+    private List<Detector.Recognition> detections = Collections.emptyList();
+    private String[] labels = new String[0];
+    private String[] confidences = new String[0];
+    private float[] labelWidths = new float[0];
+    private float[] confidenceWidths = new float[0];
+    private float confidenceThreshold = ImageUtils.CONFIDENCE_THRESHOLD;
+
+    public DetectionOverlayView(Context context) {
+        this(context, null);
+    }
+
+    public DetectionOverlayView(Context context, @Nullable AttributeSet attrs) {
+        this(context, attrs, 0);
+    }
+
+    public DetectionOverlayView(Context context, @Nullable AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+        Resources resources = context.getResources();
+        boxPaint.setStyle(Paint.Style.STROKE);
+        boxPaint.setColor(ContextCompat.getColor(context, R.color.overlay_box));
+        boxPaint.setStrokeWidth(resources.getDimension(R.dimen.overlay_box_stroke));
+        labelPaint.setColor(ContextCompat.getColor(context, R.color.overlay_label));
+        labelPaint.setTextSize(resources.getDimension(R.dimen.overlay_label_text));
+        labelPaint.setFakeBoldText(true);
+        confidencePaint.setColor(ContextCompat.getColor(context, R.color.overlay_confidence));
+        confidencePaint.setTextSize(resources.getDimension(R.dimen.overlay_confidence_text));
+        confidencePaint.setFakeBoldText(true);
+        labelBackgroundPaint.setColor(ContextCompat.getColor(context, R.color.overlay_label_background));
+        labelPadding = resources.getDimension(R.dimen.overlay_label_padding);
+        labelMetrics = labelPaint.getFontMetrics();
+        confidenceMetrics = confidencePaint.getFontMetrics();
+
+        TypedArray attributes = context.obtainStyledAttributes(attrs, R.styleable.DetectionOverlayView, defStyleAttr, 0);
+        try {
+            confidenceThreshold = attributes.getFloat(R.styleable.DetectionOverlayView_confidenceThreshold, confidenceThreshold);
+        } finally {
+            attributes.recycle();
+        }
+    }
+
+    /**
+     * Sets the detections to draw over the image.
+     *
+     * @param detections The detections, in the coordinates of the image's pixels.
+     */
+    public void setDetections(List<Detector.Recognition> detections) {
+        this.detections = detections;
+        int count = detections.size();
+        labels = new String[count];
+        confidences = new String[count];
+        labelWidths = new float[count];
+        confidenceWidths = new float[count];
+        for (int i = 0; i < count; i++) {
+            Detector.Recognition detection = detections.get(i);
+            labels[i] = (i + 1) + " " + detection.getTitle();
+            confidences[i] = String.valueOf((int) (detection.getConfidence() * 100));
+            labelWidths[i] = labelPaint.measureText(labels[i]);
+            confidenceWidths[i] = confidencePaint.measureText(confidences[i]);
+        }
+        invalidate();
+    }
+
+    /**
+     * Sets the confidence at or below which detections are not drawn.
+     *
+     * @param confidenceThreshold The threshold, from 0 to 1.
+     */
+    public void setConfidenceThreshold(float confidenceThreshold) {
+        if (this.confidenceThreshold != confidenceThreshold) {
+            this.confidenceThreshold = confidenceThreshold;
+            invalidate();
+        }
+    }
+
+    /**
+     * Returns the confidence at or below which detections are not drawn.
+     *
+     * @return The threshold, from 0 to 1.
+     */
+    public float getConfidenceThreshold() {
+        return confidenceThreshold;
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        if (detections.isEmpty() || getDrawable() == null) {
+            return;
+        }
+        try (Metrics.Span ignored = Metrics.getInstance().span("render.overlay")) {
+            drawDetections(canvas);
+        }
+    }
+
+    private void drawDetections(Canvas canvas) {
+        Matrix imageMatrix = getImageMatrix();
+        float left = getPaddingLeft();
+        float top = getPaddingTop();
+        float right = getWidth() - getPaddingRight();
+        for (int i = 0; i < detections.size(); i++) {
+            Detector.Recognition detection = detections.get(i);
+            if (detection.getConfidence() <= confidenceThreshold) {
+                continue;
+            }
+            imageMatrix.mapRect(box, detection.getLocation());
+            box.offset(left, top);
+            canvas.drawRect(box, boxPaint);
+
+            // Label above the box, or inside it when the box touches the top edge.
+            float labelX = clamp(box.left, left, right - labelWidths[i] - 2 * labelPadding);
+            float labelBaseline = box.top - labelMetrics.descent - labelPadding;
+            if (labelBaseline + labelMetrics.ascent - labelPadding < top) {
+                labelBaseline = box.top - labelMetrics.ascent + labelPadding;
+            }
+            drawText(canvas, labels[i], labelWidths[i], labelX, labelBaseline, labelMetrics, labelPaint);
+
+            float confidenceX = clamp(box.left, left, right - confidenceWidths[i] - 2 * labelPadding);
+            float confidenceBaseline = box.bottom - confidenceMetrics.descent - labelPadding;
+            drawText(canvas, confidences[i], confidenceWidths[i], confidenceX, confidenceBaseline, confidenceMetrics, confidencePaint);
+        }
+    }
+
+    private void drawText(Canvas canvas, String text, float width, float x, float baseline,
+                          Paint.FontMetrics metrics, Paint paint) {
+        labelBackground.set(x, baseline + metrics.ascent - labelPadding,
+                x + width + 2 * labelPadding, baseline + metrics.descent + labelPadding);
+        canvas.drawRect(labelBackground, labelBackgroundPaint);
+        canvas.drawText(text, x + labelPadding, baseline, paint);
+    }
+
+    private static float clamp(float value, float min, float max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
@@ -0,0 +1,87 @@
+package com.ody.di.utils;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import com.ody.di.database.entities.Analysis;
+
+/**
+ * How long producing an analysis took, and on what input. Measured with
+ * {@link android.os.SystemClock#elapsedRealtime()} along the pipeline and stored with the analysis,
+ * so latency can be tracked from the history itself, see
+ * {@link com.ody.di.database.AnalysisDao#getLatencyPercentilesPerModel()}.
+ *
+ * @author Debidutt Prasad
+ */
+public final class AnalysisTiming {
+
+    /**
+     * The device, its SoC and its build, as recorded with each analysis.
+     */
+    public static final String DEVICE = Build.MANUFACTURER + " " + Build.MODEL + "; "
+            + (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S ? Build.SOC_MANUFACTURER + " " + Build.SOC_MODEL : Build.HARDWARE)
+            + "; " + Build.FINGERPRINT;
+
+    /**
+     * Time spent obtaining the decoded image, near 0 when it was already in the
+     * {@link com.ody.di.repository.DecodedImageCache}.
+     */
+    public final long decodeMs;
+
+    /**
+     * Time spent in the detector.
+     */
+    public final long inferenceMs;
+
+    /**
+     * Time from the start of the analysis to its detections, including waits for the pools.
+     */
+    public final long totalMs;
+
+    /**
+     * Width in pixels of the image given to the detector.
+     */
+    public final int inputWidth;
+
+    /**
+     * Height in pixels of the image given to the detector.
+     */
+    public final int inputHeight;
+
+    /**
+     * Creates the timing of an analysis.
+     *
+     * @param input       The image given to the detector.
+     * @param decodeMs    Time spent obtaining the decoded image.
+     * @param inferenceMs Time spent in the detector.
+     * @param totalMs     Time from the start of the analysis to its detections.
+     */
+    public AnalysisTiming(Bitmap input, long decodeMs, long inferenceMs, long totalMs) {
+        this.decodeMs = decodeMs;
+        this.inferenceMs = inferenceMs;
+        this.totalMs = totalMs;
+        this.inputWidth = input.getWidth();
+        this.inputHeight = input.getHeight();
+    }
+
+    /**
+     * Records this timing, the inference threads and the device on an analysis.
+     *
+     * @param analysis The analysis this timing was measured for.
+     */
+    public void applyTo(Analysis analysis) {
+        analysis.decodeMs = decodeMs;
+        analysis.inferenceMs = inferenceMs;
+        analysis.totalMs = totalMs;
+        analysis.inputWidth = inputWidth;
+        analysis.inputHeight = inputHeight;
+        analysis.threadCount = DetectionModel.NUM_THREADS;
+        analysis.device = DEVICE;
+    }
+
+    @Override
+    public String toString() {
+        return "decode " + decodeMs + " ms, inference " + inferenceMs + " ms, total " + totalMs + " ms at "
+                + inputWidth + "x" + inputHeight;
+    }
+}
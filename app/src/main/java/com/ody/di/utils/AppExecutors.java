@@ -0,0 +1,107 @@
+package com.ody.di.utils;
+
+import android.os.Process;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The app's shared thread pools. All background work runs on one of them instead of on threads or
+ * executors created per call, so the number of threads is bounded and work is prioritised by pool:
+ *
+ * <ul>
+ *     <li>{@link #inference()}: a single thread at default priority for the detector. Its queue is
+ *     unbounded: the tasks are hops of analysis chains and detector closes, none of which may be
+ *     lost, and the callers bound how much they submit.</li>
+ *     <li>{@link #database()}: a small background pool for queries and transactions.</li>
+ *     <li>{@link #io()}: a background pool for file work such as storage maintenance and archives.</li>
+ * </ul>
+ *
+ * <p>The database and I/O queues are bounded. A full queue pushes back on whoever submits: a
+ * background thread runs the task itself and the main thread waits for room, so plain
+ * {@code execute} calls never throw while the app runs.</p>
+ *
+ * <p>Components that need their tasks serialised take a {@link SerialExecutor} lane on one of the
+ * pools. Each pool exposes its queue depth and task latency through {@link #getMetrics()}.</p>
+ *
+ * @author Debidutt Prasad
+ */
+public final class AppExecutors {
+
+    private static final String TAG = "AppExecutors";
+
+    private static volatile AppExecutors INSTANCE;
+
+    private final MeteredExecutor inference = new MeteredExecutor("inference", 1, MeteredExecutor.UNBOUNDED,
+            Process.THREAD_PRIORITY_DEFAULT);
+    private final MeteredExecutor database = new MeteredExecutor("database", 3, 256,
+            Process.THREAD_PRIORITY_BACKGROUND);
+    private final MeteredExecutor io = new MeteredExecutor("io", 4, 128,
+            Process.THREAD_PRIORITY_BACKGROUND);
+
+    // Private constructor to enforce the singleton.
+    private AppExecutors() {
+    }
+
+    /**
+     * Retrieves the process-wide executors, creating them on first use.
+     *
+     * @return The singleton executors.
+     */
+    public static AppExecutors getInstance() {
+        if (INSTANCE == null) {
+            synchronized (AppExecutors.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new AppExecutors();
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the pool for running the detector.
+     *
+     * @return The inference pool.
+     */
+    public MeteredExecutor inference() {
+        return inference;
+    }
+
+    /**
+     * Returns the pool for database work.
+     *
+     * @return The database pool.
+     */
+    public MeteredExecutor database() {
+        return database;
+    }
+
+    /**
+     * Returns the pool for file work.
+     *
+     * @return The I/O pool.
+     */
+    public MeteredExecutor io() {
+        return io;
+    }
+
+    /**
+     * Returns the current metrics of every pool.
+     *
+     * @return One snapshot per pool.
+     */
+    public List<MeteredExecutor.Metrics> getMetrics() {
+        return Arrays.asList(inference.getMetrics(), database.getMetrics(), io.getMetrics());
+    }
+
+    /**
+     * Writes the metrics of every pool to the log.
+     */
+    public void logMetrics() {
+        for (MeteredExecutor.Metrics metrics : getMetrics()) {
+            Log.d(TAG, metrics.toString());
+        }
+    }
+}
@@ -33,6 +33,11 @@ public final class Constants {
      */
     public static final String YYYYMMDDHHMMSS = "yyyyMMddHHmmss";
 
+    /**
+     * Default byte budget for images kept in the app's pictures directory.
+     */
+    public static final long DEFAULT_STORAGE_BUDGET_BYTES = 200L * 1024 * 1024;
+
     // Private constructor to prevent instantiation.
     private Constants() {
     }
@@ -0,0 +1,144 @@
+package com.ody.di.utils;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+
+import com.ody.di.database.entities.Analysis;
+
+import org.tensorflow.lite.examples.detection.tflite.Detector;
+import org.tensorflow.lite.examples.detection.tflite.TFLiteObjectDetectionAPIModel;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Describes the detection model bundled with the app and the options it runs with. Every stored
+ * analysis records the {@link #ID}, {@link #VERSION} and {@link #OPTIONS} it was produced with, so
+ * analyses made by an earlier model can be found and analyzed again.
+ *
+ * <p>Bump {@link #VERSION} whenever the model file is replaced, and keep {@link #OPTIONS} in step
+ * with the arguments of {@link #create(Context)}.</p>
+ *
+ * @author Debidutt Prasad
+ */
+public final class DetectionModel {
+
+    /**
+     * Identifies the model family.
+     */
+    public static final String ID = "efficientdet_lite2";
+
+    /**
+     * Version of the bundled model file within its family.
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * Model file, relative to the assets folder.
+     */
+    public static final String MODEL_FILE = "efficientdet_lite2_.tflite";
+
+    /**
+     * Side in pixels of the square input of the model.
+     */
+    public static final int INPUT_SIZE = 320;
+
+    /**
+     * Whether the model is quantized.
+     */
+    public static final boolean QUANTIZED = true;
+
+    /**
+     * Maximum number of detections per image, as configured in the detector.
+     */
+    public static final int MAX_RESULTS = 10;
+
+    /**
+     * Number of threads inference runs on. Not part of {@link #OPTIONS}, as it doesn't change the
+     * detections.
+     */
+    public static final int NUM_THREADS = Math.min(4, Runtime.getRuntime().availableProcessors());
+
+    /**
+     * The detection options, as recorded with each analysis.
+     */
+    public static final String OPTIONS = "input=" + INPUT_SIZE + ";quantized=" + QUANTIZED
+            + ";maxResults=" + MAX_RESULTS + ";labels=" + LabelMap.LABEL_FILE;
+
+    /**
+     * Identifies the model and its options as a whole; analyses with another signature are outdated.
+     */
+    public static final String SIGNATURE = ID + "/" + VERSION + "/" + OPTIONS;
+
+    /**
+     * Creates a detector running the bundled model. Loads the model, so call it off the main thread.
+     * Loading and every inference are timed as the {@code model.load} and {@code inference}
+     * {@link Metrics} spans.
+     *
+     * @param context The context used to read the model from the assets.
+     * @return The detector; close it when done.
+     * @throws IOException if the model could not be loaded.
+     */
+    public static Detector create(Context context) throws IOException {
+        try (Metrics.Span ignored = Metrics.getInstance().span("model.load")) {
+            return new TimedDetector(TFLiteObjectDetectionAPIModel.create(context, MODEL_FILE, LabelMap.LABEL_FILE,
+                    INPUT_SIZE, QUANTIZED, NUM_THREADS));
+        }
+    }
+
+    /**
+     * Records this model as the producer of an analysis's detections.
+     *
+     * @param analysis The analysis whose detections this model just produced.
+     */
+    public static void stamp(Analysis analysis) {
+        analysis.modelId = ID;
+        analysis.modelVersion = VERSION;
+        analysis.detectionOptions = OPTIONS;
+    }
+
+    // Private constructor to prevent instantiation.
+    private DetectionModel() {
+    }
+
+    // Times each inference of the wrapped detector.
+    private static final class TimedDetector implements Detector {
+        private final Detector detector;
+
+        TimedDetector(Detector detector) {
+            this.detector = detector;
+        }
+
+        @Override
+        public List<Recognition> recognizeImage(Bitmap bitmap) {
+            try (Metrics.Span ignored = Metrics.getInstance().span("inference")) {
+                return detector.recognizeImage(bitmap);
+            }
+        }
+
+        @Override
+        public void enableStatLogging(boolean debug) {
+            detector.enableStatLogging(debug);
+        }
+
+        @Override
+        public String getStatString() {
+            return detector.getStatString();
+        }
+
+        @Override
+        public void close() {
+            detector.close();
+        }
+
+        @Override
+        public void setNumThreads(int numThreads) {
+            detector.setNumThreads(numThreads);
+        }
+
+        @Override
+        public void setUseNNAPI(boolean isChecked) {
+            detector.setUseNNAPI(isChecked);
+        }
+    }
+}
@@ -2,20 +2,29 @@ package com.ody.di.utils;
 
 import android.content.ContentResolver;
 import android.content.Context;
-import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.ImageDecoder;
 import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
 import android.net.Uri;
+import android.os.Build;
 import android.os.ParcelFileDescriptor;
-import android.provider.MediaStore;
 import android.util.Log;
 
+import org.tensorflow.lite.examples.detection.tflite.Detector;
+
 import java.io.File;
 import java.io.FileDescriptor;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 
 import androidx.exifinterface.media.ExifInterface;
 
@@ -27,16 +36,17 @@ import androidx.exifinterface.media.ExifInterface;
 public class ImageUtils {
 
     /**
-     * Rotates the provided bitmap according to the EXIF orientation data.
-     *
-     * @param input           the original bitmap.
-     * @param imageUri        the URI of the image.
-     * @param contentResolver a ContentResolver instance to retrieve EXIF data.
-     * @return a new rotated bitmap or the original bitmap if no rotation is needed.
+     * Detections at or below this confidence are not drawn.
      */
-    public static Bitmap rotateBitmap(Bitmap input, Uri imageUri, ContentResolver contentResolver) {
-        int orientation = getExifOrientation(imageUri, contentResolver);
+    public static final float CONFIDENCE_THRESHOLD = 0.3f;
 
+    /**
+     * Returns the transform that turns an image upright according to its EXIF orientation.
+     *
+     * @param orientation the EXIF orientation.
+     * @return the transform, or null if the image is upright already.
+     */
+    private static Matrix orientationMatrix(int orientation) {
         Matrix rotationMatrix = new Matrix();
         switch (orientation) {
             case ExifInterface.ORIENTATION_FLIP_HORIZONTAL:
@@ -64,17 +74,9 @@ public class ImageUtils {
                 rotationMatrix.setRotate(-90);
                 break;
             default:
-                return input;
-        }
-
-        try {
-            Bitmap orientedBitmap = Bitmap.createBitmap(input, 0, 0, input.getWidth(), input.getHeight(), rotationMatrix, true);
-            input.recycle();
-            return orientedBitmap;
-        } catch (OutOfMemoryError e) {
-            e.printStackTrace();
-            return input;
+                return null;
         }
+        return rotationMatrix;
     }
 
     /**
@@ -106,27 +108,6 @@ public class ImageUtils {
         return ExifInterface.ORIENTATION_UNDEFINED;
     }
 
-    /**
-     * Rotates the provided bitmap according to the orientation data from MediaStore.
-     *
-     * @param context  the context for retrieving the ContentResolver.
-     * @param input    the original bitmap.
-     * @param imageUri the URI of the image.
-     * @return a new rotated bitmap.
-     */
-    public static Bitmap rotateBitmap(Context context, Bitmap input, Uri imageUri) {
-        String[] orientationColumn = {MediaStore.Images.Media.ORIENTATION};
-        try (Cursor cur = context.getContentResolver().query(imageUri, orientationColumn, null, null, null)) {
-            int orientation = -1;
-            if (cur != null && cur.moveToFirst()) {
-                orientation = cur.getInt(cur.getColumnIndex(orientationColumn[0]));
-            }
-            Matrix rotationMatrix = new Matrix();
-            rotationMatrix.setRotate(orientation);
-            return Bitmap.createBitmap(input, 0, 0, input.getWidth(), input.getHeight(), rotationMatrix, true);
-        }
-    }
-
     /**
      * Saves the provided bitmap as a PNG file to the given output file.
      *
@@ -141,4 +122,143 @@ public class ImageUtils {
             e.printStackTrace();
         }
     }
+
+    /**
+     * Decodes an image sampled down so that its longer side is not much more than the given size,
+     * upright according to its EXIF orientation. The decode is planned by the {@link MemoryGovernor}:
+     * under memory pressure the image comes out smaller than asked, down to the detector's input
+     * size, and may be decoded in tiles.
+     *
+     * @param context      the context for retrieving the ContentResolver.
+     * @param imageUri     the URI of the image, content or file.
+     * @param maxDimension the size in pixels the longer side should not exceed by more than 2x.
+     * @param hardware     whether a hardware bitmap may be returned; pass false if its pixels are read,
+     *                     for instance by the detector.
+     * @return the decoded bitmap.
+     * @throws IOException if the image could not be decoded or doesn't fit the memory budget.
+     */
+    public static Bitmap decodeSampled(Context context, Uri imageUri, int maxDimension, boolean hardware) throws IOException {
+        BitmapFactory.Options bounds = readBounds(context, imageUri);
+        try (MemoryGovernor.DecodePlan plan = MemoryGovernor.getInstance(context).plan(bounds.outWidth,
+                bounds.outHeight, bounds.outMimeType, maxDimension, hardware);
+             Metrics.Span ignored = Metrics.getInstance().span("image.decode")) {
+            if (plan.tiled) {
+                return decodeTiled(context, imageUri, plan);
+            }
+            ImageDecoder.Source source = ImageDecoder.createSource(context.getContentResolver(), imageUri);
+            return ImageDecoder.decodeBitmap(source, (decoder, info, src) -> {
+                decoder.setTargetSampleSize(plan.sampleSize);
+                if (!hardware) {
+                    decoder.setAllocator(ImageDecoder.ALLOCATOR_SOFTWARE);
+                }
+            });
+        }
+    }
+
+    /**
+     * Reads the size and type of an encoded image without decoding its pixels.
+     *
+     * @param context  the context for retrieving the ContentResolver.
+     * @param imageUri the URI of the image, content or file.
+     * @return the options holding outWidth, outHeight and outMimeType, before EXIF orientation.
+     * @throws IOException if the image could not be read.
+     */
+    public static BitmapFactory.Options readBounds(Context context, Uri imageUri) throws IOException {
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        try (InputStream in = context.getContentResolver().openInputStream(imageUri)) {
+            if (in == null) {
+                throw new IOException("Could not open " + imageUri);
+            }
+            BitmapFactory.decodeStream(in, null, bounds);
+        }
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+            throw new IOException("Not a readable image: " + imageUri);
+        }
+        return bounds;
+    }
+
+    /**
+     * Decodes an image region by region into a bitmap of the planned size and config, turning each
+     * region upright on the way, so no intermediate larger than a tile is allocated.
+     */
+    private static Bitmap decodeTiled(Context context, Uri imageUri, MemoryGovernor.DecodePlan plan) throws IOException {
+        // Maps source pixels to the upright, subsampled bitmap.
+        Matrix toTarget = new Matrix();
+        toTarget.setScale(1f / plan.sampleSize, 1f / plan.sampleSize);
+        Matrix orientation = orientationMatrix(getExifOrientation(imageUri, context.getContentResolver()));
+        if (orientation != null) {
+            toTarget.postConcat(orientation);
+        }
+        RectF targetBounds = new RectF(0, 0, plan.sourceWidth, plan.sourceHeight);
+        toTarget.mapRect(targetBounds);
+        toTarget.postTranslate(-targetBounds.left, -targetBounds.top);
+
+        Bitmap target = Bitmap.createBitmap(Math.max(1, Math.round(targetBounds.width())),
+                Math.max(1, Math.round(targetBounds.height())), plan.config);
+        Canvas canvas = new Canvas(target);
+        Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = plan.sampleSize;
+        options.inPreferredConfig = plan.config;
+        int step = MemoryGovernor.TILE_SIZE * plan.sampleSize;
+        Rect region = new Rect();
+        Matrix tileMatrix = new Matrix();
+        try (InputStream in = context.getContentResolver().openInputStream(imageUri)) {
+            if (in == null) {
+                throw new IOException("Could not open " + imageUri);
+            }
+            BitmapRegionDecoder decoder = newRegionDecoder(in);
+            try {
+                for (int top = 0; top < plan.sourceHeight; top += step) {
+                    for (int left = 0; left < plan.sourceWidth; left += step) {
+                        region.set(left, top, Math.min(left + step, plan.sourceWidth), Math.min(top + step, plan.sourceHeight));
+                        Bitmap tile = decoder.decodeRegion(region, options);
+                        if (tile == null) {
+                            throw new IOException("Could not decode " + region + " of " + imageUri);
+                        }
+                        tileMatrix.setScale((float) region.width() / tile.getWidth(), (float) region.height() / tile.getHeight());
+                        tileMatrix.postTranslate(left, top);
+                        tileMatrix.postConcat(toTarget);
+                        canvas.drawBitmap(tile, tileMatrix, paint);
+                        tile.recycle();
+                    }
+                }
+            } finally {
+                decoder.recycle();
+            }
+        }
+        return target;
+    }
+
+    @SuppressWarnings("deprecation")
+    private static BitmapRegionDecoder newRegionDecoder(InputStream in) throws IOException {
+        BitmapRegionDecoder decoder = Build.VERSION.SDK_INT >= Build.VERSION_CODES.S
+                ? BitmapRegionDecoder.newInstance(in)
+                : BitmapRegionDecoder.newInstance(in, false);
+        if (decoder == null) {
+            throw new IOException("Image can't be decoded by region");
+        }
+        return decoder;
+    }
+
+    /**
+     * Scales detections, e.g. from a bitmap decoded smaller than its file to the file's pixels.
+     *
+     * @param recognitions the detections.
+     * @param scale        the factor to multiply their coordinates by.
+     * @return the scaled detections, or the same list if the scale is 1.
+     */
+    public static List<Detector.Recognition> scaleRecognitions(List<Detector.Recognition> recognitions, float scale) {
+        if (scale == 1f) {
+            return recognitions;
+        }
+        List<Detector.Recognition> scaled = new ArrayList<>(recognitions.size());
+        for (Detector.Recognition recognition : recognitions) {
+            RectF location = recognition.getLocation();
+            location.set(location.left * scale, location.top * scale, location.right * scale, location.bottom * scale);
+            scaled.add(new Detector.Recognition(recognition.getId(), recognition.getTitle(), recognition.getConfidence(), location));
+        }
+        return scaled;
+    }
 }
@@ -0,0 +1,111 @@
+package com.ody.di.utils;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps detection labels to class IDs and back, using the label file shipped with the model. A class
+ * ID is the zero-based line index of the label in the file.
+ *
+ * @author Debidutt Prasad
+ */
+public final class LabelMap {
+
+    private static final String TAG = "LabelMap";
+
+    /**
+     * Label file of the bundled model, relative to the assets folder.
+     */
+    public static final String LABEL_FILE = "labelfruit.txt";
+
+    /**
+     * Class ID used for labels that aren't in the label file.
+     */
+    public static final int UNKNOWN_CLASS_ID = -1;
+
+    private static volatile LabelMap INSTANCE;
+
+    private final List<String> labels;
+    private final Map<String, Integer> classIds;
+
+    private LabelMap(List<String> labels) {
+        this.labels = Collections.unmodifiableList(labels);
+        this.classIds = new HashMap<>();
+        for (int i = 0; i < labels.size(); i++) {
+            classIds.put(labels.get(i), i);
+        }
+    }
+
+    /**
+     * Retrieves the label map of the bundled model, reading the label file on first use.
+     *
+     * @param context The context used to open the assets.
+     * @return The singleton label map.
+     */
+    public static LabelMap getInstance(Context context) {
+        if (INSTANCE == null) {
+            synchronized (LabelMap.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new LabelMap(readLabels(context));
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the class ID of a label.
+     *
+     * @param label The detected label.
+     * @return The class ID, or {@link #UNKNOWN_CLASS_ID} if the label isn't known.
+     */
+    public int classIdOf(String label) {
+        Integer classId = classIds.get(label);
+        return classId == null ? UNKNOWN_CLASS_ID : classId;
+    }
+
+    /**
+     * Returns the label of a class ID.
+     *
+     * @param classId The class ID.
+     * @return The label, or null if the class ID isn't known.
+     */
+    public String labelOf(int classId) {
+        return classId >= 0 && classId < labels.size() ? labels.get(classId) : null;
+    }
+
+    /**
+     * Returns all labels, indexed by class ID.
+     *
+     * @return The labels of the model.
+     */
+    public List<String> getLabels() {
+        return labels;
+    }
+
+    private static List<String> readLabels(Context context) {
+        List<String> labels = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                context.getAssets().open(LABEL_FILE), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.trim().isEmpty()) {
+                    labels.add(line.trim());
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot read " + LABEL_FILE, e);
+        }
+        return labels;
+    }
+}
@@ -0,0 +1,426 @@
+package com.ody.di.utils;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Debug;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.reactivex.rxjava3.core.Completable;
+import io.reactivex.rxjava3.core.Observable;
+
+/**
+ * Keeps the images of the analysis pipeline within memory limits, so decoding never allocates
+ * more than the process can hold. The Java heap and the native heap, where bitmap pixels live, are
+ * budgeted separately, each against its own limit: the heap against a share of the heap limit, and
+ * bitmaps against the memory the system can spare before it considers itself low on memory,
+ * optionally capped by a fixed budget.
+ *
+ * <p>Every decode is {@link #plan planned} against the bitmap budget, counting the bytes promised
+ * to decodes in progress. When the image doesn't fit at the requested size, the governor degrades
+ * in order: it lowers the decode size, down to the detector's input size; then it decodes in tiles,
+ * which avoids the full-size intermediate of formats the platform can't subsample while decoding,
+ * and for display also halves the bitmap with {@link Bitmap.Config#RGB_565}; then it frees what it
+ * can and tries once more. A decode that still doesn't fit fails with an {@link IOException}, like
+ * any unreadable image, instead of running out of memory. Batch jobs
+ * {@link #deferWhileUnderPressure defer} their next image while either budget is more than
+ * {@value #PRESSURE_PERCENT}% used and decodes in progress still hold memory.</p>
+ *
+ * @author Debidutt Prasad
+ */
+public final class MemoryGovernor {
+
+    private static final String TAG = "MemoryGovernor";
+
+    /**
+     * Share of the heap limit the app may use by default, in percent.
+     */
+    public static final int DEFAULT_HEAP_PERCENT = 75;
+
+    /**
+     * Share of a budget above which batch jobs are deferred, in percent.
+     */
+    public static final int PRESSURE_PERCENT = 75;
+
+    /**
+     * Size in pixels below which the longer side of a decode is not reduced: the detector's input.
+     */
+    public static final int MIN_DIMENSION = DetectionModel.INPUT_SIZE;
+
+    /**
+     * Side in decoded pixels of the tiles of a tiled decode.
+     */
+    public static final int TILE_SIZE = 512;
+
+    // A decoded tile and the region decoder's buffers.
+    private static final long TILE_BYTES = 2L * TILE_SIZE * TILE_SIZE * 4;
+
+    // How often a deferred batch job checks the pressure again, and how long it waits at most.
+    private static final long DEFER_POLL_MS = 500;
+    private static final long MAX_DEFER_MS = 30_000;
+
+    // Formats the platform decoders subsample line by line, without a full-size intermediate.
+    private static final Set<String> SUBSAMPLED_FORMATS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "image/jpeg", "image/png", "image/webp", "image/gif", "image/bmp")));
+
+    private static volatile MemoryGovernor INSTANCE;
+
+    private final ActivityManager activityManager;
+    private final List<Runnable> reclaimers = new CopyOnWriteArrayList<>();
+    private volatile long heapBudget = defaultHeapBudget();
+    // Fixed cap on native memory, or 0 to follow the memory the system can spare.
+    private volatile long bitmapCap;
+
+    // Bytes promised to decodes in progress; guarded by this.
+    private long reserved;
+
+    // Private constructor to enforce the singleton.
+    private MemoryGovernor(Context context) {
+        activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        Metrics metrics = Metrics.getInstance();
+        metrics.gauge("memory.heapBudgetBytes", () -> heapBudget);
+        metrics.gauge("memory.bitmapBudgetBytes", this::getBitmapBudget);
+        metrics.gauge("memory.bitmapUsedBytes", Debug::getNativeHeapAllocatedSize);
+        metrics.gauge("memory.reservedBytes", this::getReserved);
+    }
+
+    /**
+     * Retrieves the process-wide governor, creating it on first use.
+     *
+     * @param context Any context; the application context is kept.
+     * @return The singleton governor.
+     */
+    public static MemoryGovernor getInstance(Context context) {
+        if (INSTANCE == null) {
+            synchronized (MemoryGovernor.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new MemoryGovernor(context.getApplicationContext());
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the number of Java heap bytes the app may use.
+     *
+     * @return The heap budget.
+     */
+    public long getHeapBudget() {
+        return heapBudget;
+    }
+
+    /**
+     * Sets the number of Java heap bytes the app may use.
+     *
+     * @param bytes The budget, or 0 for {@value #DEFAULT_HEAP_PERCENT}% of the heap limit.
+     */
+    public void setHeapBudget(long bytes) {
+        heapBudget = bytes > 0 ? bytes : defaultHeapBudget();
+        Log.d(TAG, "setHeapBudget: " + heapBudget / 1024 + " KiB");
+    }
+
+    /**
+     * Returns the Java heap bytes in use now.
+     *
+     * @return The heap usage.
+     */
+    public long getHeapUsage() {
+        return heapUsage();
+    }
+
+    /**
+     * Returns the number of native bytes, which hold the pixels of software bitmaps, the app may use
+     * now: what it uses plus what the system can spare, and at most the cap if one is set.
+     *
+     * @return The bitmap budget.
+     */
+    public long getBitmapBudget() {
+        long limit = Debug.getNativeHeapAllocatedSize() + systemHeadroom();
+        long cap = bitmapCap;
+        return cap > 0 ? Math.min(cap, limit) : limit;
+    }
+
+    /**
+     * Caps the number of native bytes the app may use. Takes effect on the next decode.
+     *
+     * @param bytes The cap, or 0 to follow the memory the system can spare.
+     */
+    public void setBitmapBudget(long bytes) {
+        bitmapCap = Math.max(bytes, 0);
+        Log.d(TAG, "setBitmapBudget: " + (bitmapCap > 0 ? bitmapCap / 1024 + " KiB" : "system"));
+    }
+
+    /**
+     * Returns the native bytes in use now, which hold the pixels of software bitmaps.
+     *
+     * @return The bitmap usage, not counting decodes in progress.
+     */
+    public long getBitmapUsage() {
+        return Debug.getNativeHeapAllocatedSize();
+    }
+
+    /**
+     * Tells whether the heap or the bitmap budget, decodes in progress included, is more than
+     * {@value #PRESSURE_PERCENT}% used, in which case batch work should wait.
+     *
+     * @return True if memory is under pressure.
+     */
+    public boolean isUnderPressure() {
+        return heapUsage() > heapBudget / 100 * PRESSURE_PERCENT
+                || getBitmapUsage() + getReserved() > getBitmapBudget() / 100 * PRESSURE_PERCENT;
+    }
+
+    /**
+     * Registers an action that frees memory on request, e.g. by clearing a cache. Actions run on the
+     * thread of a decode that doesn't fit otherwise and must not decode themselves.
+     *
+     * @param reclaimer The action.
+     */
+    public void addReclaimer(Runnable reclaimer) {
+        reclaimers.add(reclaimer);
+    }
+
+    /**
+     * Plans a decode at the largest size, up to the requested one, that fits the bitmap budget, and
+     * reserves its bytes until the plan is closed. Close the plan once the bitmap exists, typically
+     * with try-with-resources.
+     *
+     * @param width        Width in pixels of the encoded image.
+     * @param height       Height in pixels of the encoded image.
+     * @param mimeType     MIME type of the encoded image, or null if unknown.
+     * @param maxDimension The size in pixels the longer side should not exceed by more than 2x.
+     * @param display      Whether the bitmap is for display only, so its pixels may be stored in a
+     *                     denser config.
+     * @return The plan.
+     * @throws IOException if the image doesn't fit the budget at any size.
+     */
+    public DecodePlan plan(int width, int height, String mimeType, int maxDimension, boolean display)
+            throws IOException {
+        if (width <= 0 || height <= 0) {
+            throw new IOException("Image size unknown: " + width + "x" + height);
+        }
+        int longerSide = Math.max(width, height);
+        int requested = sampleSizeFor(longerSide, maxDimension);
+        int smallest = Math.max(requested, sampleSizeFor(longerSide, Math.min(maxDimension, MIN_DIMENSION)));
+        long intermediate = SUBSAMPLED_FORMATS.contains(mimeType) ? 0 : (long) width * height * 4;
+        DecodePlan plan = reserve(width, height, requested, smallest, intermediate, display, bitmapHeadroom());
+        if (plan == null) {
+            // Outside the lock: other decodes keep planning while this one frees memory.
+            reclaim();
+            plan = reserve(width, height, requested, smallest, intermediate, display, bitmapHeadroom());
+        }
+        if (plan == null) {
+            Metrics.getInstance().counter("memory.refused").increment();
+            throw new IOException("A " + width + "x" + height + " image doesn't fit the budget: "
+                    + getBitmapUsage() / 1024 + " KiB used, " + getReserved() / 1024 + " KiB reserved of "
+                    + getBitmapBudget() / 1024 + " KiB");
+        }
+        if (plan.sampleSize > requested) {
+            Metrics.getInstance().counter("memory.reduced").increment();
+        }
+        if (plan.tiled) {
+            Metrics.getInstance().counter("memory.tiled").increment();
+        }
+        if (plan.sampleSize > requested || plan.tiled) {
+            Log.d(TAG, "plan: " + width + "x" + height + " " + mimeType + " degraded to " + plan);
+        }
+        return plan;
+    }
+
+    /**
+     * Delays a batch job while memory is under pressure and decodes in progress still hold memory,
+     * for at most {@value #MAX_DEFER_MS} ms. Waiting only helps while those decodes finish; after
+     * that the job goes on, its decodes still planned within the budget.
+     *
+     * @param job Name of the job, for the log.
+     * @return Completes when the job may go on, on the I/O pool if it had to wait.
+     */
+    public Completable deferWhileUnderPressure(String job) {
+        return Completable.defer(() -> {
+            if (!mustWait()) {
+                return Completable.complete();
+            }
+            Metrics.getInstance().counter("memory.deferred").increment();
+            Log.d(TAG, "defer: " + job + " waits, " + getReserved() / 1024 + " KiB reserved");
+            return Observable.interval(DEFER_POLL_MS, TimeUnit.MILLISECONDS, RxSchedulers.io())
+                    .takeUntil(tick -> !mustWait())
+                    .take(MAX_DEFER_MS / DEFER_POLL_MS)
+                    .ignoreElements();
+        });
+    }
+
+    private boolean mustWait() {
+        return getReserved() > 0 && isUnderPressure();
+    }
+
+    // Plans the decode within the headroom left by decodes in progress and reserves its bytes, or
+    // returns null if it doesn't fit.
+    private synchronized DecodePlan reserve(int width, int height, int requested, int smallest, long intermediate,
+                                            boolean display, long headroom) {
+        DecodePlan plan = fit(width, height, requested, smallest, intermediate, display, headroom - reserved);
+        if (plan != null) {
+            reserved += plan.bytes;
+        }
+        return plan;
+    }
+
+    // Lowers the decode size first, then tiles; returns null if neither fits.
+    private DecodePlan fit(int width, int height, int requested, int smallest, long intermediate, boolean display,
+                           long headroom) {
+        for (int sampleSize = requested; sampleSize <= smallest; sampleSize *= 2) {
+            long bytes = bitmapBytes(width, height, sampleSize, Bitmap.Config.ARGB_8888) + intermediate;
+            if (bytes <= headroom) {
+                return new DecodePlan(this, width, height, sampleSize, Bitmap.Config.ARGB_8888, false, bytes);
+            }
+        }
+        Bitmap.Config config = display ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+        for (int sampleSize = requested; sampleSize <= smallest; sampleSize *= 2) {
+            long bytes = bitmapBytes(width, height, sampleSize, config) + TILE_BYTES;
+            if (bytes <= headroom) {
+                return new DecodePlan(this, width, height, sampleSize, config, true, bytes);
+            }
+        }
+        return null;
+    }
+
+    // Runs the reclaimers and collects the garbage, which frees the pixels of unreachable bitmaps.
+    private void reclaim() {
+        for (Runnable reclaimer : reclaimers) {
+            reclaimer.run();
+        }
+        Runtime.getRuntime().gc();
+        System.runFinalization();
+        Metrics.getInstance().counter("memory.reclaimed").increment();
+    }
+
+    // Native bytes the budget leaves, not counting decodes in progress. Asks the system, so call it
+    // outside the lock.
+    private long bitmapHeadroom() {
+        return getBitmapBudget() - getBitmapUsage();
+    }
+
+    // Memory the system can spare before it considers itself low on memory.
+    private long systemHeadroom() {
+        ActivityManager.MemoryInfo memoryInfo = new ActivityManager.MemoryInfo();
+        activityManager.getMemoryInfo(memoryInfo);
+        return Math.max(0, memoryInfo.availMem - memoryInfo.threshold);
+    }
+
+    private synchronized long getReserved() {
+        return reserved;
+    }
+
+    private synchronized void release(long bytes) {
+        reserved -= bytes;
+    }
+
+    private static long heapUsage() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long defaultHeapBudget() {
+        return Runtime.getRuntime().maxMemory() / 100 * DEFAULT_HEAP_PERCENT;
+    }
+
+    // The smallest power of two that brings the longer side below twice the target.
+    private static int sampleSizeFor(int longerSide, int maxDimension) {
+        int sampleSize = 1;
+        while (longerSide / (sampleSize * 2) >= maxDimension) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    private static long bitmapBytes(int width, int height, int sampleSize, Bitmap.Config config) {
+        long pixels = (long) ((width + sampleSize - 1) / sampleSize) * ((height + sampleSize - 1) / sampleSize);
+        return pixels * (config == Bitmap.Config.RGB_565 ? 2 : 4);
+    }
+
+    /**
+     * Bytes held for an allocation in progress, returned to the budget on close.
+     */
+    public static class Reservation implements AutoCloseable {
+        private final MemoryGovernor governor;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        /**
+         * Number of bytes reserved.
+         */
+        public final long bytes;
+
+        Reservation(MemoryGovernor governor, long bytes) {
+            this.governor = governor;
+            this.bytes = bytes;
+        }
+
+        /**
+         * Returns the bytes to the budget. Call once the allocation exists, as it is counted as usage
+         * from then on. Closing twice has no effect.
+         */
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                governor.release(bytes);
+            }
+        }
+    }
+
+    /**
+     * How to decode an image within the budget, holding the bytes the decode needs.
+     */
+    public static final class DecodePlan extends Reservation {
+
+        /**
+         * Width in pixels of the encoded image.
+         */
+        public final int sourceWidth;
+
+        /**
+         * Height in pixels of the encoded image.
+         */
+        public final int sourceHeight;
+
+        /**
+         * Power of two the image is subsampled by.
+         */
+        public final int sampleSize;
+
+        /**
+         * Config of the decoded bitmap. {@link Bitmap.Config#RGB_565} only for tiled display decodes.
+         */
+        public final Bitmap.Config config;
+
+        /**
+         * Whether the image is decoded region by region into the bitmap, see
+         * {@link android.graphics.BitmapRegionDecoder}.
+         */
+        public final boolean tiled;
+
+        DecodePlan(MemoryGovernor governor, int sourceWidth, int sourceHeight, int sampleSize, Bitmap.Config config,
+                   boolean tiled, long bytes) {
+            super(governor, bytes);
+            this.sourceWidth = sourceWidth;
+            this.sourceHeight = sourceHeight;
+            this.sampleSize = sampleSize;
+            this.config = config;
+            this.tiled = tiled;
+        }
+
+        @Override
+        public String toString() {
+            return "1/" + sampleSize + " " + config + (tiled ? " in tiles" : "") + ", " + bytes / 1024 + " KiB";
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package com.ody.di.utils;
+
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A fixed-size thread pool with a bounded or unbounded queue that measures its tasks: how many wait,
+ * how long they wait before starting, how long they run, and how often the queue overflowed. A
+ * bounded pool pushes back instead of refusing work while its queue is full: a background thread
+ * runs the task itself, and the main thread, which must not run database or file work, waits for a
+ * free slot. Tasks are only refused, with a {@link RejectedExecutionException}, once the pool is
+ * shut down. Threads are named after the pool and run at the given Android thread priority.
+ *
+ * @author Debidutt Prasad
+ */
+public class MeteredExecutor extends ThreadPoolExecutor {
+
+    private static final String TAG = "MeteredExecutor";
+
+    /**
+     * Queue capacity of a pool that never refuses a task while it runs.
+     */
+    public static final int UNBOUNDED = 0;
+
+    /**
+     * A point-in-time view of the pool's metrics.
+     */
+    public static final class Metrics {
+        /**
+         * Name of the pool.
+         */
+        public final String name;
+
+        /**
+         * Threads currently running a task.
+         */
+        public final int activeThreads;
+
+        /**
+         * Tasks submitted but not started yet, including those waiting in serial lanes.
+         */
+        public final long queueDepth;
+
+        /**
+         * Tasks completed since the pool was created.
+         */
+        public final long completed;
+
+        /**
+         * Tasks that found the queue full since the pool was created, and ran on or waited in the
+         * submitting thread.
+         */
+        public final long rejected;
+
+        /**
+         * Mean and maximum time between submission and start, in milliseconds.
+         */
+        public final double meanWaitMs;
+        public final double maxWaitMs;
+
+        /**
+         * Mean and maximum run time, in milliseconds.
+         */
+        public final double meanRunMs;
+        public final double maxRunMs;
+
+        Metrics(String name, int activeThreads, long queueDepth, long completed, long rejected,
+                double meanWaitMs, double maxWaitMs, double meanRunMs, double maxRunMs) {
+            this.name = name;
+            this.activeThreads = activeThreads;
+            this.queueDepth = queueDepth;
+            this.completed = completed;
+            this.rejected = rejected;
+            this.meanWaitMs = meanWaitMs;
+            this.maxWaitMs = maxWaitMs;
+            this.meanRunMs = meanRunMs;
+            this.maxRunMs = maxRunMs;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: active=%d queued=%d completed=%d rejected=%d wait=%.1f/%.1fms run=%.1f/%.1fms",
+                    name, activeThreads, queueDepth, completed, rejected, meanWaitMs, maxWaitMs, meanRunMs, maxRunMs);
+        }
+    }
+
+    private final String name;
+    private final LongAdder pending = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final LongAdder totalRunNanos = new LongAdder();
+    private final LongAccumulator maxWaitNanos = new LongAccumulator(Long::max, 0);
+    private final LongAccumulator maxRunNanos = new LongAccumulator(Long::max, 0);
+
+    /**
+     * Constructor for the MeteredExecutor.
+     *
+     * @param name           Name of the pool, used for its threads and metrics.
+     * @param threads        Number of threads.
+     * @param queueCapacity  Maximum number of queued tasks, or {@link #UNBOUNDED}.
+     * @param threadPriority Android thread priority of the pool's threads, e.g.
+     *                       {@link Process#THREAD_PRIORITY_BACKGROUND}.
+     */
+    public MeteredExecutor(String name, int threads, int queueCapacity, int threadPriority) {
+        super(threads, threads, 30, TimeUnit.SECONDS,
+                queueCapacity == UNBOUNDED ? new LinkedBlockingQueue<>() : new ArrayBlockingQueue<>(queueCapacity),
+                threadFactory(name, threadPriority));
+        this.name = name;
+        allowCoreThreadTimeOut(true);
+        setRejectedExecutionHandler(this::overflow);
+    }
+
+    /**
+     * Handles a task that didn't fit in the queue. Runs it on the submitting thread, or on the main
+     * thread blocks until the queue has room for it.
+     */
+    private void overflow(Runnable task, ThreadPoolExecutor executor) {
+        if (executor.isShutdown()) {
+            if (task instanceof TimedRunnable) {
+                pending.decrement();
+            }
+            throw new RejectedExecutionException(name + " is shut down");
+        }
+        rejected.increment();
+        if (!Looper.getMainLooper().isCurrentThread()) {
+            Log.w(TAG, name + " queue is full, running a task on " + Thread.currentThread().getName());
+            task.run();
+            return;
+        }
+        Log.w(TAG, name + " queue is full, the main thread waits for room");
+        try {
+            executor.getQueue().put(task);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            if (task instanceof TimedRunnable) {
+                pending.decrement();
+            }
+            throw new RejectedExecutionException(name + " queue is full and the main thread was interrupted", e);
+        }
+        // A queue that was full had busy threads, but make sure one is there to take the task.
+        executor.prestartCoreThread();
+    }
+
+    /**
+     * Runs a task on the pool, recording how long it waited and ran.
+     *
+     * @param command The task.
+     * @throws RejectedExecutionException if the pool is shut down.
+     */
+    @Override
+    public void execute(Runnable command) {
+        super.execute(command instanceof TimedRunnable ? command : timed(command));
+    }
+
+    /**
+     * Returns the current metrics of the pool.
+     *
+     * @return A snapshot of the metrics.
+     */
+    public Metrics getMetrics() {
+        long done = Math.max(1, completed.sum());
+        return new Metrics(name, getActiveCount(), pending.sum(), completed.sum(), rejected.sum(),
+                totalWaitNanos.sum() / 1e6 / done, maxWaitNanos.get() / 1e6,
+                totalRunNanos.sum() / 1e6 / done, maxRunNanos.get() / 1e6);
+    }
+
+    /**
+     * Wraps a task so that its wait and run time count towards this pool. Used by
+     * {@link SerialExecutor} for tasks that wait in a lane rather than in the pool's queue.
+     */
+    TimedRunnable timed(Runnable task) {
+        pending.increment();
+        return new TimedRunnable(task);
+    }
+
+    /**
+     * Forgets a task created by {@link #timed(Runnable)} that will never run.
+     */
+    void discard(TimedRunnable task) {
+        pending.decrement();
+    }
+
+    /**
+     * Submits a task without measuring it, for the drain loops of serial lanes.
+     */
+    void executeUntimed(Runnable command) {
+        super.execute(command);
+    }
+
+    /**
+     * A task that records its wait and run time when it runs.
+     */
+    final class TimedRunnable implements Runnable {
+        private final Runnable task;
+        private final long submittedNanos = System.nanoTime();
+
+        TimedRunnable(Runnable task) {
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            long startNanos = System.nanoTime();
+            pending.decrement();
+            totalWaitNanos.add(startNanos - submittedNanos);
+            maxWaitNanos.accumulate(startNanos - submittedNanos);
+            try {
+                task.run();
+            } finally {
+                long runNanos = System.nanoTime() - startNanos;
+                totalRunNanos.add(runNanos);
+                maxRunNanos.accumulate(runNanos);
+                completed.increment();
+            }
+        }
+    }
+
+    private static ThreadFactory threadFactory(String name, int threadPriority) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> new Thread(() -> {
+            Process.setThreadPriority(threadPriority);
+            runnable.run();
+        }, name + "-" + count.incrementAndGet());
+    }
+}
@@ -0,0 +1,320 @@
+package com.ody.di.utils;
+
+import android.os.SystemClock;
+import android.os.Trace;
+import android.util.Log;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Process-wide registry of performance metrics: counters, gauges and latency histograms, all
+ * recorded without locks, so instrumenting a hot path costs a few adder increments.
+ *
+ * <p>A {@link Span} times a stage of the pipeline into the histogram of the same name and opens an
+ * {@link Trace} section under that name, so a systrace capture and the registry use the same
+ * vocabulary. Stage names are dotted, e.g. {@code image.decode} or {@code db.insert}.</p>
+ *
+ * <p>{@link #snapshot()} renders every metric, together with the {@link AppExecutors} pools, as
+ * JSON; {@link #dump(File)} writes it to a file in app-private storage.</p>
+ *
+ * @author Debidutt Prasad
+ */
+public final class Metrics {
+
+    private static final String TAG = "Metrics";
+
+    private static volatile Metrics INSTANCE;
+
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+    private final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+
+    // Private constructor to enforce the singleton.
+    private Metrics() {
+        gauge("heap.usedBytes", () -> Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory());
+        gauge("heap.maxBytes", () -> Runtime.getRuntime().maxMemory());
+    }
+
+    /**
+     * Retrieves the process-wide registry, creating it on first use.
+     *
+     * @return The singleton registry.
+     */
+    public static Metrics getInstance() {
+        if (INSTANCE == null) {
+            synchronized (Metrics.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new Metrics();
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the counter of the given name, creating it on first use.
+     *
+     * @param name Name of the counter.
+     * @return The counter.
+     */
+    public Counter counter(String name) {
+        return counters.computeIfAbsent(name, key -> new Counter());
+    }
+
+    /**
+     * Registers a gauge, read each time a snapshot is taken. Replaces any gauge of the same name.
+     *
+     * @param name  Name of the gauge.
+     * @param value Supplies the current value; must be cheap and thread-safe.
+     */
+    public void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    /**
+     * Returns the histogram of the given name, creating it on first use.
+     *
+     * @param name Name of the histogram.
+     * @return The histogram.
+     */
+    public Histogram histogram(String name) {
+        return histograms.computeIfAbsent(name, key -> new Histogram());
+    }
+
+    /**
+     * Starts timing a stage on the current thread. Close the span on the same thread, typically with
+     * try-with-resources.
+     *
+     * @param name Name of the stage, used for the histogram and the trace section.
+     * @return The running span.
+     */
+    public Span span(String name) {
+        return new Span(name, histogram(name));
+    }
+
+    /**
+     * Renders every metric and the executor pools as JSON. Durations are in milliseconds.
+     *
+     * @return The snapshot.
+     */
+    public String snapshot() {
+        JsonObject root = new JsonObject();
+        root.addProperty("timestamp", System.currentTimeMillis());
+        root.addProperty("uptimeMs", SystemClock.elapsedRealtime());
+
+        JsonObject counterValues = new JsonObject();
+        for (Map.Entry<String, Counter> entry : new TreeMap<>(counters).entrySet()) {
+            counterValues.addProperty(entry.getKey(), entry.getValue().get());
+        }
+        root.add("counters", counterValues);
+
+        JsonObject gaugeValues = new JsonObject();
+        for (Map.Entry<String, LongSupplier> entry : new TreeMap<>(gauges).entrySet()) {
+            gaugeValues.addProperty(entry.getKey(), entry.getValue().getAsLong());
+        }
+        root.add("gauges", gaugeValues);
+
+        JsonObject histogramValues = new JsonObject();
+        for (Map.Entry<String, Histogram> entry : new TreeMap<>(histograms).entrySet()) {
+            histogramValues.add(entry.getKey(), entry.getValue().toJson());
+        }
+        root.add("histograms", histogramValues);
+
+        JsonArray executors = new JsonArray();
+        for (MeteredExecutor.Metrics pool : AppExecutors.getInstance().getMetrics()) {
+            executors.add(gson.toJsonTree(pool));
+        }
+        root.add("executors", executors);
+        return gson.toJson(root);
+    }
+
+    /**
+     * Writes a {@link #snapshot()} to a file, replacing it. Call on a background thread.
+     *
+     * @param file The file to write, e.g. in {@code getFilesDir()}.
+     * @throws IOException if the file could not be written.
+     */
+    public void dump(File file) throws IOException {
+        String json = snapshot();
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            writer.write(json);
+        }
+        Log.d(TAG, "dump: " + json.length() + " chars written to " + file);
+    }
+
+    /**
+     * A monotonically increasing count.
+     */
+    public static final class Counter {
+        private final LongAdder value = new LongAdder();
+
+        Counter() {
+        }
+
+        /**
+         * Adds one.
+         */
+        public void increment() {
+            value.increment();
+        }
+
+        /**
+         * Adds the given amount.
+         *
+         * @param amount The amount, not negative.
+         */
+        public void add(long amount) {
+            value.add(amount);
+        }
+
+        /**
+         * Returns the current count.
+         *
+         * @return The count.
+         */
+        public long get() {
+            return value.sum();
+        }
+    }
+
+    /**
+     * A distribution of durations in microseconds, kept in log-linear buckets: four buckets per power
+     * of two, so a percentile is reported within 25% of the recorded value. Recording increments
+     * one adder per field and never allocates.
+     */
+    public static final class Histogram {
+        // Values below 4 get a bucket each; above, 4 sub-buckets per power of two up to 2^42 us.
+        private static final int SUB_BUCKETS = 4;
+        private static final int MAX_EXPONENT = 42;
+        private static final int BUCKETS = SUB_BUCKETS + (MAX_EXPONENT - 1) * SUB_BUCKETS;
+
+        private final LongAdder[] buckets = new LongAdder[BUCKETS];
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Long::max, 0);
+
+        Histogram() {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        /**
+         * Records a duration.
+         *
+         * @param micros The duration in microseconds; negative values count as 0.
+         */
+        public void record(long micros) {
+            long value = Math.max(0, micros);
+            buckets[bucketOf(value)].increment();
+            count.increment();
+            sum.add(value);
+            max.accumulate(value);
+        }
+
+        /**
+         * Returns the number of recorded durations.
+         *
+         * @return The count.
+         */
+        public long count() {
+            return count.sum();
+        }
+
+        /**
+         * Estimates a percentile as the upper bound of the bucket holding it, capped at the maximum.
+         *
+         * @param percentile The percentile, from 0 to 100.
+         * @return The estimate in microseconds, or 0 if nothing was recorded.
+         */
+        public long percentile(double percentile) {
+            long total = count.sum();
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets[i].sum();
+                if (seen >= rank) {
+                    return Math.min(upperBoundOf(i), max.get());
+                }
+            }
+            return max.get();
+        }
+
+        JsonObject toJson() {
+            long total = count.sum();
+            JsonObject json = new JsonObject();
+            json.addProperty("count", total);
+            json.addProperty("meanMs", total == 0 ? 0 : sum.sum() / 1e3 / total);
+            json.addProperty("p50Ms", percentile(50) / 1e3);
+            json.addProperty("p90Ms", percentile(90) / 1e3);
+            json.addProperty("p99Ms", percentile(99) / 1e3);
+            json.addProperty("maxMs", max.get() / 1e3);
+            return json;
+        }
+
+        private static int bucketOf(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            if (exponent >= MAX_EXPONENT + 1) {
+                return BUCKETS - 1;
+            }
+            int sub = (int) (value >>> (exponent - 2)) & (SUB_BUCKETS - 1);
+            return SUB_BUCKETS + (exponent - 2) * SUB_BUCKETS + sub;
+        }
+
+        private static long upperBoundOf(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int exponent = (bucket - SUB_BUCKETS) / SUB_BUCKETS + 2;
+            int sub = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+            long width = 1L << (exponent - 2);
+            return (SUB_BUCKETS + sub) * width + width - 1;
+        }
+    }
+
+    /**
+     * A stage being timed, with its trace section open.
+     */
+    public static final class Span implements AutoCloseable {
+        private final Histogram histogram;
+        private final long startNanos;
+
+        Span(String name, Histogram histogram) {
+            this.histogram = histogram;
+            Trace.beginSection(name);
+            this.startNanos = System.nanoTime();
+        }
+
+        /**
+         * Records the stage's duration and closes its trace section.
+         */
+        @Override
+        public void close() {
+            histogram.record((System.nanoTime() - startNanos) / 1000);
+            Trace.endSection();
+        }
+    }
+}
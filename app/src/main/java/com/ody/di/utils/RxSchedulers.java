@@ -0,0 +1,129 @@
+package com.ody.di.utils;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import io.reactivex.rxjava3.android.schedulers.AndroidSchedulers;
+import io.reactivex.rxjava3.core.Scheduler;
+import io.reactivex.rxjava3.core.Single;
+import io.reactivex.rxjava3.core.SingleTransformer;
+import io.reactivex.rxjava3.schedulers.Schedulers;
+
+/**
+ * RxJava schedulers backed by the {@link AppExecutors} pools, so reactive chains run on the same
+ * bounded, metered threads as the rest of the app and each {@code subscribeOn}/{@code observeOn} hop
+ * shows up in the pool's wait and run times.
+ *
+ * <p>The schedulers are fair: every scheduled task goes to the pool on its own rather than in a
+ * batch, so one chain can't hold a pool thread while others wait.</p>
+ *
+ * <p>A full pool pushes back rather than refusing a hop, see {@link MeteredExecutor}. Should a pool
+ * still refuse one, the hop runs on the scheduling thread instead of being handed to RxJava's global
+ * error handler, so the chain goes on and its subscriber gets its success or error.</p>
+ *
+ * @author Debidutt Prasad
+ */
+public final class RxSchedulers {
+
+    private static final String TAG = "RxSchedulers";
+
+    private static volatile Scheduler inference;
+    private static volatile Scheduler database;
+    private static volatile Scheduler io;
+
+    /**
+     * Returns the scheduler of the inference pool.
+     *
+     * @return The inference scheduler.
+     */
+    public static Scheduler inference() {
+        if (inference == null) {
+            synchronized (RxSchedulers.class) {
+                if (inference == null) {
+                    inference = Schedulers.from(neverRefusing(AppExecutors.getInstance().inference()), false, true);
+                }
+            }
+        }
+        return inference;
+    }
+
+    /**
+     * Returns the scheduler of the database pool.
+     *
+     * @return The database scheduler.
+     */
+    public static Scheduler database() {
+        if (database == null) {
+            synchronized (RxSchedulers.class) {
+                if (database == null) {
+                    database = Schedulers.from(neverRefusing(AppExecutors.getInstance().database()), false, true);
+                }
+            }
+        }
+        return database;
+    }
+
+    /**
+     * Returns the scheduler of the I/O pool.
+     *
+     * @return The I/O scheduler.
+     */
+    public static Scheduler io() {
+        if (io == null) {
+            synchronized (RxSchedulers.class) {
+                if (io == null) {
+                    io = Schedulers.from(neverRefusing(AppExecutors.getInstance().io()), false, true);
+                }
+            }
+        }
+        return io;
+    }
+
+    /**
+     * Returns the scheduler of the main thread, where chains hand their results to LiveData.
+     *
+     * @return The main thread scheduler.
+     */
+    public static Scheduler main() {
+        return AndroidSchedulers.mainThread();
+    }
+
+    /**
+     * Logs when a stage of a chain delivers its value: how long after the chain was subscribed, and
+     * on which thread. Composed after each stage, the differences between consecutive lines give the
+     * cost of each stage including the hop to its scheduler.
+     *
+     * @param tag   Log tag of the caller.
+     * @param stage Name of the stage.
+     * @param <T>   Type of the value.
+     * @return A transformer that passes values through unchanged.
+     */
+    public static <T> SingleTransformer<T, T> traceStage(String tag, String stage) {
+        return upstream -> Single.defer(() -> {
+            long subscribedAt = SystemClock.elapsedRealtime();
+            return upstream.doOnSuccess(value -> Log.d(tag, stage + ": done at "
+                    + (SystemClock.elapsedRealtime() - subscribedAt) + "ms on " + Thread.currentThread().getName()));
+        });
+    }
+
+    /**
+     * Wraps a pool so that a task it refuses runs on the submitting thread.
+     */
+    private static Executor neverRefusing(MeteredExecutor pool) {
+        return task -> {
+            try {
+                pool.execute(task);
+            } catch (RejectedExecutionException e) {
+                Log.w(TAG, "Running a refused task on " + Thread.currentThread().getName(), e);
+                task.run();
+            }
+        };
+    }
+
+    // Private constructor to prevent instantiation.
+    private RxSchedulers() {
+    }
+}
@@ -0,0 +1,94 @@
+package com.ody.di.utils;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs tasks one at a time, in submission order, on the threads of a shared {@link MeteredExecutor}.
+ * Components that rely on their tasks never overlapping (the write queue, the history pager, storage
+ * maintenance) get that guarantee without owning a thread. A lane occupies at most one pool thread,
+ * and only while it has work.
+ *
+ * <p>The lane's own queue is unbounded so that accepted work, such as a save, is never dropped; only
+ * waking an idle lane goes through the pool's bounded queue and rejection policy.</p>
+ *
+ * @author Debidutt Prasad
+ */
+public final class SerialExecutor implements Executor {
+
+    private final MeteredExecutor pool;
+    private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+    private boolean draining;
+
+    /**
+     * Constructor for the SerialExecutor.
+     *
+     * @param pool The pool to run the tasks on.
+     */
+    public SerialExecutor(MeteredExecutor pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Appends a task to the lane.
+     *
+     * @param task The task.
+     * @throws RejectedExecutionException if the lane was idle and the pool rejected waking it.
+     */
+    @Override
+    public void execute(Runnable task) {
+        MeteredExecutor.TimedRunnable timed = pool.timed(task);
+        synchronized (this) {
+            tasks.add(timed);
+            if (draining) {
+                return;
+            }
+            draining = true;
+        }
+        try {
+            pool.executeUntimed(this::drain);
+        } catch (RejectedExecutionException e) {
+            synchronized (this) {
+                draining = false;
+                tasks.remove(timed);
+            }
+            pool.discard(timed);
+            throw e;
+        }
+    }
+
+    private void drain() {
+        Runnable next;
+        while ((next = poll()) != null) {
+            boolean completed = false;
+            try {
+                next.run();
+                completed = true;
+            } finally {
+                if (!completed) {
+                    // The task threw and takes this pool thread down; the rest of the lane moves on.
+                    resubmit();
+                }
+            }
+        }
+    }
+
+    private synchronized Runnable poll() {
+        Runnable next = tasks.poll();
+        if (next == null) {
+            draining = false;
+        }
+        return next;
+    }
+
+    private void resubmit() {
+        synchronized (this) {
+            if (tasks.isEmpty()) {
+                draining = false;
+                return;
+            }
+        }
+        pool.executeUntimed(this::drain);
+    }
+}
@@ -3,33 +3,77 @@ package com.ody.di.viewmodel;
 import android.app.Application;
 import android.content.Context;
 import android.net.Uri;
+import android.os.Environment;
 import android.util.Log;
+import android.util.LruCache;
 
-import com.ody.di.database.entities.Analysis;
+import com.ody.di.database.AnalysisDatabase;
+import com.ody.di.database.AnalysisImageRef;
+import com.ody.di.database.ImportProgress;
+import com.ody.di.database.SearchQuery;
+import com.ody.di.repository.AnalysisHistoryPager;
 import com.ody.di.repository.AnalysisRepository;
+import com.ody.di.repository.DetectionBackfill;
+import com.ody.di.repository.HistoryArchive;
+import com.ody.di.repository.ImportQueue;
+import com.ody.di.repository.Reanalysis;
+import com.ody.di.repository.StorageManager;
 import com.ody.di.ui.model.AnalysesModel;
+import com.ody.di.utils.AppExecutors;
+import com.ody.di.utils.Metrics;
+import com.ody.di.utils.RxSchedulers;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 import androidx.annotation.NonNull;
 import androidx.core.content.FileProvider;
 import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.LiveData;
+import androidx.lifecycle.LiveDataReactiveStreams;
+import androidx.lifecycle.MutableLiveData;
 
 /**
  * ViewModel for handling operations related to analyses.
- * Provides data required for the UI and communicates with the AnalysisRepository.
+ * Provides the paged and searchable analysis history required for the UI and deletes selected
+ * analyses in bulk.
  *
  * @author Debidutt Prasad
  */
 public class AnalysesViewModel extends AndroidViewModel {
+   private final AnalysisHistoryPager<AnalysesModel> historyPager;
+   private final File storageDir;
    private final AnalysisRepository analysisRepository;
-   private final LiveData<List<Analysis>> analyses;
+   private final MutableLiveData<Integer> deletedCount = new MutableLiveData<>();
+   private final MutableLiveData<HistoryArchive.Result> archiveResult = new MutableLiveData<>();
+   private final MutableLiveData<Boolean> archiveFailed = new MutableLiveData<>();
+   private final LiveData<ImportProgress> importProgress;
+   private final HistoryArchive.Listener archiveListener = new HistoryArchive.Listener() {
+      @Override
+      public void onFinished(HistoryArchive.Result result) {
+         archiveResult.postValue(result);
+      }
+
+      @Override
+      public void onFailed(Exception error) {
+         archiveFailed.postValue(true);
+      }
+   };
 
    private final static String TAG = "AnalysesViewModel";
 
+   // Snapshot of the performance metrics, written to app-private storage when the history closes.
+   private static final String METRICS_FILE = "metrics.json";
+
+   // Number of image URIs remembered by the mapper; a few screens' worth of pages.
+   private static final int URI_CACHE_SIZE = 8 * AnalysisHistoryPager.PAGE_SIZE;
+
+   // Content URIs of images known to exist, by image reference. Only touched on the pager's loader lane.
+   private final LruCache<String, Uri> imageUris = new LruCache<>(URI_CACHE_SIZE);
+
    /**
     * Constructor to instantiate an AnalysesViewModel.
     *
@@ -37,43 +81,166 @@ public class AnalysesViewModel extends AndroidViewModel {
     */
    public AnalysesViewModel(@NonNull Application application) {
       super(application);
+      storageDir = application.getExternalFilesDir(Environment.DIRECTORY_PICTURES);
       analysisRepository = new AnalysisRepository(application);
-      analyses = analysisRepository.getAllAnalyses();
+      historyPager = new AnalysisHistoryPager<>(AnalysisDatabase.getDatabase(application), this::mapper);
+      StorageManager.getInstance(application).runMaintenance();
+      DetectionBackfill.getInstance(application).runIfNeeded();
+      ImportQueue importQueue = ImportQueue.getInstance(application);
+      importProgress = LiveDataReactiveStreams.fromPublisher(importQueue.observeProgress().observeOn(RxSchedulers.main()));
+      importQueue.resume();
+      Reanalysis.getInstance(application).runIfNeeded();
    }
 
    /**
-    * Converts a list of {@link Analysis} to a list of {@link AnalysesModel}.
+    * Converts a history row to an {@link AnalysesModel}. Called on the pager's loader thread.
+    * Resolved URIs are remembered, so reloading the history after an insert or delete doesn't check
+    * and resolve every loaded image again, and unchanged rows map to equal models.
     *
-    * @param analyses    List of {@link Analysis} from the database.
-    * @param storageDir  Directory where the images are stored.
-    * @return A list of {@link AnalysesModel} containing URI references to the images.
+    * @param analysis History row from the database.
+    * @return The {@link AnalysesModel} containing a URI reference to the image, or no URI if the
+    * image doesn't exist.
     */
-   public List<AnalysesModel> mapper(List<Analysis> analyses, File storageDir) {
-      List<AnalysesModel> modelList = new ArrayList<>();
+   private AnalysesModel mapper(AnalysisImageRef analysis) {
+      Uri contentUri = imageUris.get(analysis.imageReference);
+      if (contentUri != null) {
+         return new AnalysesModel(analysis.serialNumber, String.valueOf(analysis.serialNumber), contentUri);
+      }
 
       Context appContext = getApplication().getApplicationContext();
       String fileProviderString = appContext.getPackageName() + ".fileprovider";
 
-      for (Analysis analysis : analyses) {
-         File file = new File(storageDir, analysis.imageReference);
-         if (file.exists()) {
-            Uri contentUri = FileProvider.getUriForFile(appContext, fileProviderString, file);
-            AnalysesModel analysedModel = new AnalysesModel(String.valueOf(analysis.serialNumber), contentUri);
-            modelList.add(analysedModel);
-         } else {
-            Log.d(TAG, "mapper: analysed image doesn't exist");
-            // You could also notify your view about this issue
-         }
+      File file = new File(storageDir, analysis.imageReference);
+      if (file.exists()) {
+         contentUri = FileProvider.getUriForFile(appContext, fileProviderString, file);
+         imageUris.put(analysis.imageReference, contentUri);
+      } else {
+         // StorageManager reconciliation flags the row as image_missing and it drops out of the history.
+         Log.d(TAG, "mapper: analysed image doesn't exist");
+      }
+      return new AnalysesModel(analysis.serialNumber, String.valueOf(analysis.serialNumber), contentUri);
+   }
+
+   /**
+    * Get LiveData reference to the paged history.
+    *
+    * @return LiveData of the loaded rows and the total row count.
+    */
+   public LiveData<AnalysisHistoryPager.Snapshot<AnalysesModel>> getHistory() {
+      return historyPager.getSnapshot();
+   }
+
+   /**
+    * Restricts the history to analyses whose labels or note match the given text, by word prefix.
+    *
+    * @param text The search text; blank text shows the whole history again.
+    */
+   public void search(String text) {
+      historyPager.setQuery(SearchQuery.toMatchExpression(text));
+   }
+
+   /**
+    * Called by the grid when a position is bound, so further pages are loaded ahead of scrolling.
+    *
+    * @param position The bound adapter position.
+    */
+   public void onPositionBound(int position) {
+      historyPager.onPositionBound(position);
+   }
+
+   /**
+    * Deletes the given analyses in the background. The history reloads by itself once the rows
+    * are gone, and the number of deleted analyses is posted to {@link #getDeletedCount()}.
+    *
+    * @param serialNumbers The serial numbers of the analyses to delete.
+    */
+   public void deleteAnalyses(Collection<Long> serialNumbers) {
+      List<Long> toDelete = new ArrayList<>(serialNumbers);
+      AppExecutors.getInstance().database().execute(() -> {
+         analysisRepository.deleteAnalyses(toDelete);
+         deletedCount.postValue(toDelete.size());
+      });
+   }
+
+   /**
+    * Get LiveData reference to the number of analyses removed by the last bulk delete.
+    *
+    * @return LiveData of the deleted count.
+    */
+   public LiveData<Integer> getDeletedCount() {
+      return deletedCount;
+   }
+
+   /**
+    * Exports the whole history to the given document in the background. The outcome is posted to
+    * {@link #getArchiveResult()} or {@link #getArchiveFailed()}.
+    *
+    * @param destination The document to write the archive to.
+    */
+   public void exportHistory(Uri destination) {
+      HistoryArchive.getInstance(getApplication()).exportTo(destination, archiveListener);
+   }
+
+   /**
+    * Imports a history archive from the given document in the background. The outcome is posted to
+    * {@link #getArchiveResult()} or {@link #getArchiveFailed()}.
+    *
+    * @param source The archive document.
+    */
+   public void importHistory(Uri source) {
+      HistoryArchive.getInstance(getApplication()).importFrom(source, archiveListener);
+   }
+
+   /**
+    * Get LiveData reference to the outcome of the last export or import.
+    *
+    * @return LiveData of the archive result.
+    */
+   public LiveData<HistoryArchive.Result> getArchiveResult() {
+      return archiveResult;
+   }
+
+   /**
+    * Get LiveData reference to failures of exports and imports.
+    *
+    * @return LiveData that becomes true when an export or import failed.
+    */
+   public LiveData<Boolean> getArchiveFailed() {
+      return archiveFailed;
+   }
+
+   /**
+    * Queues images picked from the gallery for analysis in the background. Progress is reported
+    * through {@link #getImportProgress()}.
+    *
+    * @param images The picked images.
+    */
+   public void importImages(List<Uri> images) {
+      if (!images.isEmpty()) {
+         ImportQueue.getInstance(getApplication()).enqueue(images);
       }
-      return modelList;
    }
 
    /**
-    * Get LiveData reference to the list of {@link Analysis}.
+    * Get LiveData reference to the progress of the gallery import.
     *
-    * @return LiveData reference of list of {@link Analysis}.
+    * @return LiveData of the import progress.
     */
-   public LiveData<List<Analysis>> getAnalyses() {
-      return analyses;
+   public LiveData<ImportProgress> getImportProgress() {
+      return importProgress;
+   }
+
+   @Override
+   protected void onCleared() {
+      historyPager.close();
+      AppExecutors.getInstance().logMetrics();
+      File metricsFile = new File(getApplication().getFilesDir(), METRICS_FILE);
+      AppExecutors.getInstance().io().execute(() -> {
+         try {
+            Metrics.getInstance().dump(metricsFile);
+         } catch (IOException e) {
+            Log.w(TAG, "onCleared: metrics could not be written", e);
+         }
+      });
    }
 }
@@ -0,0 +1,185 @@
+package com.ody.di.viewmodel;
+
+import android.graphics.Bitmap;
+import android.net.Uri;
+
+import com.ody.di.utils.AnalysisTiming;
+
+import org.tensorflow.lite.examples.detection.tflite.Detector;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable state of the analysis screen. The {@link AnalysisViewModel} emits a new instance once
+ * per transition and the activity renders it as a whole, so a configuration change or a repeated
+ * emission redraws the same state instead of redoing any work.
+ *
+ * <pre>
+ * LOADING --inferred--> INFERRED --saved--> SAVED
+ * LOADING --fetched---> SAVED
+ * LOADING --failed----> ERROR
+ * </pre>
+ *
+ * @author Debidutt Prasad
+ */
+public final class AnalysisUiState {
+
+    /**
+     * The screen's states.
+     */
+    public enum Status {
+        /**
+         * The detector, the image or a stored analysis is being loaded, or inference is running.
+         */
+        LOADING,
+
+        /**
+         * A new image was analyzed and can be saved.
+         */
+        INFERRED,
+
+        /**
+         * The analysis shown is stored; it can be annotated or deleted.
+         */
+        SAVED,
+
+        /**
+         * The analysis could not be produced or loaded.
+         */
+        ERROR
+    }
+
+    private static final AnalysisUiState LOADING = new AnalysisUiState(Status.LOADING, null, null,
+            Collections.emptyList(), null, false, 0, null, false);
+
+    /**
+     * The current state.
+     */
+    public final Status status;
+
+    /**
+     * The image to show. The detections are drawn over it unless {@link #imageAnnotated}.
+     */
+    public final Bitmap image;
+
+    /**
+     * Where the stored image of a saved analysis was loaded from; null for a new analysis.
+     */
+    public final Uri imageUri;
+
+    /**
+     * The detections, never null.
+     */
+    public final List<Detector.Recognition> recognitions;
+
+    /**
+     * How long a new analysis took; null for a stored one.
+     */
+    public final AnalysisTiming timing;
+
+    /**
+     * True if the image has the detections drawn in, as stored images saved before they were kept
+     * as is do.
+     */
+    public final boolean imageAnnotated;
+
+    /**
+     * Serial number of a saved analysis, or 0.
+     */
+    public final long serialNumber;
+
+    /**
+     * The user's note on a saved analysis, or null.
+     */
+    public final String note;
+
+    /**
+     * True while a new analysis is being saved.
+     */
+    public final boolean saving;
+
+    private AnalysisUiState(Status status, Bitmap image, Uri imageUri, List<Detector.Recognition> recognitions,
+                            AnalysisTiming timing, boolean imageAnnotated, long serialNumber, String note,
+                            boolean saving) {
+        this.status = status;
+        this.image = image;
+        this.imageUri = imageUri;
+        this.recognitions = recognitions;
+        this.timing = timing;
+        this.imageAnnotated = imageAnnotated;
+        this.serialNumber = serialNumber;
+        this.note = note;
+        this.saving = saving;
+    }
+
+    /**
+     * Returns the loading state.
+     *
+     * @return The loading state.
+     */
+    public static AnalysisUiState loading() {
+        return LOADING;
+    }
+
+    /**
+     * Returns the state of a newly analyzed image.
+     *
+     * @param image        The analyzed image.
+     * @param recognitions The detections.
+     * @param timing       How long the analysis took.
+     * @return The inferred state.
+     */
+    public static AnalysisUiState inferred(Bitmap image, List<Detector.Recognition> recognitions, AnalysisTiming timing) {
+        return new AnalysisUiState(Status.INFERRED, image, null, Collections.unmodifiableList(recognitions), timing,
+                false, 0, null, false);
+    }
+
+    /**
+     * Returns the state of a stored analysis.
+     *
+     * @param serialNumber   The serial number of the analysis.
+     * @param image          The analyzed image of a just saved analysis, or the decoded stored image.
+     * @param imageUri       The stored image, or null for a just saved analysis.
+     * @param recognitions   The detections.
+     * @param imageAnnotated Whether the image has the detections drawn in.
+     * @param note           The user's note, or null.
+     * @return The saved state.
+     */
+    public static AnalysisUiState saved(long serialNumber, Bitmap image, Uri imageUri,
+                                        List<Detector.Recognition> recognitions, boolean imageAnnotated, String note) {
+        return new AnalysisUiState(Status.SAVED, image, imageUri, Collections.unmodifiableList(recognitions), null,
+                imageAnnotated, serialNumber, note, false);
+    }
+
+    /**
+     * Returns the error state.
+     *
+     * @return The error state.
+     */
+    public static AnalysisUiState error() {
+        return new AnalysisUiState(Status.ERROR, null, null, Collections.emptyList(), null, false, 0, null, false);
+    }
+
+    /**
+     * Returns this inferred state with its saving flag changed.
+     *
+     * @param saving Whether a save is running.
+     * @return The updated state.
+     */
+    public AnalysisUiState withSaving(boolean saving) {
+        return new AnalysisUiState(status, image, imageUri, recognitions, timing, imageAnnotated, serialNumber, note,
+                saving);
+    }
+
+    /**
+     * Returns this saved state with its note changed.
+     *
+     * @param note The user's note, or null.
+     * @return The updated state.
+     */
+    public AnalysisUiState withNote(String note) {
+        return new AnalysisUiState(status, image, imageUri, recognitions, timing, imageAnnotated, serialNumber, note,
+                saving);
+    }
+}
@@ -2,235 +2,387 @@ package com.ody.di.viewmodel;
 
 import android.app.Application;
 import android.graphics.Bitmap;
-import android.icu.text.SimpleDateFormat;
 import android.net.Uri;
 import android.os.Environment;
+import android.os.SystemClock;
 import android.util.Log;
 
+import com.ody.di.database.DetectionArrays;
+import com.ody.di.database.DetectionCodec;
+import com.ody.di.database.DetectionMapper;
 import com.ody.di.database.entities.Analysis;
+import com.ody.di.repository.AnalysisCache;
 import com.ody.di.repository.AnalysisRepository;
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
+import com.ody.di.repository.AnalysisWriteQueue;
+import com.ody.di.repository.DecodedImageCache;
+import com.ody.di.repository.SerialNumberAllocator;
+import com.ody.di.repository.StorageManager;
+import com.ody.di.utils.AnalysisTiming;
+import com.ody.di.utils.AppExecutors;
+import com.ody.di.utils.DetectionModel;
+import com.ody.di.utils.ImageUtils;
+import com.ody.di.utils.LabelMap;
+import com.ody.di.utils.RxSchedulers;
 
 import org.tensorflow.lite.examples.detection.tflite.Detector;
-import org.tensorflow.lite.examples.detection.tflite.TFLiteObjectDetectionAPIModel;
 
 import java.io.File;
 import java.io.IOException;
-import java.lang.reflect.Type;
-import java.util.Date;
 import java.util.List;
-import java.util.Locale;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 import androidx.annotation.NonNull;
 import androidx.core.content.FileProvider;
 import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
-
-import static com.ody.di.utils.Constants.YYYYMMDDHHMMSS;
-import static com.ody.di.utils.ImageUtils.rotateBitmap;
-import static com.ody.di.utils.ImageUtils.uriToBitmap;
+import io.reactivex.rxjava3.core.Single;
+import io.reactivex.rxjava3.disposables.CompositeDisposable;
+import io.reactivex.rxjava3.disposables.Disposable;
 
 /**
  * ViewModel for handling operations related to analyses.
  * Provides methods for detector operations, image processing, and database operations via AnalysisRepository.
  *
+ * <p>The screen is driven by a single {@link AnalysisUiState}, emitted once per transition. Each
+ * image is analyzed at most once per view model: asking again for the image being or already
+ * analyzed, as happens when the activity is recreated, only re-renders the current state.</p>
+ *
+ * <p>Detector loading, decoding, inference and loads run as chains held in one
+ * {@link CompositeDisposable}, which {@link #onCleared()} disposes: a chain stops at its next
+ * scheduler hop, so an abandoned analysis doesn't infer or post anything once the user has left.
+ * Deletes and note edits are not part of it, as the user asked for them explicitly; a save already
+ * handed to the {@link AnalysisWriteQueue} is still written, only its result is dropped.</p>
+ *
  * @author Debidutt Prasad
  */
 public class AnalysisViewModel extends AndroidViewModel {
+    private static final String TAG = "AnalysisViewModel";
     private final AnalysisRepository analysisRepository;
-    private Detector detector;
+    private final AnalysisWriteQueue writeQueue;
+    private final SerialNumberAllocator serialNumbers;
+    private final StorageManager storageManager;
+    private final DecodedImageCache imageCache;
+    private final SpeculativeAnalysis speculativeAnalysis;
+    private final LabelMap labelMap;
+    private final DetectorFactory detectorFactory;
     private final Application application;
 
+    // Created on first use and only touched on the inference thread.
+    private Detector detector;
+
+    // Decoding, inference, loads and save results for this screen; disposed when the screen goes away.
+    private final CompositeDisposable disposables = new CompositeDisposable();
+
+    // The image or stored analysis this view model was asked for; main thread only.
+    private Uri requestedImage;
+    private long requestedSerialNumber;
+    private Disposable currentLoad;
+
     // LiveData declarations
-    private final MutableLiveData<Boolean> isDetectorInitialized = new MutableLiveData<>();
-    private final MutableLiveData<Uri> imageUri = new MutableLiveData<>();
-    private final MutableLiveData<Bitmap> processedImage = new MutableLiveData<>();
-    private final MutableLiveData<List<Detector.Recognition>> detectedObjects = new MutableLiveData<>();
+    private final MutableLiveData<AnalysisUiState> uiState = new MutableLiveData<>(AnalysisUiState.loading());
     private final MutableLiveData<Boolean> deletionSuccess = new MutableLiveData<>();
-    private final MutableLiveData<Boolean> saveButtonVisibility = new MutableLiveData<>();
-    private final MutableLiveData<Boolean> deleteButtonVisibility = new MutableLiveData<>();
     private final MutableLiveData<Boolean> insertionSuccess = new MutableLiveData<>();
 
+    /**
+     * Creates the detector that analyzes images. Called at most once per view model, on the
+     * inference thread.
+     */
+    public interface DetectorFactory {
+        /**
+         * Creates a detector.
+         *
+         * @return The detector.
+         * @throws IOException if the model could not be loaded.
+         */
+        Detector create() throws IOException;
+    }
+
+    // A stored analysis as read from the database, before its image is decoded.
+    private static final class StoredAnalysis {
+        final Uri imageUri;
+        final int imageWidth;
+        final List<Detector.Recognition> recognitions;
+        final boolean imageAnnotated;
+        final String note;
+
+        StoredAnalysis(Uri imageUri, int imageWidth, List<Detector.Recognition> recognitions, boolean imageAnnotated,
+                       String note) {
+            this.imageUri = imageUri;
+            this.imageWidth = imageWidth;
+            this.recognitions = recognitions;
+            this.imageAnnotated = imageAnnotated;
+            this.note = note;
+        }
+    }
+
     // Constructor
     public AnalysisViewModel(@NonNull Application application, @NonNull AnalysisRepository analysisRepository) {
-        super(application);
-        this.analysisRepository = analysisRepository;
-        this.application = application;
+        this(application, analysisRepository, defaultDetectorFactory(application));
     }
 
-    // Various LiveData getters and other methods...
-
     /**
-     * Checks if the image path saved in SharedPreferences exists and updates the imageUri LiveData.
+     * Returns the factory of the app's detector, the bundled {@link DetectionModel}.
+     *
+     * @param application The application, to read the model from the assets.
+     * @return The detector factory.
      */
-    public void checkSavedImagePath() {
-        String storedString = analysisRepository.getImageCapturedPath();
-        File file = new File(storedString);
-        if (file.exists()) {
-            imageUri.setValue(Uri.fromFile(file));
-        }
+    public static DetectorFactory defaultDetectorFactory(Application application) {
+        return () -> DetectionModel.create(application);
     }
 
     /**
-     * Deletes an analysis entry based on its serial number.
+     * Constructor for the AnalysisViewModel with a given detector, e.g. a fake one in tests.
      *
-     * @param serialNumber The serial number of the analysis entry to be deleted.
+     * @param application        The application.
+     * @param analysisRepository The repository of stored analyses.
+     * @param detectorFactory    Creates the detector on first use.
      */
-    public void deleteAnalysis(long serialNumber) {
-        ExecutorService executor = Executors.newSingleThreadExecutor();
-        executor.execute(() -> {
-            int result = analysisRepository.deleteAnalysisBySerialNumber(serialNumber);
-            deletionSuccess.postValue(result > 0);
-        });
+    public AnalysisViewModel(@NonNull Application application, @NonNull AnalysisRepository analysisRepository,
+                             @NonNull DetectorFactory detectorFactory) {
+        super(application);
+        this.analysisRepository = analysisRepository;
+        this.application = application;
+        this.detectorFactory = detectorFactory;
+        this.writeQueue = AnalysisWriteQueue.getInstance(application);
+        this.serialNumbers = SerialNumberAllocator.getInstance(application);
+        this.storageManager = StorageManager.getInstance(application);
+        this.imageCache = DecodedImageCache.getInstance(application);
+        this.speculativeAnalysis = SpeculativeAnalysis.getInstance(application);
+        this.labelMap = LabelMap.getInstance(application);
     }
 
     /**
-     * Conduct inference on the provided image Uri, performing necessary preprocessing.
+     * Gets the LiveData of the screen's state.
      *
-     * @param uri The Uri of the image to be processed.
+     * @return LiveData of the current UI state.
      */
-    public void doInference(Uri uri) {
-        // Conversion and rotation logic...
-
-        Bitmap bitmap = uriToBitmap(this.getApplication(), uri);
-        Bitmap rotatedBitmap = rotateBitmap(this.getApplication(), bitmap, uri); // implement this method
-        List<Detector.Recognition> results = detector.recognizeImage(rotatedBitmap); // implement detector method
-        processedImage.setValue(rotatedBitmap);
-        detectedObjects.setValue(results);
+    public LiveData<AnalysisUiState> getUiState() {
+        return uiState;
     }
 
     /**
-     * Gets the LiveData indicating if the detector is initialized.
+     * Gets the LiveData indicating the success status of data insertion.
      *
-     * @return LiveData indicating detector initialization status.
+     * @return LiveData indicating insertion success status.
      */
-    public LiveData<Boolean> getIsDetectorInitialized() {
-        return isDetectorInitialized;
+    public LiveData<Boolean> getInsertionSuccess() {
+        return insertionSuccess;
     }
 
     /**
-     * Gets the LiveData of the processed image bitmap.
+     * Gets the LiveData indicating the success status of data deletion.
      *
-     * @return LiveData containing the processed image.
+     * @return LiveData indicating deletion success status.
+     */
+    public LiveData<Boolean> getDeletionSuccess() {
+        return deletionSuccess;
+    }
+
+    /**
+     * Analyzes the image last captured by the camera, whose path is saved in SharedPreferences.
+     * Moves to the error state if there is no such image.
      */
-    public LiveData<Bitmap> getProcessedImage() {
-        return processedImage;
+    public void analyzeCapturedImage() {
+        File file = new File(analysisRepository.getImageCapturedPath());
+        if (!file.exists()) {
+            Log.w(TAG, "analyzeCapturedImage: " + file + " doesn't exist");
+            uiState.setValue(AnalysisUiState.error());
+            return;
+        }
+        storageManager.markViewed(file);
+        analyzeImage(Uri.fromFile(file));
     }
 
     /**
-     * Gets the LiveData of the list of detected objects from the image.
+     * Conduct inference on the provided image Uri, performing necessary preprocessing, unless this
+     * image is already being or has been analyzed. If the snap screen started a
+     * {@link SpeculativeAnalysis} of this image, its result is used, as soon as it is ready.
+     * Otherwise the image comes from the {@link DecodedImageCache}, decoded on the I/O pool if
+     * needed, while the detector is created on the inference pool; inference itself runs on the
+     * inference pool and the resulting state reaches the LiveData on the main thread. The image is
+     * left as is; the screen draws the detections over it. The time spent in each stage is kept in
+     * the state's {@link AnalysisTiming} and stored with the analysis. Every hop checks for
+     * disposal, so the chain stops at the next stage if the screen goes away. Must be called on the
+     * main thread.
      *
-     * @return LiveData containing the list of detected objects.
+     * @param uri The Uri of the image to be processed.
      */
-    public LiveData<List<Detector.Recognition>> getDetectedObjects() {
-        return detectedObjects;
+    public void analyzeImage(Uri uri) {
+        if (uri.equals(requestedImage)) {
+            return;
+        }
+        requestedImage = uri;
+        long start = SystemClock.elapsedRealtime();
+        long[] decodeMs = new long[1];
+        Single<Bitmap> decode = loadImage(uri).doOnSuccess(image -> decodeMs[0] = SystemClock.elapsedRealtime() - start);
+        startLoad(speculativeAnalysis.take(uri)
+                .map(result -> AnalysisUiState.inferred(result.image, result.recognitions, result.timing))
+                // A failed speculation is retried here, where a second failure reaches the screen.
+                .onErrorComplete()
+                .switchIfEmpty(Single.zip(decode, loadDetector(), (image, loaded) -> image)
+                        .observeOn(RxSchedulers.inference())
+                        .map(image -> {
+                            long inferenceStart = SystemClock.elapsedRealtime();
+                            List<Detector.Recognition> recognitions = detector.recognizeImage(image);
+                            long end = SystemClock.elapsedRealtime();
+                            return AnalysisUiState.inferred(image, recognitions,
+                                    new AnalysisTiming(image, decodeMs[0], end - inferenceStart, end - start));
+                        })
+                        .compose(RxSchedulers.traceStage(TAG, "infer"))), "analyzeImage");
     }
 
     /**
-     * Gets the LiveData indicating if the delete button should be visible.
+     * Loads a stored analysis, unless it is already being or has been loaded. Must be called on the
+     * main thread.
      *
-     * @return LiveData indicating delete button visibility status.
+     * @param serialNumber The serial number of the analysis entry to be fetched.
      */
-    public LiveData<Boolean> getDeleteButtonVisibility() {
-        return deleteButtonVisibility;
+    public void loadAnalysis(long serialNumber) {
+        if (serialNumber == requestedSerialNumber) {
+            return;
+        }
+        requestedSerialNumber = serialNumber;
+        startLoad(Single.fromCallable(() -> {
+                    AnalysisCache.Entry analysis = this.analysisRepository.getDecodedAnalysis(serialNumber);
+                    if (analysis == null) {
+                        throw new IllegalStateException("Analysis " + serialNumber + " doesn't exist");
+                    }
+                    File storageDir = application.getExternalFilesDir(Environment.DIRECTORY_PICTURES);
+                    File imageFile = new File(storageDir, analysis.imageReference);
+                    storageManager.markViewed(imageFile);
+                    Uri uri = FileProvider.getUriForFile(this.getApplication(), this.application.getPackageName() + ".fileprovider", imageFile);
+                    return new StoredAnalysis(uri, ImageUtils.readBounds(application, uri).outWidth,
+                            DetectionMapper.toRecognitions(analysis.detections, labelMap, analysis.legacyJson), analysis.imageAnnotated, analysis.note);
+                })
+                .subscribeOn(RxSchedulers.database())
+                .compose(RxSchedulers.traceStage(TAG, "fetch"))
+                // Under memory pressure the image may be decoded smaller than stored; the detections follow.
+                .flatMap(stored -> imageCache.load(stored.imageUri, imageCache.screenSize(), true)
+                        .map(image -> AnalysisUiState.saved(serialNumber, image, stored.imageUri,
+                                ImageUtils.scaleRecognitions(stored.recognitions, (float) image.getWidth() / stored.imageWidth),
+                                stored.imageAnnotated, stored.note)))
+                .compose(RxSchedulers.traceStage(TAG, "decode")), "loadAnalysis");
     }
 
     /**
-     * Gets the LiveData indicating the success status of data insertion.
-     *
-     * @return LiveData indicating insertion success status.
+     * Saves the analysis of the inferred state. The image is stored as analyzed, without the
+     * detections drawn in, so it can be analyzed again when the model changes; the row records the
+     * {@link DetectionModel} that produced the detections and how long they took. The image and the
+     * row are handed to the {@link AnalysisWriteQueue}, which stores the image under its content
+     * hash off the main thread; the serial number comes from the {@link SerialNumberAllocator},
+     * shared with gallery imports. On success the state moves to saved and insertionSuccess is set;
+     * on failure the analysis can be saved again. Must be called on the main thread.
      */
-    public LiveData<Boolean> getInsertionSuccess() {
-        return insertionSuccess;
+    public void saveAnalysis() {
+        AnalysisUiState state = uiState.getValue();
+        if (state == null || state.status != AnalysisUiState.Status.INFERRED || state.saving) {
+            return;
+        }
+        uiState.setValue(state.withSaving(true));
+        Analysis analysis = new Analysis();
+        DetectionArrays arrays = DetectionMapper.toArrays(state.recognitions, labelMap);
+        analysis.detections = DetectionCodec.encode(arrays);
+        analysis.labels = DetectionMapper.labelsOf(arrays, labelMap);
+        DetectionModel.stamp(analysis);
+        state.timing.applyTo(analysis);
+        disposables.add(Single.fromCallable(serialNumbers::next)
+                .subscribeOn(RxSchedulers.database())
+                .flatMap(serialNumber -> {
+                    analysis.serialNumber = serialNumber;
+                    return writeQueue.save(state.image, analysis, state.recognitions);
+                })
+                .compose(RxSchedulers.traceStage(TAG, "persist"))
+                .observeOn(RxSchedulers.main())
+                .subscribe(serialNumber -> {
+                    uiState.setValue(AnalysisUiState.saved(serialNumber, state.image, null, state.recognitions, false, null));
+                    insertionSuccess.setValue(true);
+                }, error -> {
+                    Log.e(TAG, "saveAnalysis: analysis could not be stored", error);
+                    uiState.setValue(state);
+                    insertionSuccess.setValue(false);
+                }));
     }
 
     /**
-     * Gets the LiveData of the image URI.
+     * Deletes an analysis entry based on its serial number.
      *
-     * @return LiveData containing the image URI.
+     * @param serialNumber The serial number of the analysis entry to be deleted.
      */
-    public LiveData<Uri> getImageUri() {
-        return imageUri;
+    public void deleteAnalysis(long serialNumber) {
+        AppExecutors.getInstance().database().execute(() -> {
+            int result = analysisRepository.deleteAnalysisBySerialNumber(serialNumber);
+            deletionSuccess.postValue(result > 0);
+        });
     }
 
     /**
-     * Gets the LiveData indicating the success status of data deletion.
+     * Stores the user's note on a saved analysis, which makes it searchable, and puts it in the
+     * screen's state so a later render shows the new note. Must be called on the main thread.
      *
-     * @return LiveData indicating deletion success status.
+     * @param serialNumber The serial number of the analysis.
+     * @param text         The note; blank text removes it.
      */
-    public LiveData<Boolean> getDeletionSuccess() {
-        return deletionSuccess;
+    public void updateNote(long serialNumber, String text) {
+        AnalysisUiState state = uiState.getValue();
+        if (state != null && state.status == AnalysisUiState.Status.SAVED && state.serialNumber == serialNumber) {
+            uiState.setValue(state.withNote(text == null || text.trim().isEmpty() ? null : text.trim()));
+        }
+        AppExecutors.getInstance().database().execute(() -> analysisRepository.updateNote(serialNumber, text));
     }
 
-
     /**
-     * Initializes the object detector by loading the TFLite model.
-     * Upon successful initialization, updates the isDetectorInitialized LiveData to true.
-     * If there's an error during initialization, sets isDetectorInitialized to false and logs the error.
+     * Replaces the running load, if any, and moves to the loading state until the new one ends.
      */
-    public void initializeDetector() {
-        new Thread(() -> {
-            try {
-                detector = TFLiteObjectDetectionAPIModel.create(
-                        getApplication(),
-                        "efficientdet_lite2_.tflite",
-                        "labelfruit.txt",
-                        320,
-                        true
-                );
-                isDetectorInitialized.postValue(true);
-                Log.d("log", "Detector initialization success");
-            } catch (final IOException e) {
-                isDetectorInitialized.postValue(false);
-                Log.d("Exception", "Error initializing detector: " + e.getMessage());
-            }
-        }).start();
+    private void startLoad(Single<AnalysisUiState> load, String name) {
+        if (currentLoad != null) {
+            disposables.remove(currentLoad);
+        }
+        uiState.setValue(AnalysisUiState.loading());
+        currentLoad = load
+                .observeOn(RxSchedulers.main())
+                .subscribe(uiState::setValue, error -> {
+                    Log.e(TAG, name + ": failed", error);
+                    uiState.setValue(AnalysisUiState.error());
+                });
+        disposables.add(currentLoad);
     }
 
+    /**
+     * Loads the image to analyze at screen size, upright and with readable pixels. The snap screen
+     * shows the capture through the same cache entry, so it is usually decoded already.
+     */
+    private Single<Bitmap> loadImage(Uri uri) {
+        return imageCache.load(uri, imageCache.screenSize(), false)
+                .compose(RxSchedulers.traceStage(TAG, "decode"));
+    }
 
     /**
-     * Fetch analysis data based on the serial number and update LiveData objects accordingly.
-     *
-     * @param serialNumber The serial number of the analysis entry to be fetched.
+     * Creates the detector on the inference thread if this view model doesn't have one yet.
      */
-    public void fetchAnalysis(long serialNumber) {
-        ExecutorService executor = Executors.newSingleThreadExecutor();
-        executor.execute(() -> {
-            Analysis analysis = this.analysisRepository.getAnalysisBySerialNumber(serialNumber);
-            File storageDir = application.getExternalFilesDir(Environment.DIRECTORY_PICTURES);
-            imageUri.postValue(FileProvider.getUriForFile(this.getApplication(), this.application.getPackageName() + ".fileprovider", new File(storageDir, analysis.imageReference)));
-            Gson gson = new Gson();
-            Type listType = new TypeToken<List<Detector.Recognition>>() {
-            }.getType();
-            List<Detector.Recognition> deserializedList = gson.fromJson(analysis.detectedObjects, listType);
-            detectedObjects.postValue(deserializedList);
-            deleteButtonVisibility.postValue(true);
-            saveButtonVisibility.postValue(false);
-        });
+    private Single<Boolean> loadDetector() {
+        return Single.fromCallable(() -> {
+                    if (detector == null) {
+                        detector = detectorFactory.create();
+                        Log.d(TAG, "Detector initialization success");
+                    }
+                    return true;
+                })
+                .subscribeOn(RxSchedulers.inference())
+                .compose(RxSchedulers.traceStage(TAG, "load detector"));
     }
 
     /**
-     * Saves an analysis entry with the given recognized objects and image filename.
-     *
-     * @param list          List of recognized objects.
-     * @param imageFileName Name of the image file associated with this analysis.
+     * Disposes the screen's analysis chains and releases the detector. The detector is closed on the
+     * inference thread once the stage in progress, if any, has finished with it.
      */
-    public void saveAnalysis(List<Detector.Recognition> list, String imageFileName) {
-        saveButtonVisibility.postValue(false);
-        Analysis analysis = new Analysis();
-        analysis.serialNumber = Long.parseLong(new SimpleDateFormat(YYYYMMDDHHMMSS, Locale.getDefault()).format(new Date()));
-
-        Gson gson = new Gson();
-        analysis.detectedObjects = gson.toJson(list);
-        analysis.imageReference = imageFileName;
-        ExecutorService executor = Executors.newSingleThreadExecutor();
-        executor.execute(() -> {
-            long result = analysisRepository.insertAnalysis(analysis);
-            insertionSuccess.postValue(result != -1);
+    @Override
+    protected void onCleared() {
+        disposables.dispose();
+        AppExecutors.getInstance().inference().execute(() -> {
+            if (detector != null) {
+                detector.close();
+                detector = null;
+            }
         });
     }
 }
@@ -2,17 +2,28 @@ package com.ody.di.viewmodel;
 
 import android.app.Application;
 import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
 import android.net.Uri;
+import android.util.Log;
 
+import com.ody.di.repository.DecodedImageCache;
 import com.ody.di.repository.ImageRepository;
+import com.ody.di.repository.StorageManager;
+import com.ody.di.utils.AppExecutors;
 import com.ody.di.utils.Constants;
+import com.ody.di.utils.RxSchedulers;
+
+import org.tensorflow.lite.examples.detection.tflite.Detector;
 
 import java.io.File;
+import java.io.IOException;
 
 import androidx.core.content.FileProvider;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
 import androidx.lifecycle.ViewModel;
+import io.reactivex.rxjava3.core.Completable;
+import io.reactivex.rxjava3.disposables.CompositeDisposable;
 
 /**
  * ViewModel class for handling UI-related data in the Snap module.
@@ -22,15 +33,29 @@ import androidx.lifecycle.ViewModel;
  */
 public class SnapViewModel extends ViewModel {
 
+    private static final String TAG = "SnapViewModel";
+
     private final MutableLiveData<Uri> imageUriLiveData = new MutableLiveData<>();
     private final MutableLiveData<Boolean> _navigateToAnalysisLiveData = new MutableLiveData<>();
     public LiveData<Boolean> navigateToAnalysisLiveData = _navigateToAnalysisLiveData;
     private final MutableLiveData<Boolean> permissionDeniedLiveData = new MutableLiveData<>();
     private final MutableLiveData<Boolean> isImageCapturedLiveData = new MutableLiveData<>(false);
+    private final MutableLiveData<Bitmap> previewLiveData = new MutableLiveData<>();
+    private final CompositeDisposable disposables = new CompositeDisposable();
 
     private final ImageRepository imageRepository;
+    private final DecodedImageCache imageCache;
+    private final SpeculativeAnalysis speculativeAnalysis;
+    private final AnalysisViewModel.DetectorFactory detectorFactory;
     private final Application application;
 
+    // Runs the speculations of this screen. Created on first use and only touched on the inference thread.
+    private Detector detector;
+
+    // The last capture speculated on and when that speculation is done with the detector; main thread only.
+    private Uri speculatedImage;
+    private Completable speculationDone = Completable.complete();
+
     /**
      * Constructor to initialize the SnapViewModel with necessary dependencies.
      *
@@ -39,6 +64,9 @@ public class SnapViewModel extends ViewModel {
     public SnapViewModel(Application application) {
         this.application = application;
         this.imageRepository = new ImageRepository(application);
+        this.imageCache = DecodedImageCache.getInstance(application);
+        this.speculativeAnalysis = SpeculativeAnalysis.getInstance(application);
+        this.detectorFactory = AnalysisViewModel.defaultDetectorFactory(application);
     }
 
     /**
@@ -77,6 +105,32 @@ public class SnapViewModel extends ViewModel {
         return isImageCapturedLiveData;
     }
 
+    /**
+     * Retrieves the preview of the captured image.
+     *
+     * @return LiveData containing the decoded captured image.
+     */
+    public LiveData<Bitmap> getPreviewLiveData() {
+        return previewLiveData;
+    }
+
+    /**
+     * Handles a successful capture: marks the image as captured, decodes it for the preview in the
+     * background and starts a {@link SpeculativeAnalysis} of it, so its result is usually ready when
+     * the user asks for the analysis. The decode goes through the {@link DecodedImageCache} at the
+     * size and URI the analysis uses, so the preview and the analysis share it.
+     */
+    public void onImageCaptured() {
+        isImageCapturedLiveData.setValue(true);
+        Uri captured = Uri.fromFile(new File(imageRepository.getImagePathFromPrefs()));
+        speculatedImage = captured;
+        speculationDone = speculativeAnalysis.start(captured, this::detector);
+        disposables.add(imageCache.load(captured, imageCache.screenSize(), false)
+                .observeOn(RxSchedulers.main())
+                .subscribe(previewLiveData::setValue,
+                        error -> Log.e(TAG, "onImageCaptured: preview could not be decoded", error)));
+    }
+
     /**
      * Retrieves the LiveData indicating if permission was denied.
      *
@@ -87,9 +141,10 @@ public class SnapViewModel extends ViewModel {
     }
 
     /**
-     * Initiates the camera action.
+     * Initiates the camera action. The analysis of a previous capture, if any, is discarded.
      */
     public void onCameraAction() {
+        speculativeAnalysis.discard();
         createImageAndCapture();
     }
 
@@ -103,6 +158,7 @@ public class SnapViewModel extends ViewModel {
 
             Uri imageUri = FileProvider.getUriForFile(application, Constants.OBJECTDETECTIONIMAGES_FILEPROVIDER, photoFile);
             imageUriLiveData.postValue(imageUri);
+            StorageManager.getInstance(application).enforceBudgetAsync();
         }
     }
 
@@ -139,6 +195,35 @@ public class SnapViewModel extends ViewModel {
     public void resetNavigateToAnalysisLiveData() {
         _navigateToAnalysisLiveData.setValue(false);
     }
-}
 
+    /**
+     * Returns the screen's detector, creating it on first use. Called on the inference thread.
+     */
+    private Detector detector() throws IOException {
+        if (detector == null) {
+            detector = detectorFactory.create();
+            Log.d(TAG, "Detector initialization success");
+        }
+        return detector;
+    }
 
+    /**
+     * Discards the speculation unless the analysis screen took it, and closes the detector on the
+     * inference thread once the speculation, possibly still running for the analysis screen, is done
+     * with it.
+     */
+    @Override
+    protected void onCleared() {
+        super.onCleared();
+        disposables.dispose();
+        if (speculatedImage != null) {
+            speculativeAnalysis.discard(speculatedImage);
+        }
+        speculationDone.subscribe(() -> AppExecutors.getInstance().inference().execute(() -> {
+            if (detector != null) {
+                detector.close();
+                detector = null;
+            }
+        }));
+    }
+}
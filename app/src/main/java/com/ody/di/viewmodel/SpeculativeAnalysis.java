@@ -0,0 +1,202 @@
+package com.ody.di.viewmodel;
+
+import android.app.Application;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.ody.di.repository.DecodedImageCache;
+import com.ody.di.utils.AnalysisTiming;
+import com.ody.di.utils.Metrics;
+import com.ody.di.utils.RxSchedulers;
+
+import org.tensorflow.lite.examples.detection.tflite.Detector;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+import io.reactivex.rxjava3.core.Completable;
+import io.reactivex.rxjava3.core.Maybe;
+import io.reactivex.rxjava3.disposables.Disposable;
+import io.reactivex.rxjava3.subjects.SingleSubject;
+
+/**
+ * Analyzes a capture in the background while the snap screen shows its preview, so that by the time
+ * the user taps "Analyse" the result is usually ready and the analysis screen shows it at once.
+ *
+ * <p>The snap screen {@link #start(Uri, DetectorSource) starts} a speculation when the camera returns
+ * a picture and {@link #discard() discards} it when the user retakes or leaves without analyzing.
+ * The analysis screen
+ * {@link #take(Uri) takes} the result for the image it was asked to analyze; each result is handed
+ * off once. A speculation is only a head start: if there is none for the image, or it failed, the
+ * analysis screen analyzes the image itself.</p>
+ *
+ * <p>The image is decoded through the {@link DecodedImageCache} with the same key as the preview.
+ * Inference runs on the detector of the screen that started the speculation, so retakes don't load
+ * the model again. That screen keeps owning the detector; it closes it once the speculation no longer
+ * needs it, which may be after the screen is gone if the result was handed off.</p>
+ *
+ * <p>All methods must be called on the main thread.</p>
+ *
+ * @author Debidutt Prasad
+ */
+public class SpeculativeAnalysis {
+
+    private static final String TAG = "SpeculativeAnalysis";
+
+    private static volatile SpeculativeAnalysis INSTANCE;
+
+    /**
+     * The result of analyzing an image.
+     */
+    public static final class Result {
+        /**
+         * The analyzed image.
+         */
+        public final Bitmap image;
+
+        /**
+         * The detections.
+         */
+        public final List<Detector.Recognition> recognitions;
+
+        /**
+         * How long the speculation took, from its start.
+         */
+        public final AnalysisTiming timing;
+
+        Result(Bitmap image, List<Detector.Recognition> recognitions, AnalysisTiming timing) {
+            this.image = image;
+            this.recognitions = recognitions;
+            this.timing = timing;
+        }
+    }
+
+    /**
+     * Provides the detector a speculation runs on. Called on the inference thread.
+     */
+    public interface DetectorSource {
+        /**
+         * Returns the detector, creating it if needed. It stays owned by the caller.
+         *
+         * @return The detector.
+         * @throws IOException if the model could not be loaded.
+         */
+        Detector get() throws IOException;
+    }
+
+    private final DecodedImageCache imageCache;
+
+    // The speculation waiting to be taken, if any; main thread only.
+    private Uri pendingImage;
+    private SingleSubject<Result> pendingResult;
+    private Disposable pendingWork;
+
+    private SpeculativeAnalysis(Application application) {
+        this.imageCache = DecodedImageCache.getInstance(application);
+    }
+
+    /**
+     * Retrieves the process-wide speculative analysis, creating it on first use.
+     *
+     * @param application The application used to load the image.
+     * @return The singleton speculative analysis.
+     */
+    public static SpeculativeAnalysis getInstance(Application application) {
+        if (INSTANCE == null) {
+            synchronized (SpeculativeAnalysis.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new SpeculativeAnalysis(application);
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Starts analyzing an image in the background, discarding any earlier speculation.
+     *
+     * @param imageUri  The image, in the form the analysis screen will ask for it.
+     * @param detectors Provides the detector to run the speculation on.
+     * @return A Completable that completes once the speculation is done with the detector, whether it
+     * succeeded, failed or was discarded. Closing the detector on the inference thread after that is
+     * safe.
+     */
+    public Completable start(Uri imageUri, DetectorSource detectors) {
+        discard();
+        SingleSubject<Result> result = SingleSubject.create();
+        pendingImage = imageUri;
+        pendingResult = result;
+        long start = SystemClock.elapsedRealtime();
+        long[] decodeMs = new long[1];
+        pendingWork = imageCache.load(imageUri, imageCache.screenSize(), false)
+                .doOnSuccess(image -> decodeMs[0] = SystemClock.elapsedRealtime() - start)
+                .observeOn(RxSchedulers.inference())
+                .map(image -> {
+                    Detector detector = detectors.get();
+                    long inferenceStart = SystemClock.elapsedRealtime();
+                    List<Detector.Recognition> recognitions = detector.recognizeImage(image);
+                    long end = SystemClock.elapsedRealtime();
+                    return new Result(image, recognitions,
+                            new AnalysisTiming(image, decodeMs[0], end - inferenceStart, end - start));
+                })
+                .compose(RxSchedulers.traceStage(TAG, "speculate"))
+                .subscribe(result::onSuccess, error -> {
+                    Log.w(TAG, "start: speculative analysis of " + imageUri + " failed", error);
+                    result.onError(error);
+                });
+        return result.ignoreElement().onErrorComplete();
+    }
+
+    /**
+     * Drops the pending speculation, if any, stopping it at its next stage. A stage already running
+     * on the inference thread finishes first, so a detector closed on that thread afterwards is safe.
+     */
+    public void discard() {
+        if (pendingWork != null) {
+            pendingWork.dispose();
+        }
+        if (pendingResult != null && !pendingResult.hasValue() && !pendingResult.hasThrowable()) {
+            pendingResult.onError(new CancellationException("Speculation discarded"));
+        }
+        pendingImage = null;
+        pendingResult = null;
+        pendingWork = null;
+    }
+
+    /**
+     * Drops the pending speculation if it is for the given image, that is if it wasn't taken.
+     *
+     * @param imageUri The image the speculation was started for.
+     */
+    public void discard(Uri imageUri) {
+        if (imageUri.equals(pendingImage)) {
+            discard();
+        }
+    }
+
+    /**
+     * Hands off the result of the pending speculation if it is for the given image. A speculation
+     * still running keeps running for the taker and emits when done.
+     *
+     * @param imageUri The image to analyze.
+     * @return The result, or empty if no speculation for this image is pending.
+     */
+    public Maybe<Result> take(Uri imageUri) {
+        return Maybe.defer(() -> {
+            if (pendingResult == null || !pendingImage.equals(imageUri)) {
+                Metrics.getInstance().counter("speculation.miss").increment();
+                return Maybe.empty();
+            }
+            SingleSubject<Result> result = pendingResult;
+            pendingImage = null;
+            pendingResult = null;
+            pendingWork = null;
+            Metrics.getInstance().counter("speculation.hit").increment();
+            Log.d(TAG, "take: handing off " + imageUri + (result.hasValue() ? ", ready" : ", still running"));
+            return result.toMaybe();
+        });
+    }
+}
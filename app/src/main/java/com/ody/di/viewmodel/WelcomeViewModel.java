@@ -2,9 +2,10 @@ package com.ody.di.viewmodel;
 
 import com.ody.di.database.AnalysisDao;
 import com.ody.di.database.AnalysisDatabase;
+import com.ody.di.utils.RxSchedulers;
 
 import androidx.lifecycle.LiveData;
-import androidx.lifecycle.Transformations;
+import androidx.lifecycle.LiveDataReactiveStreams;
 import androidx.lifecycle.ViewModel;
 
 /**
@@ -27,12 +28,17 @@ public class WelcomeViewModel extends ViewModel {
     }
 
     /**
-     * Checks if there are analysis records in the database.
+     * Checks if there are analysis records in the database. Reads the materialized statistics row,
+     * so the answer costs the same whatever the history size. Only changes of the answer reach the
+     * UI, not every insert or delete.
      *
      * @return LiveData indicating if analysis records exist.
      */
     public LiveData<Boolean> hasAnalysisRecords() {
-        return Transformations.map(analysisDao.getAll(), list -> !list.isEmpty());
+        return LiveDataReactiveStreams.fromPublisher(analysisDao.observeStats()
+                .map(stats -> stats.totalAnalyses > 0)
+                .distinctUntilChanged()
+                .observeOn(RxSchedulers.main()));
     }
 }
 
@@ -0,0 +1,137 @@
+package com.ody.di.database;
+
+import com.google.gson.Gson;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Round trip and size checks of the {@link DetectionCodec}, including its size against the Gson
+ * JSON it replaced.
+ */
+public class DetectionCodecTest {
+
+    /**
+     * Same JSON shape Gson produced for a Detector.Recognition, without the Android RectF.
+     */
+    private static class JsonRecognition {
+        String id;
+        String title;
+        Float confidence;
+        JsonBox location;
+    }
+
+    private static class JsonBox {
+        float left;
+        float top;
+        float right;
+        float bottom;
+    }
+
+    private static final String[] LABELS = {"Apple", "kiwi", "pineapple", "watermelon"};
+    private static final int TYPICAL_DETECTIONS = 10;
+
+    @Test
+    public void roundTrip_keepsValuesWithinQuantization() {
+        DetectionArrays original = randomDetections(new Random(1), TYPICAL_DETECTIONS);
+        DetectionArrays decoded = DetectionCodec.decode(DetectionCodec.encode(original));
+
+        assertEquals(original.count, decoded.count);
+        assertArrayEquals(original.classIds, decoded.classIds);
+        assertArrayEquals(original.scores, decoded.scores, 1f / 0xFFFF);
+        assertArrayEquals(original.boxes, decoded.boxes, 0.25f);
+    }
+
+    @Test
+    public void encode_layoutIsHeaderPlusFixedRecords() {
+        byte[] blob = DetectionCodec.encode(randomDetections(new Random(2), 3));
+
+        assertEquals(DetectionCodec.VERSION_1, blob[0]);
+        assertEquals(DetectionCodec.HEADER_BYTES + 3 * DetectionCodec.RECORD_BYTES, blob.length);
+    }
+
+    @Test
+    public void decode_nullIsEmpty() {
+        assertEquals(0, DetectionCodec.decode(null).count);
+        assertEquals(0, DetectionCodec.decode(DetectionCodec.encode(DetectionArrays.EMPTY)).count);
+    }
+
+    @Test
+    public void encode_clampsOutOfRangeValues() {
+        DetectionArrays extreme = new DetectionArrays(new int[]{0}, new float[]{1.5f},
+                new float[]{-100000f, -1f, 100000f, 4000.25f});
+        DetectionArrays decoded = DetectionCodec.decode(DetectionCodec.encode(extreme));
+
+        assertEquals(1f, decoded.scores[0], 0f);
+        assertEquals(Short.MIN_VALUE / 2f, decoded.boxes[0], 0f);
+        assertEquals(Short.MAX_VALUE / 2f, decoded.boxes[2], 0f);
+        assertEquals(4000.5f, decoded.boxes[3], 0.25f);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decode_rejectsUnknownVersion() {
+        byte[] blob = DetectionCodec.encode(randomDetections(new Random(3), 1));
+        blob[0] = 42;
+        DetectionCodec.decode(blob);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decode_rejectsTruncatedBlob() {
+        byte[] blob = DetectionCodec.encode(randomDetections(new Random(4), 2));
+        byte[] truncated = new byte[blob.length - 1];
+        System.arraycopy(blob, 0, truncated, 0, truncated.length);
+        DetectionCodec.decode(truncated);
+    }
+
+    @Test
+    public void encode_isSeveralTimesSmallerThanJson() {
+        DetectionArrays detections = randomDetections(new Random(5), TYPICAL_DETECTIONS);
+
+        int binaryBytes = DetectionCodec.encode(detections).length;
+        int jsonBytes = new Gson().toJson(toJsonRecognitions(detections)).getBytes(StandardCharsets.UTF_8).length;
+
+        assertTrue("Binary rows should be several times smaller than JSON", jsonBytes >= 4 * binaryBytes);
+    }
+
+    private static DetectionArrays randomDetections(Random random, int count) {
+        int[] classIds = new int[count];
+        float[] scores = new float[count];
+        float[] boxes = new float[count * 4];
+        for (int i = 0; i < count; i++) {
+            classIds[i] = random.nextInt(LABELS.length);
+            scores[i] = random.nextFloat();
+            float left = random.nextFloat() * 3000f;
+            float top = random.nextFloat() * 4000f;
+            boxes[i * 4] = left;
+            boxes[i * 4 + 1] = top;
+            boxes[i * 4 + 2] = left + random.nextFloat() * 1000f;
+            boxes[i * 4 + 3] = top + random.nextFloat() * 1000f;
+        }
+        return new DetectionArrays(classIds, scores, boxes);
+    }
+
+    private static List<JsonRecognition> toJsonRecognitions(DetectionArrays arrays) {
+        List<JsonRecognition> recognitions = new ArrayList<>(arrays.count);
+        for (int i = 0; i < arrays.count; i++) {
+            JsonRecognition recognition = new JsonRecognition();
+            recognition.id = String.valueOf(i);
+            recognition.title = LABELS[arrays.classIds[i]];
+            recognition.confidence = arrays.scores[i];
+            recognition.location = new JsonBox();
+            recognition.location.left = arrays.boxes[i * 4];
+            recognition.location.top = arrays.boxes[i * 4 + 1];
+            recognition.location.right = arrays.boxes[i * 4 + 2];
+            recognition.location.bottom = arrays.boxes[i * 4 + 3];
+            recognitions.add(recognition);
+        }
+        return recognitions;
+    }
+}
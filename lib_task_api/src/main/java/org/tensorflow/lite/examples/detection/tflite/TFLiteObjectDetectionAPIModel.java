@@ -79,12 +79,37 @@ public class TFLiteObjectDetectionAPIModel implements Detector {
       final int inputSize,
       final boolean isQuantized)
       throws IOException {
-    return new TFLiteObjectDetectionAPIModel(context, modelFilename);
+    return new TFLiteObjectDetectionAPIModel(context, modelFilename, -1);
   }
 
-  private TFLiteObjectDetectionAPIModel(Context context, String modelFilename) throws IOException {
+  /**
+   * Initializes a native TensorFlow session running on a given number of threads. Unlike {@link
+   * #setNumThreads(int)}, the detector is only built once.
+   *
+   * @param modelFilename The model file path relative to the assets folder
+   * @param labelFilename The label file path relative to the assets folder
+   * @param inputSize The size of image input
+   * @param isQuantized Boolean representing model is quantized or not
+   * @param numThreads The number of inference threads, or -1 to let the runtime choose
+   */
+  public static Detector create(
+      final Context context,
+      final String modelFilename,
+      final String labelFilename,
+      final int inputSize,
+      final boolean isQuantized,
+      final int numThreads)
+      throws IOException {
+    return new TFLiteObjectDetectionAPIModel(context, modelFilename, numThreads);
+  }
+
+  private TFLiteObjectDetectionAPIModel(Context context, String modelFilename, int numThreads)
+      throws IOException {
     modelBuffer = FileUtil.loadMappedFile(context, modelFilename);
-    optionsBuilder = ObjectDetectorOptions.builder().setMaxResults(NUM_DETECTIONS);
+    optionsBuilder =
+        ObjectDetectorOptions.builder()
+            .setMaxResults(NUM_DETECTIONS)
+            .setBaseOptions(BaseOptions.builder().setNumThreads(numThreads).build());
     objectDetector = ObjectDetector.createFromBufferAndOptions(modelBuffer, optionsBuilder.build());
   }
 